@@ -0,0 +1,48 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.protocol.TerrainType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks de la lecture de cases d'un chunk, pour des chunks plus ou moins remplis.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChunkBenchmark {
+  private static final int POINTS = 1024;
+  @Param({"0", "100", "10000"})
+  private int blocks;
+  private Chunk chunk;
+  private final int[] xs = new int[POINTS];
+  private final int[] ys = new int[POINTS];
+  private int index;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    List<Block> data = new ArrayList<>(blocks);
+    for (int i = 0; i < blocks; i++) {
+      data.add(new Block(random.nextInt(256), random.nextInt(256), TerrainType.BLACK_WALL));
+    }
+    chunk = new Chunk(TerrainType.WHITE_GROUND, data);
+    for (int i = 0; i < POINTS; i++) {
+      xs[i] = random.nextInt(256);
+      ys[i] = random.nextInt(256);
+    }
+  }
+
+  @Benchmark
+  public TerrainType getBlock() {
+    index = index + 1 & POINTS - 1;
+    return chunk.getBlock(xs[index], ys[index]);
+  }
+}
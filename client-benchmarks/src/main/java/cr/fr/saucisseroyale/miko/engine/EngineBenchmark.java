@@ -0,0 +1,34 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks de la simulation d'un tick complet de l'engine, sans affichage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EngineBenchmark {
+  @Param({"10", "100"})
+  private int players;
+  @Param({"0", "100", "1000"})
+  private int balls;
+  private Simulation simulation;
+
+  // recréé à chaque itération : les balles touchant des joueurs disparaissent
+  @Setup(Level.Iteration)
+  public void setup() {
+    simulation = EngineFixture.newSimulation(players, balls);
+  }
+
+  @Benchmark
+  public long tick() {
+    EngineFixture.nextTick(simulation);
+    return simulation.getTick();
+  }
+}
@@ -0,0 +1,86 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.protocol.*;
+import cr.fr.saucisseroyale.miko.protocol.EntityDataUpdate.Builder;
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Construit des simulations peuplées d'entités, pour les benchmarks.
+ * <p>
+ * Les entités sont réparties aléatoirement (avec une graine fixe) dans un carré de
+ * {@link #WORLD_SIZE} cases autour de l'origine, sur un terrain sans murs. L'entité du joueur est
+ * le joueur d'entityId 0.
+ */
+final class EngineFixture {
+  static final int MAX_ROLLBACK_TICKS = 64;
+  static final int WORLD_SIZE = 2048;
+  static final int FIRST_BALL_ID = 10000;
+  // les balles ne disparaissent pas d'elles-mêmes pendant un benchmark
+  private static final int BALL_LIFESPAN = Short.MAX_VALUE;
+  // aucun événement de touche n'est simulé, les codes sont arbitraires
+  private static final KeyBindings KEY_BINDINGS = new KeyBindings(0, 1, 2, 3, 4);
+
+  // Classe statique
+  private EngineFixture() {
+    throw new IllegalArgumentException("This class cannot be instantiated");
+  }
+
+  static Config newConfig() {
+    return new Config(MAX_ROLLBACK_TICKS, 0, 2f, 10, 4f, BALL_LIFESPAN);
+  }
+
+  static EntityDataUpdate newPlayer(Random random, int entityId) {
+    return new Builder(entityId).entityType(EntityType.PLAYER).spriteType(SpriteType.PLAYER)
+            .position(new MapPoint(random.nextFloat() * WORLD_SIZE - WORLD_SIZE / 2, random.nextFloat() * WORLD_SIZE - WORLD_SIZE / 2))
+            .speedAngle((float) (random.nextFloat() * 2 * Math.PI)).speedNorm(2f).objectAttribute(ObjectAttribute.HEALTH, 100)
+            .objectAttribute(ObjectAttribute.COOLDOWN_ONE, 0).build();
+  }
+
+  static EntityDataUpdate newBall(Random random, int entityId) {
+    return new Builder(entityId).entityType(EntityType.BALL).spriteType(SpriteType.BALL)
+            .position(new MapPoint(random.nextFloat() * WORLD_SIZE - WORLD_SIZE / 2, random.nextFloat() * WORLD_SIZE - WORLD_SIZE / 2))
+            .speedAngle((float) (random.nextFloat() * 2 * Math.PI)).speedNorm(4f).objectAttribute(ObjectAttribute.SENDER, 0)
+            .objectAttribute(ObjectAttribute.TICKS_LEFT, BALL_LIFESPAN).build();
+  }
+
+  /**
+   * Crée une simulation démarrée, avec les entités spécifiées créées au premier tick.
+   *
+   * @param players Le nombre de joueurs (au moins 1, le joueur lui-même).
+   * @param balls   Le nombre de balles.
+   * @return La simulation créée.
+   */
+  static Simulation newSimulation(int players, int balls) {
+    Simulation simulation = new Simulation(newConfig(), KEY_BINDINGS, message -> {
+    }, 0);
+    simulation.setPlayerEntityId(0);
+    Random random = new Random(0);
+    for (int i = 0; i < players; i++) {
+      simulation.entityCreate(0, newPlayer(random, i));
+    }
+    for (int i = 0; i < balls; i++) {
+      simulation.entityCreate(0, newBall(random, FIRST_BALL_ID + i));
+    }
+    simulation.endStartup(1);
+    return simulation;
+  }
+
+  /**
+   * Simule le tick suivant sans input, comme une frame du jeu sans événement, puis libère les
+   * ticks trop anciens.
+   *
+   * @param simulation La simulation à faire avancer.
+   */
+  static void nextTick(Simulation simulation) {
+    // un message vide au dernier tick pour que la simulation puisse libérer les anciens ticks
+    simulation.actions(remainder(simulation.getTick()), Collections.emptyList());
+    simulation.processNextTick(Collections.emptyList());
+    simulation.freeTime();
+  }
+
+  static int remainder(long tick) {
+    return (int) (tick & 0xFFFF);
+  }
+}
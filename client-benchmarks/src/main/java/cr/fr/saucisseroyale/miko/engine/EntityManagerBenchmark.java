@@ -0,0 +1,65 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.util.IntList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks du parcours des entités activées à un tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EntityManagerBenchmark {
+  @Param({"100", "1000"})
+  private int entities;
+  private EntityManager entityManager;
+  private final IntList list = new IntList();
+  private long tick;
+
+  @Setup
+  public void setup() {
+    entityManager = new EntityManager(EngineFixture.MAX_ROLLBACK_TICKS);
+    Random random = new Random(0);
+    for (int i = 0; i < entities; i++) {
+      entityManager.createEntity(0, EngineFixture.newBall(random, i));
+    }
+    // un quart des entités sont détruites
+    for (int i = 0; i < entities; i += 4) {
+      entityManager.destroyEntity(1, i);
+    }
+    tick = 2;
+  }
+
+  @Benchmark
+  public int getEntitiesSameTick() {
+    list.clear();
+    entityManager.getEntities(tick, list);
+    return list.size();
+  }
+
+  @Benchmark
+  public int getEntitiesAlternateTicks() {
+    // change de tick à chaque appel, comme pendant un rollback
+    tick = tick == 2 ? 3 : 2;
+    list.clear();
+    entityManager.getEntities(tick, list);
+    return list.size();
+  }
+
+  @Benchmark
+  public float readPositions() {
+    list.clear();
+    entityManager.getEntities(tick, list);
+    float sum = 0;
+    for (int i = 0; i < list.size(); i++) {
+      sum += entityManager.getX(tick, list.get(i)) + entityManager.getY(tick, list.get(i));
+    }
+    return sum;
+  }
+}
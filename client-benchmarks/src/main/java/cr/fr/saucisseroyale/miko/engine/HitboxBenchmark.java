@@ -0,0 +1,51 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks des tests de collision entre hitbox.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HitboxBenchmark {
+  private static final int POINTS = 1024;
+  private final Hitbox circle = Hitbox.newCircleHitbox(10);
+  private final Hitbox rectangle = Hitbox.newRectangleHitbox(20, 30);
+  private final float[] xs = new float[POINTS];
+  private final float[] ys = new float[POINTS];
+  private int index;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    for (int i = 0; i < POINTS; i++) {
+      xs[i] = random.nextFloat() * 60 - 30;
+      ys[i] = random.nextFloat() * 60 - 30;
+    }
+  }
+
+  @Benchmark
+  public boolean collideCircles() {
+    index = index + 1 & POINTS - 1;
+    return Hitbox.collide(circle, 0, 0, circle, xs[index], ys[index]);
+  }
+
+  @Benchmark
+  public boolean collideRectangleCircle() {
+    index = index + 1 & POINTS - 1;
+    return Hitbox.collide(rectangle, 0, 0, circle, xs[index], ys[index]);
+  }
+
+  @Benchmark
+  public boolean collideRectangles() {
+    index = index + 1 & POINTS - 1;
+    return Hitbox.collide(rectangle, 0, 0, rectangle, xs[index], ys[index]);
+  }
+}
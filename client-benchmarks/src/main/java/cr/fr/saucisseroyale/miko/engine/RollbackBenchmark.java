@@ -0,0 +1,64 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.protocol.ChunkPoint;
+import cr.fr.saucisseroyale.miko.protocol.EntityDataUpdate;
+import cr.fr.saucisseroyale.miko.protocol.EntityDataUpdate.Builder;
+import cr.fr.saucisseroyale.miko.protocol.TerrainType;
+import cr.fr.saucisseroyale.miko.util.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks d'un rollback : un message du serveur arrive pour un tick passé, la simulation resimule
+ * les ticks jusqu'au dernier tick puis simule le tick suivant.
+ * <p>
+ * Une correction "entity" ne modifie qu'un joueur ; une correction "terrain" met à jour un chunk
+ * et oblige à resimuler toutes les entités.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RollbackBenchmark {
+  @Param({"100"})
+  private int players;
+  @Param({"1000"})
+  private int balls;
+  @Param({"1", "8", "32"})
+  private int rollbackTicks;
+  @Param({"entity", "terrain"})
+  private String correction;
+  private Simulation simulation;
+  private final List<EntityDataUpdate> entityCorrection =
+          Collections.singletonList(new Builder(1).position(new MapPoint(0, 0)).build());
+  private final List<Pair<ChunkPoint, Chunk>> terrainCorrection =
+          Collections.singletonList(new Pair<>(new ChunkPoint(0, 0), new Chunk(TerrainType.WHITE_GROUND, Collections.emptyList())));
+
+  // recréé à chaque itération : les balles touchant des joueurs disparaissent
+  @Setup(Level.Iteration)
+  public void setup() {
+    simulation = EngineFixture.newSimulation(players, balls);
+    // remplir la fenêtre de rollback
+    for (int i = 0; i < rollbackTicks; i++) {
+      EngineFixture.nextTick(simulation);
+    }
+  }
+
+  @Benchmark
+  public long rollback() {
+    int remainder = EngineFixture.remainder(simulation.getTick() - rollbackTicks);
+    if (correction.equals("entity")) {
+      simulation.entitiesUpdate(remainder, entityCorrection);
+    } else {
+      simulation.chunksUpdate(remainder, terrainCorrection);
+    }
+    simulation.processNextTick(Collections.emptyList());
+    simulation.freeTime();
+    return simulation.getTick();
+  }
+}
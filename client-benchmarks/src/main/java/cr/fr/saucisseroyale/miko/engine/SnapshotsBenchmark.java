@@ -0,0 +1,66 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks de la lecture et de l'écriture de snapshots, sur une fenêtre de ticks similaire à
+ * celle d'une entité pendant une partie.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SnapshotsBenchmark {
+  @Param({"8", "64"})
+  private int window;
+  private Snapshots<Object> snapshots;
+  private FloatSnapshots floatSnapshots;
+  private long tick;
+  private long readTick;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    snapshots = new Snapshots<>(window);
+    floatSnapshots = new FloatSnapshots(window);
+    for (tick = 0; tick < window; tick++) {
+      snapshots.setSnapshot(tick, tick);
+      floatSnapshots.setSnapshot(tick, tick);
+    }
+    readTick = 0;
+  }
+
+  @Benchmark
+  public Object getSnapshotLatest() {
+    return snapshots.getSnapshot(tick);
+  }
+
+  @Benchmark
+  public Object getSnapshotInWindow() {
+    readTick = readTick + 1 < window ? readTick + 1 : 0;
+    return snapshots.getSnapshot(tick - window + readTick);
+  }
+
+  @Benchmark
+  public void setSnapshotAppend() {
+    snapshots.setSnapshot(tick, tick);
+    snapshots.disposeUntilTick(tick - window);
+    tick++;
+  }
+
+  @Benchmark
+  public float getFloatSnapshotInWindow() {
+    readTick = readTick + 1 < window ? readTick + 1 : 0;
+    return floatSnapshots.getSnapshot(tick - window + readTick, Float.NaN);
+  }
+
+  @Benchmark
+  public void setFloatSnapshotAppend() {
+    floatSnapshots.setSnapshot(tick, tick);
+    floatSnapshots.disposeUntilTick(tick - window);
+    tick++;
+  }
+}
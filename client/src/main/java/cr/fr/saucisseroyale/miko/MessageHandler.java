@@ -1,6 +1,7 @@
 package cr.fr.saucisseroyale.miko;
 
 import cr.fr.saucisseroyale.miko.engine.Chunk;
+import cr.fr.saucisseroyale.miko.network.EntityUpdateCursor;
 import cr.fr.saucisseroyale.miko.protocol.*;
 import cr.fr.saucisseroyale.miko.util.Pair;
 import cr.fr.saucisseroyale.miko.util.Pair.Int;
@@ -24,7 +25,13 @@ public interface MessageHandler {
 
   void entityDestroy(int tickRemainder, int entityId);
 
-  void entitiesUpdate(int tickRemainder, List<EntityDataUpdate> entitiesUpdateList);
+  /**
+   * Reçoit une mise à jour d'entités ; le curseur n'est valide que pendant l'appel.
+   *
+   * @param tickRemainder Le tick de la mise à jour, modulo 2^16.
+   * @param entities      Le curseur sur les mises à jour des entités.
+   */
+  void entitiesUpdate(int tickRemainder, EntityUpdateCursor entities);
 
   void exit(ExitType exitType);
 
@@ -3,6 +3,8 @@ package cr.fr.saucisseroyale.miko;
 import cr.fr.saucisseroyale.miko.UiComponents.*;
 import cr.fr.saucisseroyale.miko.engine.Chunk;
 import cr.fr.saucisseroyale.miko.engine.Engine;
+import cr.fr.saucisseroyale.miko.network.ChunkCache;
+import cr.fr.saucisseroyale.miko.network.EntityUpdateCursor;
 import cr.fr.saucisseroyale.miko.network.FutureInputMessage;
 import cr.fr.saucisseroyale.miko.network.NetworkClient;
 import cr.fr.saucisseroyale.miko.network.OutputMessageFactory;
@@ -18,12 +20,22 @@ import org.apache.logging.log4j.Logger;
 import java.awt.*;
 import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
 import java.util.prefs.Preferences;
 
 public class Miko implements MessageHandler {
+  // protocol version implemented by the server, offered by default
   public static final int PROTOCOL_VERSION = 10;
+  // newest protocol version supported, offered only when requested with -Dmiko.protocol
+  public static final int LATEST_PROTOCOL_VERSION = 13;
+  // oldest protocol version still supported, offered when the server is outdated
+  public static final int MIN_PROTOCOL_VERSION = 10;
+  // number of most recently used cached chunks announced to the server before login
+  private static final int ADVERTISED_CHUNKS = 1024;
   public static final int TICK_TIME = 20 * 1000000; // milliseconds
   private static final long SERVER_TIMEOUT = 20 * 1000000000L; // seconds
+  // the game clock is corrected by at most 1/CLOCK_SLEW_RATIO of the elapsed time
+  private static final long CLOCK_SLEW_RATIO = 1000;
   private static final String DEFAULT_SERVER_ADDRESS = "localhost";
   private static final int DEFAULT_SERVER_PORT = 9999;
   private static final Preferences prefsNode = Preferences.userRoot().node("miko.main");
@@ -40,12 +52,15 @@ public class Miko implements MessageHandler {
   private MikoState state = MikoState.NETWORK;
   private boolean closeRequested = false;
   private NetworkClient networkClient;
+  private int protocolVersion = PROTOCOL_VERSION;
   private TimeClient timeClient;
   private InputStateManager inputStateManager = new InputStateManager();
   private Config config;
   private long accumulator;
   @SuppressWarnings("FieldCanBeLocal")
   private long lastFrame;
+  // clock difference (nanoseconds) the game clock is currently aligned to
+  private long appliedClockDifference;
   private float alpha; // for #render(), updated each loop
 
   public static void main(String... args) throws Exception {
@@ -113,6 +128,7 @@ public class Miko implements MessageHandler {
       long deltaTime = newTime - lastFrame;
       lastFrame = newTime;
       accumulator += deltaTime;
+      slewClock(deltaTime);
       network();
       Ui.getUi().input();
       logic();
@@ -123,6 +139,23 @@ public class Miko implements MessageHandler {
     exit();
   }
 
+  // follows the clock difference estimate gradually, so that ticks never jump
+  private void slewClock(long deltaTime) {
+    if (state != MikoState.JOIN && state != MikoState.EXIT) {
+      return;
+    }
+    Optional<Long> clockDifference = timeClient.getClockDifference();
+    if (!clockDifference.isPresent()) {
+      return;
+    }
+    long error = clockDifference.get() * 1000 - appliedClockDifference;
+    long maxCorrection = deltaTime / CLOCK_SLEW_RATIO;
+    long correction = Math.max(-maxCorrection, Math.min(maxCorrection, error));
+    // a later local start of the server clock means less elapsed game time
+    accumulator -= correction;
+    appliedClockDifference += correction;
+  }
+
   private void network() {
     if (state == MikoState.NETWORK || state == MikoState.CONNECTION_REQUEST || state == MikoState.CONNECTION) {
       return;
@@ -159,15 +192,16 @@ public class Miko implements MessageHandler {
   private void connect(String address, int port) {
     try {
       logger.info("Connecting to {} at port {}", address, port);
-      networkClient.connect(address, port);
+      networkClient.connect(address, port, protocolVersion);
     } catch (IOException e) {
       logger.warn("Connection error, disconnecting");
       connect.setStatusText("Erreur d'établissement de connexion: " + e.getClass().getCanonicalName() + ": " + e.getLocalizedMessage());
       disconnect();
       return;
     }
+    // send before changing state: afterwards, the game thread is the only one to send messages
+    networkClient.putMessage(OutputMessageFactory.version(protocolVersion));
     changeStateTo(MikoState.CONFIG);
-    networkClient.putMessage(OutputMessageFactory.version());
   }
 
   private void connectRequested(String address, int port) {
@@ -175,10 +209,31 @@ public class Miko implements MessageHandler {
       return;
     }
     changeStateTo(MikoState.CONNECTION);
+    protocolVersion = getOfferedProtocolVersion();
     // use thread to avoid blocking swing event dispatching for too long
     new Thread(() -> connect(address, port)).start();
   }
 
+  // versions above PROTOCOL_VERSION are not implemented by the server yet and must be opted in
+  private static int getOfferedProtocolVersion() {
+    int version = Integer.getInteger("miko.protocol", PROTOCOL_VERSION);
+    if (version < MIN_PROTOCOL_VERSION || version > LATEST_PROTOCOL_VERSION) {
+      logger.warn("Unsupported protocol version {}, using version {}", version, PROTOCOL_VERSION);
+      return PROTOCOL_VERSION;
+    }
+    return version;
+  }
+
+  private void reconnectWithOlderVersion() {
+    String address = networkClient.getLastAddressString();
+    int port = networkClient.getLastAddress().getPort();
+    networkClient.disconnect();
+    protocolVersion--;
+    logger.info("Server outdated, reconnecting with protocol version {}", protocolVersion);
+    changeStateTo(MikoState.CONNECTION);
+    new Thread(() -> connect(address, port)).start();
+  }
+
   private void loginRequested(String username, String password) {
     if (state != MikoState.LOGIN_REQUEST) {
       return;
@@ -186,6 +241,11 @@ public class Miko implements MessageHandler {
     changeStateTo(MikoState.LOGIN);
     this.username = username;
     logger.info("Logging in as {}", username);
+    ChunkCache chunkCache = networkClient.getChunkCache();
+    if (chunkCache != null) {
+      // before login, for the server to skip unchanged chunks of the initial terrain
+      networkClient.putMessage(OutputMessageFactory.terrainHashes(chunkCache.getRecentHashes(ADVERTISED_CHUNKS)));
+    }
     networkClient.putMessage(OutputMessageFactory.login(username, password));
   }
 
@@ -347,17 +407,22 @@ public class Miko implements MessageHandler {
   }
 
   @Override
-  public void entitiesUpdate(int tickRemainder, List<EntityDataUpdate> entitiesUpdateList) {
+  public void entitiesUpdate(int tickRemainder, EntityUpdateCursor entities) {
     messageReceived();
     if (state != MikoState.JOIN && state != MikoState.EXIT) {
       logger.warn("Ignored entitiesupdate message received in state {}", state);
       return;
     }
-    engine.entitiesUpdate(tickRemainder, entitiesUpdateList);
+    engine.entitiesUpdate(tickRemainder, entities);
   }
 
   @Override
   public void exit(ExitType exitType) {
+    if (exitType == ExitType.SERVER_OUTDATED && state == MikoState.CONFIG && protocolVersion > MIN_PROTOCOL_VERSION) {
+      // protocol version negotiation: the server only accepts its own version
+      reconnectWithOlderVersion();
+      return;
+    }
     logger.warn("Exited because of {} exit message", exitType);
     String statusMessage;
     switch (exitType) {
@@ -433,8 +498,9 @@ public class Miko implements MessageHandler {
       logger.warn("Ignored loginsuccess message received in state {}", state);
       return;
     }
+    // the time client keeps running to track the clock drift, see #slewClock(long)
     long clockDifference = timeClient.getClockDifference().get();
-    timeClient.disconnect();
+    appliedClockDifference = clockDifference * 1000;
     long tickLocalStartTimestamp = timestamp + clockDifference;
     logger.info("Login success, starting engine at tick {}, timestamp {}", tickRemainder, tickLocalStartTimestamp);
     long currentTime = System.nanoTime();
@@ -443,6 +509,7 @@ public class Miko implements MessageHandler {
     changeStateTo(MikoState.JOIN);
     try {
       engine = new Engine(config, networkClient::putMessage, tickRemainder);
+      engine.setChunkCache(networkClient.getChunkCache());
     } catch (IOException e) {
       connect.setStatusText("Erreur lors de la création du jeu : erreur de lecture de données. " + e.getMessage());
       disconnect();
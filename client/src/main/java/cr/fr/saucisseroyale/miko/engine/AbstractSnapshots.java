@@ -0,0 +1,269 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+/**
+ * La base commune des gestionnaires de snapshots, gérant les ticks des couples (tick ; donnée) et
+ * laissant aux sous-classes le stockage des données, dans un tableau (éventuellement de
+ * primitives) parallèle au tableau des ticks.
+ * <p>
+ * Les couples sont stockés dans un buffer circulaire trié par tick : la lecture est une recherche
+ * dichotomique, l'ajout après le dernier tick et la suppression des plus anciens ticks sont en
+ * temps constant. Le buffer est agrandi si besoin.
+ *
+ * @param <A> Le type du tableau stockant les données (par exemple float[]).
+ * @see Snapshots
+ */
+abstract class AbstractSnapshots<A> {
+  private static final int DEFAULT_CAPACITY = 4;
+  /**
+   * Les données, indexées par les emplacements renvoyés par {@link #getSlot(long)} et
+   * {@link #setSlot(long)}.
+   */
+  protected A values;
+  private long[] ticks;
+  // indice dans les tableaux du plus ancien snapshot
+  private int head;
+  private int size;
+
+  /**
+   * Crée un snapshots avec une capacité initiale par défaut.
+   */
+  protected AbstractSnapshots() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Crée un snapshots avec une capacité initiale spécifiée, typiquement le nombre de ticks de
+   * rollback pour des valeurs changeant à chaque tick.
+   *
+   * @param capacity La capacité initiale du buffer à créer (arrondie à une puissance de 2).
+   */
+  protected AbstractSnapshots(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Snapshots capacity must be positive");
+    }
+    int powerOfTwoCapacity = Integer.highestOneBit(capacity);
+    if (powerOfTwoCapacity < capacity) {
+      powerOfTwoCapacity <<= 1;
+    }
+    ticks = new long[powerOfTwoCapacity];
+    values = newValues(powerOfTwoCapacity);
+  }
+
+  /**
+   * Crée un tableau de données de la taille spécifiée. Appelé depuis le constructeur : ne doit pas
+   * dépendre de l'état de la sous-classe.
+   *
+   * @param capacity La taille du tableau à créer.
+   * @return Le tableau créé.
+   */
+  protected abstract A newValues(int capacity);
+
+  /**
+   * Libère la donnée à l'emplacement spécifié, qui ne sera plus lue. Ne fait rien par défaut.
+   *
+   * @param slot L'emplacement de la donnée à libérer.
+   */
+  protected void clearValue(int slot) {}
+
+  /**
+   * Retourne l'emplacement de la donnée la plus récente dont le tick est avant ou égal au tick
+   * spécifié, ou -1 s'il n'en existe pas.
+   *
+   * @param tick Le tick de la donnée à chercher.
+   * @return L'emplacement de la donnée dans {@link #values}, ou -1.
+   */
+  protected final int getSlot(long tick) {
+    int index = floorIndex(tick);
+    if (index < 0) {
+      return -1;
+    }
+    return slot(index);
+  }
+
+  /**
+   * Retourne l'emplacement auquel écrire la donnée du tick spécifié, en ajoutant le tick s'il
+   * n'existait pas encore.
+   * <p>
+   * Cet appel peut remplacer le tableau {@link #values} : il faut le lire après l'appel.
+   *
+   * @param tick Le tick de la donnée à écrire.
+   * @return L'emplacement auquel écrire la donnée dans {@link #values}.
+   */
+  protected final int setSlot(long tick) {
+    // cas le plus courant : nouveau tick après tous les autres
+    if (size == 0 || tick > ticks[slot(size - 1)]) {
+      ensureCapacity();
+      int slot = slot(size);
+      ticks[slot] = tick;
+      size++;
+      return slot;
+    }
+    int index = floorIndex(tick);
+    if (index >= 0 && ticks[slot(index)] == tick) {
+      return slot(index);
+    }
+    return insert(index + 1, tick);
+  }
+
+  private int insert(int index, long tick) {
+    ensureCapacity();
+    if (index < size / 2) {
+      // décaler les premiers éléments vers la gauche
+      int oldHead = head;
+      head = head - 1 & ticks.length - 1;
+      shiftLeft(oldHead, index);
+    } else {
+      // décaler les derniers éléments vers la droite
+      shiftRight(slot(index), size - index);
+    }
+    int slot = slot(index);
+    ticks[slot] = tick;
+    size++;
+    return slot;
+  }
+
+  // décale de un vers la droite les count emplacements à partir de from, le suivant étant libre
+  private void shiftRight(int from, int count) {
+    int capacity = ticks.length;
+    int end = from + count;
+    if (end < capacity) {
+      copy(from, from + 1, count);
+      return;
+    }
+    // en partant de la fin : la partie revenue au début du buffer, le dernier emplacement du buffer
+    // qui passe au début, puis le reste
+    copy(0, 1, end - capacity);
+    copy(capacity - 1, 0, 1);
+    copy(from, from + 1, capacity - 1 - from);
+  }
+
+  // décale de un vers la gauche les count emplacements à partir de from, le précédent étant libre
+  private void shiftLeft(int from, int count) {
+    if (count == 0) {
+      return;
+    }
+    int capacity = ticks.length;
+    if (from > 0 && from + count <= capacity) {
+      copy(from, from - 1, count);
+      return;
+    }
+    // en partant du début : la partie avant la fin du buffer, le premier emplacement du buffer qui
+    // passe à la fin, puis le reste
+    int firstPart = from == 0 ? 0 : capacity - from;
+    copy(from, from - 1, firstPart);
+    copy(0, capacity - 1, 1);
+    copy(1, 0, count - firstPart - 1);
+  }
+
+  private void copy(int from, int to, int length) {
+    if (length > 0) {
+      System.arraycopy(ticks, from, ticks, to, length);
+      System.arraycopy(values, from, values, to, length);
+    }
+  }
+
+  /**
+   * Renvoit true s'il existe un snapshot au tick spécifié ou avant.
+   *
+   * @param tick Le tick auquel chercher un snapshot.
+   * @return true si un snapshot existe au tick spécifié.
+   */
+  public boolean hasSnapshot(long tick) {
+    return floorIndex(tick) >= 0;
+  }
+
+  /**
+   * Renvoit true s'il existe un snapshot strictement après le tick spécifié.
+   *
+   * @param tick Le tick après lequel chercher un snapshot.
+   * @return true si un snapshot existe après le tick spécifié.
+   */
+  public boolean hasSnapshotAfter(long tick) {
+    return size > 0 && ticks[slot(size - 1)] > tick;
+  }
+
+  /**
+   * Indique que les snapshots appartenant à des ticks avant ou égaux au tick spécifié ne seront
+   * plus jamais demandés et peuvent être supprimés.
+   * <p>
+   * Cette méthode n'est qu'une indication ; la classe peut décider de disposer les ressources
+   * associées aux ticks, ou non.
+   *
+   * @param tick Le tick (inclus) jusqu'auquel les snapshots ne seront plus demandés.
+   */
+  public void disposeUntilTick(long tick) {
+    // on garde le dernier snapshot avant le tick, qui reste valable pour les ticks suivants
+    int index = floorIndex(tick);
+    for (int i = 0; i < index; i++) {
+      clearValue(slot(i));
+    }
+    if (index > 0) {
+      head = slot(index);
+      size -= index;
+    }
+  }
+
+  /**
+   * Renvoit false si la liste de snapshots n'est pas vide, et peut renvoyer true si elle est vide.
+   * Méthode de convenance retournant exactement {@code size()==0}.
+   *
+   * @return Le booléen décrit ci-dessus.
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Renvoit une valeur supérieur ou égale au nombre de snapshots enregistrés dans la liste. Appeler
+   * {@link #disposeUntilTick(long)} puis cette méthode <b>ne renverra pas forcément</b> le nombre
+   * effectif de snapshots après le tick.
+   *
+   * @return Une majoration du nombre de snapshots stockés.
+   */
+  public int size() {
+    return size;
+  }
+
+  // renvoie l'indice logique du dernier snapshot dont le tick est avant ou égal au tick, ou -1
+  private int floorIndex(long tick) {
+    // cas le plus courant : lecture au dernier tick ou après
+    if (size == 0 || tick >= ticks[slot(size - 1)]) {
+      return size - 1;
+    }
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = low + high >>> 1;
+      long middleTick = ticks[slot(middle)];
+      if (middleTick < tick) {
+        low = middle + 1;
+      } else if (middleTick > tick) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return high;
+  }
+
+  private int slot(int index) {
+    return head + index & ticks.length - 1;
+  }
+
+  private void ensureCapacity() {
+    int capacity = ticks.length;
+    if (size < capacity) {
+      return;
+    }
+    long[] newTicks = new long[capacity * 2];
+    A newValues = newValues(capacity * 2);
+    int firstPart = capacity - head;
+    System.arraycopy(ticks, head, newTicks, 0, firstPart);
+    System.arraycopy(ticks, 0, newTicks, firstPart, head);
+    System.arraycopy(values, head, newValues, 0, firstPart);
+    System.arraycopy(values, 0, newValues, firstPart, head);
+    ticks = newTicks;
+    values = newValues;
+    head = 0;
+  }
+}
@@ -0,0 +1,59 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+/**
+ * Un gestionnaire de snapshots de boolean, sans autoboxing. Les données sont stockées dans un
+ * tableau de boolean parallèle au tableau des ticks. La lecture de la documentation de
+ * {@link Snapshots} est recommandée.
+ *
+ * @see Snapshots
+ */
+class BooleanSnapshots extends AbstractSnapshots<boolean[]> {
+  /**
+   * Crée un snapshots avec une capacité initiale par défaut.
+   */
+  public BooleanSnapshots() {
+    super();
+  }
+
+  /**
+   * Crée un snapshots avec une capacité initiale spécifiée.
+   *
+   * @param capacity La capacité initiale du buffer à créer.
+   */
+  public BooleanSnapshots(int capacity) {
+    super(capacity);
+  }
+
+  @Override
+  protected boolean[] newValues(int capacity) {
+    return new boolean[capacity];
+  }
+
+  /**
+   * Retourne le snapshot au tick spécifié, ou la valeur par défaut s'il n'existe pas de snapshot à
+   * ce tick.
+   *
+   * @param tick         Le tick du snapshot à renvoyer.
+   * @param defaultValue La valeur à renvoyer s'il n'existe pas de snapshot à ce tick.
+   * @return Le snapshot spécifié par le tick, ou la valeur par défaut s'il n'existe pas.
+   */
+  public boolean getSnapshot(long tick, boolean defaultValue) {
+    int slot = getSlot(tick);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    return values[slot];
+  }
+
+  /**
+   * Ajoute un snapshot au tick spécifié.
+   *
+   * @param tick     Le tick auquel ajouter le snapshot.
+   * @param snapshot Le snapshot à ajouter.
+   * @see Snapshots#setSnapshot(long, Object)
+   */
+  public void setSnapshot(long tick, boolean snapshot) {
+    int slot = setSlot(tick);
+    values[slot] = snapshot;
+  }
+}
@@ -8,12 +8,23 @@ import java.util.List;
 
 /**
  * Un bloc immutable de terrain de 256x256 cases.
+ * <p>
+ * Les cases définies sont indexées à la construction dans un tableau de 256x256 octets, pour que
+ * la lecture d'une case soit une simple lecture de tableau. Un bloc uniforme n'a pas d'index. Un
+ * bloc peut aussi être créé directement à partir de ce tableau, auquel cas ses cases définies ne
+ * sont calculées qu'à la demande.
  *
  * @see Block
  */
 public final class Chunk {
+  private static final TerrainType[] TYPES = TerrainType.values();
   private final TerrainType defaultType;
-  private final Block[] blocks;
+  // cases définies, calculées depuis types si le bloc a été créé depuis un tableau
+  private volatile Block[] blocks;
+  // ordinal du type de chaque case, indexé par (y << 8 | x), ou null si le bloc est uniforme
+  private final byte[] types;
+  // hashCode calculé à la demande, 0 s'il ne l'a pas encore été
+  private int hash;
 
   /**
    * @param defaultType Le type de case à utiliser par défaut lorsque la case n'a pas été ajoutée.
@@ -32,6 +43,56 @@ public final class Chunk {
       blocks[i] = block;
       i++;
     }
+    if (size == 0) {
+      types = null;
+      return;
+    }
+    // Index de toutes les cases pour une lecture en temps constant
+    byte defaultOrdinal = (byte) defaultType.ordinal();
+    byte[] index = new byte[1 << 16];
+    Arrays.fill(index, defaultOrdinal);
+    // En sens inverse pour que la première case définie en un point soit prioritaire
+    for (int j = size - 1; j >= 0; j--) {
+      Block block = blocks[j];
+      index[block.getY() << 8 | block.getX()] = (byte) block.getType().ordinal();
+    }
+    // Cases toutes du type par défaut : uniforme, comme avec le constructeur depuis un tableau
+    if (isUniform(index, defaultOrdinal)) {
+      blocks = new Block[0];
+      types = null;
+    } else {
+      types = index;
+    }
+  }
+
+  /**
+   * Crée un bloc à partir du tableau des types de ses cases.
+   *
+   * @param defaultType Le type de case par défaut.
+   * @param types       L'ordinal du type de chaque case, indexé par <code>(y &lt;&lt; 8 | x)</code>,
+   *                    de taille 256x256. Le tableau est gardé par le bloc et ne doit plus être
+   *                    modifié.
+   */
+  public Chunk(TerrainType defaultType, byte[] types) {
+    if (types.length != 1 << 16) {
+      throw new IllegalArgumentException("types must have a length of 65536");
+    }
+    this.defaultType = defaultType;
+    if (isUniform(types, (byte) defaultType.ordinal())) {
+      blocks = new Block[0];
+      this.types = null;
+    } else {
+      this.types = types;
+    }
+  }
+
+  private static boolean isUniform(byte[] types, byte defaultOrdinal) {
+    for (byte type : types) {
+      if (type != defaultOrdinal) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -56,20 +117,38 @@ public final class Chunk {
   }
 
   private TerrainType getBlock0(int x, int y) {
-    for (Block block : blocks) {
-      if (block.getX() == x && block.getY() == y) {
-        return block.getType();
-      }
+    if (types == null) {
+      return defaultType;
     }
-    return defaultType;
+    return TYPES[types[y << 8 | x]];
   }
 
   public Iterable<Block> getDefinedBlocks() {
-    return new ArrayIterable<>(blocks);
+    return new ArrayIterable<>(getBlocks());
   }
 
   public boolean isUniform() {
-    return blocks.length == 0;
+    return types == null;
+  }
+
+  /**
+   * Estime la mémoire occupée par ce bloc, en octets, en comptant ses cases définies seulement si
+   * elles ont déjà été calculées.
+   *
+   * @return La taille estimée du bloc en octets.
+   */
+  public long getMemorySize() {
+    // en-têtes et champs du bloc et de ses tableaux
+    long size = 64;
+    if (types != null) {
+      size += types.length;
+    }
+    Block[] definedBlocks = blocks;
+    if (definedBlocks != null) {
+      // une référence et un objet Block par case définie
+      size += definedBlocks.length * 32L;
+    }
+    return size;
   }
 
   /**
@@ -81,10 +160,14 @@ public final class Chunk {
 
   @Override
   public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + Arrays.hashCode(blocks);
-    result = prime * result + (defaultType == null ? 0 : defaultType.hashCode());
+    int result = hash;
+    if (result == 0) {
+      final int prime = 31;
+      result = 1;
+      result = prime * result + Arrays.hashCode(types);
+      result = prime * result + (defaultType == null ? 0 : defaultType.hashCode());
+      hash = result;
+    }
     return result;
   }
 
@@ -100,9 +183,33 @@ public final class Chunk {
       return false;
     }
     Chunk other = (Chunk) obj;
-    if (!Arrays.equals(blocks, other.blocks)) {
+    if (hashCode() != other.hashCode()) {
+      return false;
+    }
+    if (!Arrays.equals(types, other.types)) {
       return false;
     }
     return defaultType == other.defaultType;
   }
+
+  private Block[] getBlocks() {
+    if (blocks == null) {
+      byte defaultOrdinal = (byte) defaultType.ordinal();
+      int size = 0;
+      for (byte type : types) {
+        if (type != defaultOrdinal) {
+          size++;
+        }
+      }
+      Block[] definedBlocks = new Block[size];
+      int i = 0;
+      for (int index = 0; index < types.length; index++) {
+        if (types[index] != defaultOrdinal) {
+          definedBlocks[i++] = new Block(index & 0xFF, index >>> 8, TYPES[types[index]]);
+        }
+      }
+      blocks = definedBlocks;
+    }
+    return blocks;
+  }
 }
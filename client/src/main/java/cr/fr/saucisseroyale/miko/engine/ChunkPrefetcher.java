@@ -0,0 +1,224 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.network.ChunkCache;
+import cr.fr.saucisseroyale.miko.network.FutureOutputMessage;
+import cr.fr.saucisseroyale.miko.network.OutputMessageFactory;
+import cr.fr.saucisseroyale.miko.protocol.ChunkPoint;
+import cr.fr.saucisseroyale.miko.util.MikoMath;
+import cr.fr.saucisseroyale.miko.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Demande au serveur le terrain autour du joueur avant qu'il ne soit affiché, en anticipant son
+ * déplacement.
+ * <p>
+ * La zone affichée autour du joueur est enregistrée à chaque rendu. À chaque tick, cette zone est
+ * décalée selon la vitesse du joueur jusqu'à {@link #LOOKAHEAD_TICKS} ticks dans le futur, et les
+ * chunks non définis de ces zones sont demandés au serveur, ceux visibles plus tôt et plus proches
+ * du joueur en premier, au plus {@link #MAX_REQUESTS_PER_TICK} par tick. Une demande sans réponse
+ * est refaite après {@link #REQUEST_TIMEOUT_TICKS} ticks, puis après un délai doublé à chaque
+ * nouvelle demande, jusqu'à {@link #MAX_RETRY_DELAY_TICKS} ticks.
+ * <p>
+ * Tant qu'aucun chunk n'est demandé, la mise à jour d'un tick ne crée aucun objet, en dehors de
+ * l'oubli des demandes anciennes, fait tous les {@link #MAX_RETRY_DELAY_TICKS} ticks.
+ */
+class ChunkPrefetcher {
+  private static final int LOOKAHEAD_TICKS = 50;
+  // nombre de positions futures du joueur considérées, en plus de la position actuelle
+  private static final int LOOKAHEAD_STEPS = 4;
+  private static final int MAX_REQUESTS_PER_TICK = 4;
+  private static final int REQUEST_TIMEOUT_TICKS = 250;
+  // nombre maximum de doublements du délai avant de redemander un chunk
+  private static final int MAX_RETRY_SHIFT = 4;
+  private static final int MAX_RETRY_DELAY_TICKS = REQUEST_TIMEOUT_TICKS << MAX_RETRY_SHIFT;
+  // marge en cases autour de la zone affichée
+  private static final int VIEW_MARGIN = 64;
+  private final TerrainManager terrainManager;
+  private final Consumer<FutureOutputMessage> messageOutput;
+  private ChunkCache chunkCache;
+  // chunks demandés et pas encore reçus
+  private final ChunkTable<PendingRequest> pendingRequests = new ChunkTable<>();
+  private long lastPurgeTick;
+  // zones en chunks de chaque étape du tick en cours
+  private final int[] stepMinChunkX = new int[LOOKAHEAD_STEPS + 1];
+  private final int[] stepMaxChunkX = new int[LOOKAHEAD_STEPS + 1];
+  private final int[] stepMinChunkY = new int[LOOKAHEAD_STEPS + 1];
+  private final int[] stepMaxChunkY = new int[LOOKAHEAD_STEPS + 1];
+  // chunks candidats du tick en cours (coordonnées regroupées par ChunkTable#key), réutilisés
+  private long[] candidates = new long[64];
+  private float[] candidatePriorities = new float[64];
+  private int candidateCount;
+  private final List<ChunkPoint> requests = new ArrayList<>(MAX_REQUESTS_PER_TICK);
+  private final List<Pair<ChunkPoint, Long>> hashes = new ArrayList<>(MAX_REQUESTS_PER_TICK);
+  private boolean viewDefined;
+  // zone affichée, en cases relativement au joueur
+  private int viewMinX;
+  private int viewMinY;
+  private int viewMaxX;
+  private int viewMaxY;
+
+  private static class PendingRequest {
+    // nombre de demandes faites pour le chunk
+    private int attempts;
+    // tick à partir duquel le chunk peut être redemandé
+    private long retryTick;
+  }
+
+  public ChunkPrefetcher(TerrainManager terrainManager, Consumer<FutureOutputMessage> messageOutput) {
+    this.terrainManager = terrainManager;
+    this.messageOutput = messageOutput;
+  }
+
+  /**
+   * Définit le cache des chunks, dont les empreintes sont annoncées au serveur avant de demander un
+   * chunk en cache.
+   *
+   * @param chunkCache Le cache des chunks, ou null s'il n'y en a pas.
+   */
+  public void setChunkCache(ChunkCache chunkCache) {
+    this.chunkCache = chunkCache;
+  }
+
+  /**
+   * Enregistre la zone affichée, en cases relativement à la position du joueur.
+   *
+   * @param minX La coordonnée X minimale de la zone affichée.
+   * @param minY La coordonnée Y minimale de la zone affichée.
+   * @param maxX La coordonnée X maximale de la zone affichée.
+   * @param maxY La coordonnée Y maximale de la zone affichée.
+   */
+  public void setView(int minX, int minY, int maxX, int maxY) {
+    viewMinX = minX;
+    viewMinY = minY;
+    viewMaxX = maxX;
+    viewMaxY = maxY;
+    viewDefined = true;
+  }
+
+  /**
+   * Demande les chunks qui seront bientôt affichés, dans la limite du budget du tick.
+   *
+   * @param tick       Le tick actuel.
+   * @param x          La position X du joueur.
+   * @param y          La position Y du joueur.
+   * @param speedAngle L'angle de la vitesse du joueur.
+   * @param speedNorm  La norme de la vitesse du joueur, en cases par tick.
+   */
+  public void update(long tick, float x, float y, float speedAngle, float speedNorm) {
+    if (!viewDefined) {
+      return;
+    }
+    if (tick - lastPurgeTick >= MAX_RETRY_DELAY_TICKS) {
+      // oublie les chunks qui ne sont plus redemandés, généralement car ils ne sont plus proches
+      pendingRequests.removeIf(request -> tick - request.retryTick >= MAX_RETRY_DELAY_TICKS);
+      lastPurgeTick = tick;
+    }
+    float dx = 0;
+    float dy = 0;
+    if (!Float.isNaN(speedAngle) && !Float.isNaN(speedNorm) && speedNorm != 0) {
+      dx = speedNorm * MikoMath.cos(speedAngle);
+      dy = speedNorm * MikoMath.sin(speedAngle);
+    }
+    candidateCount = 0;
+    for (int step = 0; step <= LOOKAHEAD_STEPS; step++) {
+      float ticks = (float) LOOKAHEAD_TICKS * step / LOOKAHEAD_STEPS;
+      addCandidates(tick, step, (int) Math.floor(x + dx * ticks), (int) Math.floor(y + dy * ticks));
+      if (dx == 0 && dy == 0) {
+        // immobile : toutes les zones futures sont la zone actuelle
+        break;
+      }
+    }
+    if (candidateCount == 0) {
+      return;
+    }
+    requests.clear();
+    while (requests.size() < MAX_REQUESTS_PER_TICK && candidateCount > 0) {
+      int best = 0;
+      for (int i = 1; i < candidateCount; i++) {
+        if (candidatePriorities[i] < candidatePriorities[best]) {
+          best = i;
+        }
+      }
+      long candidate = candidates[best];
+      requests.add(new ChunkPoint(ChunkTable.keyX(candidate), ChunkTable.keyY(candidate)));
+      candidateCount--;
+      candidates[best] = candidates[candidateCount];
+      candidatePriorities[best] = candidatePriorities[candidateCount];
+    }
+    request(tick);
+  }
+
+  private void addCandidates(long tick, int step, int centerX, int centerY) {
+    int minChunkX = centerX + viewMinX - VIEW_MARGIN >> 8;
+    int maxChunkX = centerX + viewMaxX + VIEW_MARGIN >> 8;
+    int minChunkY = centerY + viewMinY - VIEW_MARGIN >> 8;
+    int maxChunkY = centerY + viewMaxY + VIEW_MARGIN >> 8;
+    stepMinChunkX[step] = minChunkX;
+    stepMaxChunkX[step] = maxChunkX;
+    stepMinChunkY[step] = minChunkY;
+    stepMaxChunkY[step] = maxChunkY;
+    int centerChunkX = centerX >> 8;
+    int centerChunkY = centerY >> 8;
+    for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+      for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+        if (inPreviousStep(step, chunkX, chunkY)) {
+          continue;
+        }
+        if (terrainManager.chunkDefined(chunkX, chunkY)) {
+          pendingRequests.remove(chunkX, chunkY);
+          continue;
+        }
+        PendingRequest pending = pendingRequests.get(chunkX, chunkY);
+        if (pending != null && tick < pending.retryTick) {
+          continue;
+        }
+        if (candidateCount == candidates.length) {
+          candidates = Arrays.copyOf(candidates, candidateCount << 1);
+          candidatePriorities = Arrays.copyOf(candidatePriorities, candidateCount << 1);
+        }
+        candidates[candidateCount] = ChunkTable.key(chunkX, chunkY);
+        // d'abord les chunks visibles le plus tôt, puis les plus proches du joueur à ce moment
+        int distanceX = chunkX - centerChunkX;
+        int distanceY = chunkY - centerChunkY;
+        candidatePriorities[candidateCount] = step * 1e6f + distanceX * distanceX + distanceY * distanceY;
+        candidateCount++;
+      }
+    }
+  }
+
+  // vrai si le chunk a déjà été considéré à une étape précédente, avec une meilleure priorité
+  private boolean inPreviousStep(int step, int chunkX, int chunkY) {
+    for (int i = 0; i < step; i++) {
+      if (chunkX >= stepMinChunkX[i] && chunkX <= stepMaxChunkX[i] && chunkY >= stepMinChunkY[i] && chunkY <= stepMaxChunkY[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void request(long tick) {
+    hashes.clear();
+    for (ChunkPoint chunkPoint : requests) {
+      PendingRequest pending = pendingRequests.get(chunkPoint.getChunkX(), chunkPoint.getChunkY());
+      if (pending == null) {
+        pending = new PendingRequest();
+        pendingRequests.put(chunkPoint.getChunkX(), chunkPoint.getChunkY(), pending);
+      }
+      pending.retryTick = tick + (REQUEST_TIMEOUT_TICKS << Math.min(pending.attempts, MAX_RETRY_SHIFT));
+      pending.attempts++;
+      long hash = chunkCache == null ? 0 : chunkCache.getHash(chunkPoint);
+      if (hash != 0) {
+        hashes.add(new Pair<>(chunkPoint, hash));
+      }
+    }
+    if (!hashes.isEmpty()) {
+      // le serveur répondra chunks_cached pour les chunks en cache qui n'ont pas changé
+      messageOutput.accept(OutputMessageFactory.terrainHashes(hashes));
+    }
+    messageOutput.accept(OutputMessageFactory.terrainRequest(requests));
+  }
+}
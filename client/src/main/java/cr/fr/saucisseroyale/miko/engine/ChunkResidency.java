@@ -0,0 +1,182 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.protocol.ChunkPoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Une politique de résidence en mémoire de ressources associées à des chunks, par exemple les
+ * chunks eux-mêmes ou leurs images.
+ * <p>
+ * Les chunks à moins de <code>keepMargin</code> chunks de la zone affichée sont toujours gardés.
+ * Les chunks à plus de <code>maxDistance</code> chunks de la zone affichée sont supprimés. Entre
+ * les deux, si la taille totale des ressources dépasse <code>maxBytes</code>, les chunks les moins
+ * récemment proches de la zone affichée sont supprimés, les plus éloignés d'abord, jusqu'à revenir
+ * sous le budget.
+ * <p>
+ * La suppression elle-même est faite par le propriétaire des ressources, lors de
+ * {@link #trim(long, Predicate)}, au plus une fois tous les {@link #TRIM_INTERVAL_TICKS} ticks.
+ * Cette classe n'est pas thread-safe.
+ */
+public final class ChunkResidency {
+  private static final int TRIM_INTERVAL_TICKS = 50;
+  private final int keepMargin;
+  private final int maxDistance;
+  private final long maxBytes;
+  private final Map<ChunkPoint, Resident> residents = new HashMap<>();
+  // candidats à la suppression, réutilisés
+  private final List<Resident> candidates = new ArrayList<>();
+  private long residentBytes;
+  private long evictedChunks;
+  private long lastTrimTick = Long.MIN_VALUE;
+  private boolean viewDefined;
+  // zone affichée, en chunks
+  private int viewMinX;
+  private int viewMinY;
+  private int viewMaxX;
+  private int viewMaxY;
+
+  /**
+   * @param keepMargin  La distance en chunks à la zone affichée jusqu'à laquelle les chunks sont
+   *                    toujours gardés.
+   * @param maxDistance La distance en chunks à la zone affichée au-delà de laquelle les chunks sont
+   *                    supprimés.
+   * @param maxBytes    La taille totale en octets au-delà de laquelle les chunks les moins récemment
+   *                    utilisés sont supprimés.
+   */
+  public ChunkResidency(int keepMargin, int maxDistance, long maxBytes) {
+    if (keepMargin < 0) {
+      throw new IllegalArgumentException("keepMargin must be positive or zero");
+    }
+    if (maxDistance < keepMargin) {
+      throw new IllegalArgumentException("maxDistance must be greater than or equal to keepMargin");
+    }
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes must be positive or zero");
+    }
+    this.keepMargin = keepMargin;
+    this.maxDistance = maxDistance;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return Le nombre de chunks actuellement en mémoire.
+   */
+  public int getResidentChunks() {
+    return residents.size();
+  }
+
+  /**
+   * @return La taille totale estimée en octets des chunks actuellement en mémoire.
+   */
+  public long getResidentBytes() {
+    return residentBytes;
+  }
+
+  /**
+   * @return Le nombre total de chunks supprimés par cette politique.
+   */
+  public long getEvictedChunks() {
+    return evictedChunks;
+  }
+
+  /**
+   * Enregistre la zone affichée, en chunks.
+   *
+   * @param minChunkX La coordonnée X minimale des chunks affichés.
+   * @param minChunkY La coordonnée Y minimale des chunks affichés.
+   * @param maxChunkX La coordonnée X maximale des chunks affichés.
+   * @param maxChunkY La coordonnée Y maximale des chunks affichés.
+   */
+  void setView(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY) {
+    viewMinX = minChunkX;
+    viewMinY = minChunkY;
+    viewMaxX = maxChunkX;
+    viewMaxY = maxChunkY;
+    viewDefined = true;
+  }
+
+  /**
+   * Enregistre un chunk en mémoire, ou met à jour sa taille s'il l'était déjà.
+   *
+   * @param chunkPoint La position du chunk.
+   * @param bytes      La taille estimée en octets des ressources du chunk.
+   */
+  void put(ChunkPoint chunkPoint, long bytes) {
+    Resident resident = residents.get(chunkPoint);
+    if (resident == null) {
+      resident = new Resident(chunkPoint);
+      residents.put(chunkPoint, resident);
+    }
+    residentBytes += bytes - resident.bytes;
+    resident.bytes = bytes;
+    resident.lastUsedTick = lastTrimTick;
+  }
+
+  /**
+   * Supprime les chunks selon la politique, si le dernier passage date d'au moins
+   * {@link #TRIM_INTERVAL_TICKS} ticks.
+   *
+   * @param tick    Le tick actuel.
+   * @param evictor Appelé pour chaque chunk à supprimer ; supprime ses ressources et renvoie true,
+   *                ou renvoie false si le chunk ne peut pas être supprimé pour l'instant.
+   */
+  void trim(long tick, Predicate<ChunkPoint> evictor) {
+    if (!viewDefined) {
+      return;
+    }
+    if (lastTrimTick != Long.MIN_VALUE && tick - lastTrimTick < TRIM_INTERVAL_TICKS) {
+      return;
+    }
+    lastTrimTick = tick;
+    candidates.clear();
+    for (Resident resident : residents.values()) {
+      int dx = Math.max(0, Math.max(viewMinX - resident.chunkX, resident.chunkX - viewMaxX));
+      int dy = Math.max(0, Math.max(viewMinY - resident.chunkY, resident.chunkY - viewMaxY));
+      resident.distance = Math.max(dx, dy);
+      if (resident.distance <= keepMargin) {
+        resident.lastUsedTick = tick;
+      } else {
+        candidates.add(resident);
+      }
+    }
+    long bytes = residentBytes;
+    if (bytes > maxBytes) {
+      // les moins récemment utilisés d'abord, puis les plus éloignés
+      candidates.sort((a, b) -> a.lastUsedTick != b.lastUsedTick ? Long.compare(a.lastUsedTick, b.lastUsedTick)
+              : Integer.compare(b.distance, a.distance));
+    }
+    for (Resident resident : candidates) {
+      if (resident.distance <= maxDistance && bytes <= maxBytes) {
+        continue;
+      }
+      if (!evictor.test(resident.chunkPoint)) {
+        continue;
+      }
+      bytes -= resident.bytes;
+      evictedChunks++;
+      residents.remove(resident.chunkPoint);
+    }
+    residentBytes = bytes;
+    candidates.clear();
+  }
+
+  private static class Resident {
+    public final ChunkPoint chunkPoint;
+    public final int chunkX;
+    public final int chunkY;
+    public long bytes;
+    public long lastUsedTick;
+    public int distance;
+
+    public Resident(ChunkPoint chunkPoint) {
+      this.chunkPoint = chunkPoint;
+      chunkX = chunkPoint.getChunkX();
+      chunkY = chunkPoint.getChunkY();
+    }
+  }
+}
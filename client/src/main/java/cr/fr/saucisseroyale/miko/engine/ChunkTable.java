@@ -0,0 +1,196 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Une table associant des valeurs à des positions de chunks, indexée directement par les
+ * coordonnées des chunks.
+ * <p>
+ * Contrairement à une {@link java.util.HashMap} indexée par des
+ * {@link cr.fr.saucisseroyale.miko.protocol.ChunkPoint}, la lecture ne crée aucun objet : les
+ * coordonnées sont regroupées dans un long, et la table est un adressage ouvert avec sondage
+ * linéaire dans des tableaux de primitives. Cette classe n'est pas thread-safe.
+ *
+ * @param <V> Le type des valeurs, non null.
+ */
+class ChunkTable<V> {
+  private static final int DEFAULT_CAPACITY = 64;
+  private long[] keys = new long[DEFAULT_CAPACITY];
+  private Object[] values = new Object[DEFAULT_CAPACITY];
+  private int size;
+
+  /**
+   * Regroupe des coordonnées de chunk dans un long, tel qu'utilisé comme clef par cette table.
+   *
+   * @param chunkX La coordonnée X du chunk.
+   * @param chunkY La coordonnée Y du chunk.
+   * @return Les coordonnées regroupées.
+   */
+  static long key(int chunkX, int chunkY) {
+    return (long) chunkX << 32 | chunkY & 0xFFFFFFFFL;
+  }
+
+  /**
+   * @param key Des coordonnées regroupées par {@link #key(int, int)}.
+   * @return La coordonnée X du chunk.
+   */
+  static int keyX(long key) {
+    return (int) (key >> 32);
+  }
+
+  /**
+   * @param key Des coordonnées regroupées par {@link #key(int, int)}.
+   * @return La coordonnée Y du chunk.
+   */
+  static int keyY(long key) {
+    return (int) key;
+  }
+
+  /**
+   * @param chunkX La coordonnée X du chunk.
+   * @param chunkY La coordonnée Y du chunk.
+   * @return La valeur du chunk, ou null s'il n'en a pas.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int chunkX, int chunkY) {
+    long key = key(chunkX, chunkY);
+    int mask = keys.length - 1;
+    for (int i = index(key, mask); values[i] != null; i = i + 1 & mask) {
+      if (keys[i] == key) {
+        return (V) values[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Associe une valeur à un chunk, en remplaçant sa valeur précédente.
+   *
+   * @param chunkX La coordonnée X du chunk.
+   * @param chunkY La coordonnée Y du chunk.
+   * @param value  La valeur, non null.
+   */
+  public void put(int chunkX, int chunkY, V value) {
+    if (value == null) {
+      throw new IllegalArgumentException("value must not be null");
+    }
+    if (size + 1 > keys.length >> 1) {
+      resize(keys.length << 1);
+    }
+    long key = key(chunkX, chunkY);
+    int mask = keys.length - 1;
+    int i = index(key, mask);
+    while (values[i] != null) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return;
+      }
+      i = i + 1 & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+    size++;
+  }
+
+  /**
+   * Supprime la valeur d'un chunk, s'il en a une.
+   *
+   * @param chunkX La coordonnée X du chunk.
+   * @param chunkY La coordonnée Y du chunk.
+   */
+  public void remove(int chunkX, int chunkY) {
+    long key = key(chunkX, chunkY);
+    int mask = keys.length - 1;
+    int i = index(key, mask);
+    while (values[i] != null && keys[i] != key) {
+      i = i + 1 & mask;
+    }
+    if (values[i] == null) {
+      return;
+    }
+    size--;
+    // recule les entrées suivantes de la même suite, pour ne pas laisser de trou dans leur sondage
+    int hole = i;
+    for (int j = hole + 1 & mask; values[j] != null; j = j + 1 & mask) {
+      int home = index(keys[j], mask);
+      if ((j - home & mask) >= (j - hole & mask)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    values[hole] = null;
+  }
+
+  /**
+   * @return Le nombre de chunks ayant une valeur.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Appelle une action sur chaque valeur de la table, qui ne doit pas être modifiée pendant le
+   * parcours.
+   *
+   * @param action L'action à appeler.
+   */
+  @SuppressWarnings("unchecked")
+  public void forEachValue(Consumer<? super V> action) {
+    for (Object value : values) {
+      if (value != null) {
+        action.accept((V) value);
+      }
+    }
+  }
+
+  /**
+   * Supprime les valeurs de la table vérifiant un prédicat. Contrairement aux autres méthodes,
+   * reconstruit la table et crée donc des objets.
+   *
+   * @param filter Le prédicat des valeurs à supprimer.
+   */
+  @SuppressWarnings("unchecked")
+  public void removeIf(Predicate<? super V> filter) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new long[oldKeys.length];
+    values = new Object[oldValues.length];
+    size = 0;
+    for (int j = 0; j < oldValues.length; j++) {
+      if (oldValues[j] != null && !filter.test((V) oldValues[j])) {
+        insert(oldKeys[j], oldValues[j]);
+        size++;
+      }
+    }
+  }
+
+  private static int index(long key, int mask) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ hash >>> 32) & mask;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new long[capacity];
+    values = new Object[capacity];
+    for (int j = 0; j < oldValues.length; j++) {
+      if (oldValues[j] != null) {
+        insert(oldKeys[j], oldValues[j]);
+      }
+    }
+  }
+
+  // insère une clef absente de la table, sans agrandir la table
+  private void insert(long key, Object value) {
+    int mask = keys.length - 1;
+    int i = index(key, mask);
+    while (values[i] != null) {
+      i = i + 1 & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+  }
+}
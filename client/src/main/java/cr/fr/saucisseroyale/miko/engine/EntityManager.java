@@ -1,109 +1,272 @@
 package cr.fr.saucisseroyale.miko.engine;
 
 import cr.fr.saucisseroyale.miko.protocol.*;
+import cr.fr.saucisseroyale.miko.protocol.EntityDataUpdate.Builder;
+import cr.fr.saucisseroyale.miko.util.IntList;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.stream.IntStream;
 
 /**
  * Un gestionnaire des entités du jeu, stockant toutes les entités à tous les ticks, avec le
  * principe de {@link Snapshots}.
+ * <p>
+ * Les entités sont stockées en colonnes : chaque entité occupe un emplacement (slot) dense, et
+ * chaque champ est stocké dans un tableau indexé par emplacement. Une table indexée par entityId
+ * (de 0 à 65535) donne l'emplacement de chaque entité. Les emplacements restent denses : une
+ * entité supprimée est remplacée par la dernière entité.
  *
- * @see Entity
  * @see Snapshots
  */
 class EntityManager {
   private static final int TEMPORARY_ID_START = 64536;
-  private boolean[] usedTemporaryIds = new boolean[(1 << 16) - TEMPORARY_ID_START];
+  private static final int MAX_ENTITIES = 1 << 16;
+  private static final int DEFAULT_CAPACITY = 64;
+  private static final int ATTRIBUTES_COUNT = ObjectAttribute.values().length;
+  private final int rollbackTicks;
+  private boolean[] usedTemporaryIds = new boolean[MAX_ENTITIES - TEMPORARY_ID_START];
   // improves performance on temporaryid generating
   private int circularTemporaryId = usedTemporaryIds.length - 1;
-  private Map<Integer, Entity> map = new HashMap<>();
-  // cache last entity to improve performance on repeated get and set calls
-  private int lastEntityId = -1;
-  private Entity lastEntity;
+  // entityId -> slot, -1 si l'entité n'existe pas
+  private final int[] slots = new int[MAX_ENTITIES];
+  private int count;
+  // colonnes indexées par slot
+  private int[] entityIds;
+  private FloatSnapshots[] xs;
+  private FloatSnapshots[] ys;
+  private FloatSnapshots[] speedAngles;
+  private FloatSnapshots[] speedNorms;
+  private Snapshots<EntityType>[] entityTypes;
+  private Snapshots<SpriteType>[] spriteTypes;
+  private long[] ticksSwitchedSprite;
+  private BooleanSnapshots[] enableStatus;
+  // attributs entiers (ONE_SHORT, ONE_ENTITY) indexés par slot puis ordinal, créés à la demande
+  private IntSnapshots[][] intObjectAttributes;
+  private SnapshotsMap<ObjectAttribute, Object>[] objectAttributes;
+  // cache des entités activées à un tick, un bit par slot
+  private long[] enabledBits;
+  private long enabledBitsTick;
+  private boolean enabledBitsValid;
+
+  /**
+   * @param rollbackTicks Le nombre maximum de ticks de rollback, pour dimensionner les snapshots.
+   */
+  public EntityManager(int rollbackTicks) {
+    this.rollbackTicks = rollbackTicks;
+    Arrays.fill(slots, -1);
+    allocateColumns(DEFAULT_CAPACITY);
+  }
+
+  private static boolean isIntObjectAttribute(ObjectAttribute type) {
+    switch (type.getDataType()) {
+      case ONE_SHORT:
+      case ONE_ENTITY:
+        return true;
+      default:
+        return false;
+    }
+  }
 
   public void applyUpdate(long tick, EntityDataUpdate entityDataUpdate) {
-    Entity entity = getEntity(entityDataUpdate.getEntityId());
-    entity.applyUpdate(tick, entityDataUpdate);
+    int slot = getSlot(entityDataUpdate.getEntityId());
+    if (entityDataUpdate.hasPosition()) {
+      MapPoint position = entityDataUpdate.getPosition();
+      setSlotPosition(tick, slot, position.getX(), position.getY());
+    }
+    if (entityDataUpdate.hasSpeedAngle()) {
+      speedAngles[slot].setSnapshot(tick, entityDataUpdate.getSpeedAngle());
+    }
+    if (entityDataUpdate.hasSpeedNorm()) {
+      speedNorms[slot].setSnapshot(tick, entityDataUpdate.getSpeedNorm());
+    }
+    if (entityDataUpdate.hasEntityType()) {
+      entityTypes[slot].setSnapshot(tick, entityDataUpdate.getEntityType());
+    }
+    if (entityDataUpdate.hasSprite()) {
+      setSlotSpriteType(tick, slot, entityDataUpdate.getSpriteType());
+    }
+    setSlotObjectAttributes(tick, slot, entityDataUpdate.getObjectAttributes());
   }
 
   public void createEntity(long tick, EntityDataUpdate entityDataUpdate) {
-    Entity entity = getEntity(entityDataUpdate.getEntityId());
-    if (entity == null) {
-      entity = new Entity();
-      map.put(entityDataUpdate.getEntityId(), entity);
-      lastEntityId = -1;
+    if (!entityDataUpdate.hasPosition()) {
+      throw new IllegalArgumentException("Illegal full data update: position not set");
+    }
+    if (!entityDataUpdate.hasSpeedAngle()) {
+      throw new IllegalArgumentException("Illegal full data update: speedangle not set");
+    }
+    if (!entityDataUpdate.hasSpeedNorm()) {
+      throw new IllegalArgumentException("Illegal full data update: speednorm not set");
+    }
+    if (!entityDataUpdate.hasEntityType()) {
+      throw new IllegalArgumentException("Illegal full data update: entityType not set");
     }
-    entity.applyFullUpdate(tick, entityDataUpdate);
+    if (!entityDataUpdate.hasSprite()) {
+      throw new IllegalArgumentException("Illegal full data update: spriteType not set");
+    }
+    int entityId = entityDataUpdate.getEntityId();
+    int slot = slots[entityId];
+    if (slot < 0) {
+      slot = addSlot(entityId);
+    }
+    setSlotEnabled(tick, slot, true);
+    applyUpdate(tick, entityDataUpdate);
   }
 
   public void destroyEntity(long tick, int entityId) {
-    Entity entity = getEntity(entityId);
-    entity.disable(tick);
+    setSlotEnabled(tick, getSlot(entityId), false);
   }
 
   public EntityDataUpdate generateDataUpdate(long tick, int entityId, Set<EntityUpdateType> types, Set<ObjectAttribute> attributes) {
-    return getEntity(entityId).generateUpdate(entityId, tick, types, attributes);
+    int slot = getSlot(entityId);
+    Builder builder = new Builder(entityId);
+    for (EntityUpdateType type : types) {
+      switch (type) {
+        case POSITION:
+          builder.position(new MapPoint(xs[slot].getSnapshot(tick, Float.NaN), ys[slot].getSnapshot(tick, Float.NaN)));
+          break;
+        case SPEED_ANGLE:
+          builder.speedAngle(speedAngles[slot].getSnapshot(tick, Float.NaN));
+          break;
+        case SPEED_NORM:
+          builder.speedNorm(speedNorms[slot].getSnapshot(tick, Float.NaN));
+          break;
+        case ENTITY_TYPE:
+          builder.entityType(entityTypes[slot].getSnapshot(tick));
+          break;
+        case SPRITE_TYPE:
+          builder.spriteType(spriteTypes[slot].getSnapshot(tick));
+          break;
+        case OBJECT_DATA:
+          for (ObjectAttribute attribute : attributes) {
+            builder.objectAttribute(attribute, getObjectAttribute(tick, entityId, attribute));
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("attribute " + type + " is not supported");
+      }
+    }
+    return builder.build();
   }
 
+  // no enable check before getting to maximize performance
+  // we trust users not to get on disabled entities
+  // if this is a problem just add a check in the future
+
   public EntityType getEntityType(long tick, int entityId) {
-    return getEntity(entityId).getEntityType(tick);
+    return entityTypes[getSlot(entityId)].getSnapshot(tick);
   }
 
   public MapPoint getMapPoint(long tick, int entityId) {
-    return getEntity(entityId).getMapPoint(tick);
+    int slot = getSlot(entityId);
+    if (!xs[slot].hasSnapshot(tick)) {
+      return null;
+    }
+    return new MapPoint(xs[slot].getSnapshot(tick, Float.NaN), ys[slot].getSnapshot(tick, Float.NaN));
+  }
+
+  public float getX(long tick, int entityId) {
+    return xs[getSlot(entityId)].getSnapshot(tick, Float.NaN);
+  }
+
+  public float getY(long tick, int entityId) {
+    return ys[getSlot(entityId)].getSnapshot(tick, Float.NaN);
   }
 
   public float getSpeedAngle(long tick, int entityId) {
-    return getEntity(entityId).getSpeedAngle(tick);
+    return speedAngles[getSlot(entityId)].getSnapshot(tick, Float.NaN);
   }
 
   public float getSpeedNorm(long tick, int entityId) {
-    return getEntity(entityId).getSpeedNorm(tick);
+    return speedNorms[getSlot(entityId)].getSnapshot(tick, Float.NaN);
   }
 
   public SpriteType getSpriteType(long tick, int entityId) {
-    return getEntity(entityId).getSpriteType(tick);
+    return spriteTypes[getSlot(entityId)].getSnapshot(tick);
   }
 
   public long getSpriteTime(long tick, int entityId) {
-    return getEntity(entityId).getSpriteTime(tick);
+    return tick - ticksSwitchedSprite[getSlot(entityId)];
   }
 
   public Object getObjectAttribute(long tick, int entityId, ObjectAttribute type) {
-    return getEntity(entityId).getObjectAttribute(tick, type);
+    int slot = getSlot(entityId);
+    if (isIntObjectAttribute(type)) {
+      IntSnapshots snapshots = intObjectAttributes[slot][type.ordinal()];
+      if (snapshots == null || !snapshots.hasSnapshot(tick)) {
+        return null;
+      }
+      return snapshots.getSnapshot(tick, 0);
+    }
+    return objectAttributes[slot].getSnapshot(tick, type);
+  }
+
+  /**
+   * Retourne la valeur d'un attribut entier (de type {@link DataType#ONE_SHORT} ou
+   * {@link DataType#ONE_ENTITY}) sans autoboxing, ou 0 s'il n'est pas défini. 0 pouvant être une
+   * valeur de l'attribut, utiliser {@link #hasIntObjectAttribute(long, int, ObjectAttribute)} pour
+   * savoir s'il est défini.
+   *
+   * @param tick     Le tick de la valeur à renvoyer.
+   * @param entityId L'entité dont renvoyer l'attribut.
+   * @param type     L'attribut entier à renvoyer.
+   * @return La valeur de l'attribut, ou 0 s'il n'est pas défini.
+   */
+  public int getIntObjectAttribute(long tick, int entityId, ObjectAttribute type) {
+    IntSnapshots snapshots = intObjectAttributes[getSlot(entityId)][type.ordinal()];
+    if (snapshots == null) {
+      return 0;
+    }
+    return snapshots.getSnapshot(tick, 0);
+  }
+
+  /**
+   * @param tick     Le tick auquel chercher l'attribut.
+   * @param entityId L'entité dont chercher l'attribut.
+   * @param type     L'attribut entier à chercher.
+   * @return true si l'attribut entier est défini au tick spécifié.
+   */
+  public boolean hasIntObjectAttribute(long tick, int entityId, ObjectAttribute type) {
+    IntSnapshots snapshots = intObjectAttributes[getSlot(entityId)][type.ordinal()];
+    return snapshots != null && snapshots.hasSnapshot(tick);
   }
 
   public boolean isEnabled(long tick, int entityId) {
-    return getEntity(entityId).isEnabled(tick);
+    return enableStatus[getSlot(entityId)].getSnapshot(tick, false);
   }
 
   public void setMapPoint(long tick, int entityId, MapPoint mapPoint) {
-    getEntity(entityId).setMapPoint(tick, mapPoint);
+    setSlotPosition(tick, getSlot(entityId), mapPoint.getX(), mapPoint.getY());
   }
 
   public void setTerrainPoint(long tick, int entityId, TerrainPoint terrainPoint) {
-    getEntity(entityId).setTerrainPoint(tick, terrainPoint);
+    setSlotPosition(tick, getSlot(entityId), terrainPoint.getX(), terrainPoint.getY());
+  }
+
+  public void setPosition(long tick, int entityId, float x, float y) {
+    setSlotPosition(tick, getSlot(entityId), x, y);
   }
 
   public void setSpeedAngle(long tick, int entityId, float speedAngle) {
-    getEntity(entityId).setSpeedAngle(tick, speedAngle);
+    speedAngles[getSlot(entityId)].setSnapshot(tick, speedAngle);
   }
 
   public void setSpeedNorm(long tick, int entityId, float speedNorm) {
-    getEntity(entityId).setSpeedNorm(tick, speedNorm);
+    speedNorms[getSlot(entityId)].setSnapshot(tick, speedNorm);
   }
 
   public void setSpriteType(long tick, int entityId, SpriteType spriteType) {
-    getEntity(entityId).setSpriteType(tick, spriteType);
+    setSlotSpriteType(tick, getSlot(entityId), spriteType);
   }
 
   public void setObjectAttribute(long tick, int entityId, ObjectAttribute attribute, Object value) {
-    getEntity(entityId).setObjectAttribute(tick, attribute, value);
+    setSlotObjectAttribute(tick, getSlot(entityId), attribute, value);
+  }
+
+  public void setIntObjectAttribute(long tick, int entityId, ObjectAttribute attribute, int value) {
+    setSlotIntObjectAttribute(tick, getSlot(entityId), attribute, value);
   }
 
   /**
@@ -145,15 +308,22 @@ class EntityManager {
       return;
     }
     usedTemporaryIds[offsetId] = false;
-    Entity entity = map.remove(oldEntityId);
-    if (entity == null) {
+    int slot = slots[oldEntityId];
+    if (slot < 0) {
       return;
     }
     if (newEntityId >= TEMPORARY_ID_START) {
       throw new IllegalArgumentException("newEntityId must be a permanent (normal) id");
     }
-    map.put(newEntityId, entity);
-    lastEntityId = -1;
+    int replacedSlot = slots[newEntityId];
+    if (replacedSlot >= 0) {
+      // l'entité temporaire remplace l'entité existante à ce nouvel id, et peut changer de slot
+      removeSlot(replacedSlot);
+      slot = slots[oldEntityId];
+    }
+    slots[oldEntityId] = -1;
+    slots[newEntityId] = slot;
+    entityIds[slot] = newEntityId;
   }
 
   /**
@@ -163,34 +333,200 @@ class EntityManager {
    * @param tick Le tick (inclus) jusqu'auquel les entités ne seront plus demandées.
    */
   public void disposeUntilTick(long tick) {
-    // NOTE on pourrait ignorer ce call la plupart du temps pour éviter de parcourir toute la map à
-    // chaque fois ; il faudrait sans doute modifier la capacité standard
-    Set<Entry<Integer, Entity>> entrySet = map.entrySet();
-    Iterator<Entry<Integer, Entity>> entryIterator = entrySet.iterator();
-    while (entryIterator.hasNext()) {
-      Entry<Integer, Entity> entry = entryIterator.next();
-      Entity entity = entry.getValue();
-      entity.disposeUntilTick(tick);
-      if (entity.isEmpty()) {
-        entryIterator.remove();
+    // parcours à l'envers pour que le déplacement du dernier slot ne saute aucune entité
+    for (int slot = count - 1; slot >= 0; slot--) {
+      xs[slot].disposeUntilTick(tick);
+      ys[slot].disposeUntilTick(tick);
+      speedAngles[slot].disposeUntilTick(tick);
+      speedNorms[slot].disposeUntilTick(tick);
+      enableStatus[slot].disposeUntilTick(tick);
+      entityTypes[slot].disposeUntilTick(tick);
+      spriteTypes[slot].disposeUntilTick(tick);
+      for (IntSnapshots snapshots : intObjectAttributes[slot]) {
+        if (snapshots != null) {
+          snapshots.disposeUntilTick(tick);
+        }
+      }
+      objectAttributes[slot].disposeUntilTick(tick);
+      BooleanSnapshots enabled = enableStatus[slot];
+      if (enabled.isEmpty() || enabled.size() == 1 && !enabled.getSnapshot(Long.MAX_VALUE, false)) {
+        removeSlot(slot);
+      }
+    }
+  }
+
+  /**
+   * Ajoute à la liste spécifiée les entityId des entités activées au tick spécifié.
+   * <p>
+   * La liste n'est pas vidée avant l'ajout. Les entités activées à un tick sont mises en cache :
+   * des appels répétés au même tick ne parcourent que les bits du cache.
+   *
+   * @param tick Le tick auquel chercher les entités activées.
+   * @param out  La liste à laquelle ajouter les entityId.
+   */
+  public void getEntities(long tick, IntList out) {
+    if (!enabledBitsValid || enabledBitsTick != tick) {
+      Arrays.fill(enabledBits, 0);
+      for (int slot = 0; slot < count; slot++) {
+        if (enableStatus[slot].getSnapshot(tick, false)) {
+          enabledBits[slot >>> 6] |= 1L << slot;
+        }
+      }
+      enabledBitsTick = tick;
+      enabledBitsValid = true;
+    }
+    int words = count + 63 >>> 6;
+    for (int word = 0; word < words; word++) {
+      long bits = enabledBits[word];
+      while (bits != 0) {
+        int slot = word << 6 | Long.numberOfTrailingZeros(bits);
+        out.add(entityIds[slot]);
+        bits &= bits - 1;
       }
     }
   }
 
-  public IntStream getEntitiesStream(long tick) {
-    return map.entrySet().stream().filter(e -> e.getValue().isEnabled(tick)).mapToInt(e -> e.getKey());
+  private int getSlot(int entityId) {
+    int slot = slots[entityId];
+    if (slot < 0) {
+      throw new IllegalArgumentException("Entity " + entityId + " does not exist");
+    }
+    return slot;
+  }
+
+  private void setSlotEnabled(long tick, int slot, boolean enabled) {
+    enableStatus[slot].setSnapshot(tick, enabled);
+    if (enabledBitsValid && tick <= enabledBitsTick) {
+      // le snapshot peut changer l'état au tick en cache
+      if (enableStatus[slot].getSnapshot(enabledBitsTick, false)) {
+        enabledBits[slot >>> 6] |= 1L << slot;
+      } else {
+        enabledBits[slot >>> 6] &= ~(1L << slot);
+      }
+    }
   }
 
-  public Iterable<Integer> getEntities(long tick) {
-    return getEntitiesStream(tick).boxed()::iterator;
+  private void setSlotPosition(long tick, int slot, float x, float y) {
+    xs[slot].setSnapshot(tick, x);
+    ys[slot].setSnapshot(tick, y);
   }
 
-  private Entity getEntity(int entityId) {
-    if (entityId == lastEntityId) {
-      return lastEntity;
+  private void setSlotSpriteType(long tick, int slot, SpriteType spriteType) {
+    spriteTypes[slot].setSnapshot(tick, spriteType);
+    if (tick > ticksSwitchedSprite[slot]) {
+      ticksSwitchedSprite[slot] = tick;
+    }
+  }
+
+  private void setSlotObjectAttributes(long tick, int slot, Map<ObjectAttribute, Object> newObjectAttributes) {
+    for (Entry<ObjectAttribute, Object> newObjetAttribute : newObjectAttributes.entrySet()) {
+      setSlotObjectAttribute(tick, slot, newObjetAttribute.getKey(), newObjetAttribute.getValue());
+    }
+  }
+
+  private void setSlotObjectAttribute(long tick, int slot, ObjectAttribute attribute, Object value) {
+    if (isIntObjectAttribute(attribute)) {
+      setSlotIntObjectAttribute(tick, slot, attribute, (int) value);
+      return;
+    }
+    objectAttributes[slot].setSnapshot(tick, attribute, value);
+  }
+
+  private void setSlotIntObjectAttribute(long tick, int slot, ObjectAttribute attribute, int value) {
+    IntSnapshots snapshots = intObjectAttributes[slot][attribute.ordinal()];
+    if (snapshots == null) {
+      snapshots = new IntSnapshots(rollbackTicks);
+      intObjectAttributes[slot][attribute.ordinal()] = snapshots;
+    }
+    snapshots.setSnapshot(tick, value);
+  }
+
+  private int addSlot(int entityId) {
+    if (count == entityIds.length) {
+      allocateColumns(count * 2);
+    }
+    int slot = count++;
+    slots[entityId] = slot;
+    entityIds[slot] = entityId;
+    xs[slot] = new FloatSnapshots(rollbackTicks);
+    ys[slot] = new FloatSnapshots(rollbackTicks);
+    speedAngles[slot] = new FloatSnapshots(rollbackTicks);
+    speedNorms[slot] = new FloatSnapshots(rollbackTicks);
+    entityTypes[slot] = new Snapshots<>();
+    spriteTypes[slot] = new Snapshots<>();
+    ticksSwitchedSprite[slot] = 0;
+    enableStatus[slot] = new BooleanSnapshots();
+    intObjectAttributes[slot] = new IntSnapshots[ATTRIBUTES_COUNT];
+    objectAttributes[slot] = new SnapshotsMap<>();
+    // le nouveau slot n'a aucun snapshot, son bit en cache est déjà à 0
+    return slot;
+  }
+
+  private void removeSlot(int slot) {
+    int last = --count;
+    slots[entityIds[slot]] = -1;
+    if (slot != last) {
+      // déplacer la dernière entité dans le slot libéré
+      int movedEntityId = entityIds[last];
+      slots[movedEntityId] = slot;
+      entityIds[slot] = movedEntityId;
+      xs[slot] = xs[last];
+      ys[slot] = ys[last];
+      speedAngles[slot] = speedAngles[last];
+      speedNorms[slot] = speedNorms[last];
+      entityTypes[slot] = entityTypes[last];
+      spriteTypes[slot] = spriteTypes[last];
+      ticksSwitchedSprite[slot] = ticksSwitchedSprite[last];
+      enableStatus[slot] = enableStatus[last];
+      intObjectAttributes[slot] = intObjectAttributes[last];
+      objectAttributes[slot] = objectAttributes[last];
+    }
+    xs[last] = null;
+    ys[last] = null;
+    speedAngles[last] = null;
+    speedNorms[last] = null;
+    entityTypes[last] = null;
+    spriteTypes[last] = null;
+    enableStatus[last] = null;
+    intObjectAttributes[last] = null;
+    objectAttributes[last] = null;
+    enabledBitsValid = false;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void allocateColumns(int capacity) {
+    if (capacity > MAX_ENTITIES) {
+      capacity = MAX_ENTITIES;
+    }
+    if (entityIds == null) {
+      entityIds = new int[capacity];
+      xs = new FloatSnapshots[capacity];
+      ys = new FloatSnapshots[capacity];
+      speedAngles = new FloatSnapshots[capacity];
+      speedNorms = new FloatSnapshots[capacity];
+      entityTypes = new Snapshots[capacity];
+      spriteTypes = new Snapshots[capacity];
+      ticksSwitchedSprite = new long[capacity];
+      enableStatus = new BooleanSnapshots[capacity];
+      intObjectAttributes = new IntSnapshots[capacity][];
+      objectAttributes = new SnapshotsMap[capacity];
+    } else {
+      entityIds = Arrays.copyOf(entityIds, capacity);
+      xs = Arrays.copyOf(xs, capacity);
+      ys = Arrays.copyOf(ys, capacity);
+      speedAngles = Arrays.copyOf(speedAngles, capacity);
+      speedNorms = Arrays.copyOf(speedNorms, capacity);
+      entityTypes = Arrays.copyOf(entityTypes, capacity);
+      spriteTypes = Arrays.copyOf(spriteTypes, capacity);
+      ticksSwitchedSprite = Arrays.copyOf(ticksSwitchedSprite, capacity);
+      enableStatus = Arrays.copyOf(enableStatus, capacity);
+      intObjectAttributes = Arrays.copyOf(intObjectAttributes, capacity);
+      objectAttributes = Arrays.copyOf(objectAttributes, capacity);
+    }
+    long[] newEnabledBits = new long[capacity + 63 >>> 6];
+    if (enabledBits != null) {
+      System.arraycopy(enabledBits, 0, newEnabledBits, 0, enabledBits.length);
     }
-    lastEntityId = entityId;
-    lastEntity = map.get(entityId);
-    return lastEntity;
+    enabledBits = newEnabledBits;
   }
 }
@@ -0,0 +1,165 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.protocol.EntityType;
+import cr.fr.saucisseroyale.miko.protocol.SpriteType;
+import cr.fr.saucisseroyale.miko.util.IntList;
+import cr.fr.saucisseroyale.miko.util.MikoMath;
+import fr.delthas.uitest.Drawer;
+
+import java.util.Arrays;
+
+/**
+ * Une passe de rendu des entités, qui collecte les entités à afficher une fois par tick et ne fait
+ * à chaque frame que la sélection des entités visibles et leur affichage.
+ * <p>
+ * À chaque nouveau tick ({@link #invalidate()}), les positions, sprites et couches des entités
+ * sont lues une seule fois dans des tableaux réutilisés, et indexées dans une {@link SpatialGrid}.
+ * À chaque frame, la grille donne les entités proches de l'écran, qui sont triées par couche puis
+ * par sprite dans un tableau réutilisé, puis affichées : les images identiques sont dessinées à la
+ * suite, et le sprite n'est cherché qu'une fois par groupe. Les positions affichées sont calculées
+ * par un {@link Interpolator}.
+ * <p>
+ * Les joueurs sont affichés sous les balles ; les autres entités ne sont pas affichées.
+ */
+class EntityRenderPass {
+  private static final int DEFAULT_CAPACITY = 64;
+  private static final SpriteType[] SPRITE_TYPES = SpriteType.values();
+  private final SpatialGrid grid = new SpatialGrid();
+  private final IntList entities = new IntList();
+  private final IntList visible = new IntList();
+  private final float[] position = new float[2];
+  private boolean valid;
+  // entités collectées au dernier tick, indexées par leur entrée
+  private float[] xs = new float[DEFAULT_CAPACITY];
+  private float[] ys = new float[DEFAULT_CAPACITY];
+  // NaN si l'entité n'existait pas au tick précédent
+  private float[] oldXs = new float[DEFAULT_CAPACITY];
+  private float[] oldYs = new float[DEFAULT_CAPACITY];
+  private float[] speedXs = new float[DEFAULT_CAPACITY];
+  private float[] speedYs = new float[DEFAULT_CAPACITY];
+  private boolean[] remotes = new boolean[DEFAULT_CAPACITY];
+  private int[] spriteOrdinals = new int[DEFAULT_CAPACITY];
+  private long[] spriteTimes = new long[DEFAULT_CAPACITY];
+  private int[] layers = new int[DEFAULT_CAPACITY];
+  // clefs de tri des entités visibles : couche, sprite, entrée
+  private long[] sortKeys = new long[DEFAULT_CAPACITY];
+
+  private static int getLayer(EntityType type) {
+    if (type == EntityType.PLAYER) {
+      return 0;
+    }
+    if (type == EntityType.BALL) {
+      return 1;
+    }
+    return -1;
+  }
+
+  /**
+   * Indique que les entités ont pu changer depuis leur dernière collecte, et doivent être collectées
+   * à nouveau au prochain rendu.
+   */
+  public void invalidate() {
+    valid = false;
+  }
+
+  /**
+   * Affiche les entités visibles.
+   *
+   * @param drawer         Le drawer avec lequel afficher les entités.
+   * @param spriteManager  Le gestionnaire des sprites des entités.
+   * @param entityManager  Le gestionnaire des entités.
+   * @param interpolator   Le calcul des positions affichées des entités.
+   * @param playerEntityId L'entityId de l'entité du joueur.
+   * @param tick           Le tick auquel afficher les entités.
+   * @param alpha          L'avancement de la frame entre le tick précédent et le tick.
+   * @param xOffset        L'abscisse du coin supérieur gauche de l'écran sur la carte.
+   * @param yOffset        L'ordonnée du coin supérieur gauche de l'écran sur la carte.
+   * @param width          La largeur de l'écran.
+   * @param height         La hauteur de l'écran.
+   * @param margin         La distance au bord de l'écran jusqu'à laquelle afficher les entités.
+   */
+  public void render(Drawer drawer, SpriteManager spriteManager, EntityManager entityManager, Interpolator interpolator, int playerEntityId,
+                     long tick, float alpha, float xOffset, float yOffset, int width, int height, int margin) {
+    if (!valid) {
+      collect(entityManager, interpolator, playerEntityId, tick);
+      valid = true;
+    }
+    visible.clear();
+    grid.query(xOffset - margin, yOffset - margin, xOffset + width + margin, yOffset + height + margin, visible);
+    int visibleCount = 0;
+    for (int i = 0; i < visible.size(); i++) {
+      int entry = visible.get(i);
+      float x = xs[entry] - xOffset;
+      float y = ys[entry] - yOffset;
+      if (x < -margin || x > width + margin || y < -margin || y > height + margin) {
+        continue;
+      }
+      sortKeys[visibleCount++] = (long) layers[entry] << 56 | (long) spriteOrdinals[entry] << 32 | entry;
+    }
+    Arrays.sort(sortKeys, 0, visibleCount);
+    int spriteOrdinal = -1;
+    Sprite sprite = null;
+    for (int i = 0; i < visibleCount; i++) {
+      int entry = (int) sortKeys[i];
+      if (spriteOrdinals[entry] != spriteOrdinal) {
+        spriteOrdinal = spriteOrdinals[entry];
+        sprite = spriteManager.getSprite(SPRITE_TYPES[spriteOrdinal]);
+      }
+      interpolator.getPosition(xs[entry], ys[entry], oldXs[entry], oldYs[entry], speedXs[entry], speedYs[entry], remotes[entry], alpha,
+              position);
+      drawer.drawImage(position[0] - xOffset, position[1] - yOffset, sprite.getImage(spriteTimes[entry]));
+    }
+  }
+
+  private void collect(EntityManager entityManager, Interpolator interpolator, int playerEntityId, long tick) {
+    grid.clear();
+    entities.clear();
+    entityManager.getEntities(tick, entities);
+    ensureCapacity(entities.size());
+    int count = 0;
+    for (int i = 0; i < entities.size(); i++) {
+      int entityId = entities.get(i);
+      int layer = getLayer(entityManager.getEntityType(tick, entityId));
+      if (layer < 0) {
+        continue;
+      }
+      int entry = count++;
+      layers[entry] = layer;
+      xs[entry] = entityManager.getX(tick, entityId);
+      ys[entry] = entityManager.getY(tick, entityId);
+      oldXs[entry] = entityManager.getX(tick - 1, entityId);
+      oldYs[entry] = entityManager.getY(tick - 1, entityId);
+      remotes[entry] = entityId != playerEntityId;
+      if (interpolator.usesSpeed() && remotes[entry]) {
+        float speedNorm = entityManager.getSpeedNorm(tick, entityId);
+        float speedAngle = entityManager.getSpeedAngle(tick, entityId);
+        speedXs[entry] = speedNorm * MikoMath.cos(speedAngle);
+        speedYs[entry] = speedNorm * MikoMath.sin(speedAngle);
+      } else {
+        speedXs[entry] = 0;
+        speedYs[entry] = 0;
+      }
+      spriteOrdinals[entry] = entityManager.getSpriteType(tick, entityId).ordinal();
+      spriteTimes[entry] = entityManager.getSpriteTime(tick, entityId);
+      grid.add(entry, xs[entry], ys[entry], 0);
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= xs.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, xs.length * 2);
+    xs = Arrays.copyOf(xs, newCapacity);
+    ys = Arrays.copyOf(ys, newCapacity);
+    oldXs = Arrays.copyOf(oldXs, newCapacity);
+    oldYs = Arrays.copyOf(oldYs, newCapacity);
+    speedXs = Arrays.copyOf(speedXs, newCapacity);
+    speedYs = Arrays.copyOf(speedYs, newCapacity);
+    remotes = Arrays.copyOf(remotes, newCapacity);
+    spriteOrdinals = Arrays.copyOf(spriteOrdinals, newCapacity);
+    spriteTimes = Arrays.copyOf(spriteTimes, newCapacity);
+    layers = Arrays.copyOf(layers, newCapacity);
+    sortKeys = Arrays.copyOf(sortKeys, newCapacity);
+  }
+}
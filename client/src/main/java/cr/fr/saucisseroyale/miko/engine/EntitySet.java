@@ -0,0 +1,63 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.util.IntList;
+
+/**
+ * Un ensemble d'entityId (de 0 à 65535), stocké sous forme de bitset, pouvant aussi contenir
+ * toutes les entités.
+ * <p>
+ * Le vidage ne parcourt que les entités ajoutées depuis le dernier vidage.
+ */
+class EntitySet {
+  private final long[] bits = new long[(1 << 16) >>> 6];
+  private final IntList members = new IntList();
+  private boolean all;
+
+  /**
+   * Ajoute une entité à l'ensemble.
+   *
+   * @param entityId L'entityId de l'entité à ajouter.
+   */
+  public void add(int entityId) {
+    long mask = 1L << entityId;
+    if ((bits[entityId >>> 6] & mask) != 0) {
+      return;
+    }
+    bits[entityId >>> 6] |= mask;
+    members.add(entityId);
+  }
+
+  /**
+   * Fait contenir toutes les entités à l'ensemble, jusqu'au prochain {@link #clear()}.
+   */
+  public void addAll() {
+    all = true;
+  }
+
+  /**
+   * @param entityId L'entityId de l'entité à chercher.
+   * @return true si l'ensemble contient l'entité.
+   */
+  public boolean contains(int entityId) {
+    return all || (bits[entityId >>> 6] & 1L << entityId) != 0;
+  }
+
+  /**
+   * @return true si l'ensemble contient toutes les entités.
+   * @see #addAll()
+   */
+  public boolean isAll() {
+    return all;
+  }
+
+  /**
+   * Vide l'ensemble.
+   */
+  public void clear() {
+    for (int i = 0; i < members.size(); i++) {
+      bits[members.get(i) >>> 6] = 0;
+    }
+    members.clear();
+    all = false;
+  }
+}
@@ -22,22 +22,40 @@ public abstract class Hitbox {
    * @return true si les hitbox placées aux coordonnées spécifiées s'intersectionnent.
    */
   public static boolean collide(Hitbox h1, MapPoint m1, Hitbox h2, MapPoint m2) {
+    return collide(h1, m1.getX(), m1.getY(), h2, m2.getX(), m2.getY());
+  }
+
+  /**
+   * Renvoit true si les deux hitbox, placées respectivement aux coordoonées spécifiées,
+   * s'intersectionnent ou sont contenues l'une dans l'autre. Cette fonction est symétrique.
+   * <p>
+   * Variante de {@link #collide(Hitbox, MapPoint, Hitbox, MapPoint)} sans allocation.
+   *
+   * @param h1 La première hitbox.
+   * @param x1 L'abscisse du centre de la première hitbox.
+   * @param y1 L'ordonnée du centre de la première hitbox.
+   * @param h2 La deuxième hitbox.
+   * @param x2 L'abscisse du centre de la deuxième hitbox.
+   * @param y2 L'ordonnée du centre de la deuxième hitbox.
+   * @return true si les hitbox placées aux coordonnées spécifiées s'intersectionnent.
+   */
+  public static boolean collide(Hitbox h1, float x1, float y1, Hitbox h2, float x2, float y2) {
     if (h1 instanceof Null || h2 instanceof Null) {
       return false;
     }
     if (h1 instanceof Rectangle) {
       if (h2 instanceof Rectangle) {
-        return rectangleCollide((Rectangle) h1, m1, (Rectangle) h2, m2);
+        return rectangleCollide((Rectangle) h1, x1, y1, (Rectangle) h2, x2, y2);
       } else if (h2 instanceof Circle) {
-        return rectCircleCollide((Rectangle) h1, m1, (Circle) h2, m2);
+        return rectCircleCollide((Rectangle) h1, x1, y1, (Circle) h2, x2, y2);
       } else {
         throw new IllegalArgumentException("Unknown hitbox type for h2 : " + h2);
       }
     } else if (h1 instanceof Circle) {
       if (h2 instanceof Rectangle) {
-        return rectCircleCollide((Rectangle) h2, m2, (Circle) h1, m1);
+        return rectCircleCollide((Rectangle) h2, x2, y2, (Circle) h1, x1, y1);
       } else if (h2 instanceof Circle) {
-        return circleCollide((Circle) h1, m1, (Circle) h2, m2);
+        return circleCollide((Circle) h1, x1, y1, (Circle) h2, x2, y2);
       } else {
         throw new IllegalArgumentException("Unknown hitbox type for h2 : " + h2);
       }
@@ -58,17 +76,17 @@ public abstract class Hitbox {
     return new Null();
   }
 
-  private static boolean circleCollide(Circle h1, MapPoint m1, Circle h2, MapPoint m2) {
-    float deltaX = m1.getX() - m2.getX();
-    float deltaY = m1.getY() - m2.getY();
+  private static boolean circleCollide(Circle h1, float x1, float y1, Circle h2, float x2, float y2) {
+    float deltaX = x1 - x2;
+    float deltaY = y1 - y2;
     float radiusSum = h1.radius + h2.radius;
     return deltaX * deltaX + deltaY * deltaY <= radiusSum * radiusSum;
   }
 
-  private static boolean rectCircleCollide(Rectangle h1, MapPoint m1, Circle h2, MapPoint m2) {
+  private static boolean rectCircleCollide(Rectangle h1, float x1, float y1, Circle h2, float x2, float y2) {
     // taken from http://stackoverflow.com/a/402010
-    float deltaX = Math.abs(m2.getX() - m1.getX());
-    float deltaY = Math.abs(m2.getY() - m1.getY());
+    float deltaX = Math.abs(x2 - x1);
+    float deltaY = Math.abs(y2 - y1);
     if (deltaX > h1.widthHalf + h2.radius) {
       return false;
     }
@@ -86,15 +104,11 @@ public abstract class Hitbox {
     return cornerX * cornerX + cornerY * cornerY <= h2.radius * h2.radius;
   }
 
-  private static boolean rectangleCollide(Rectangle h1, MapPoint m1, Rectangle h2, MapPoint m2) {
-    MapPoint upLeft1 = m1.getTranslated(-h1.widthHalf, h1.heightHalf);
-    MapPoint downRight1 = m1.getTranslated(h1.widthHalf, -h1.heightHalf);
-    MapPoint upLeft2 = m2.getTranslated(-h2.widthHalf, h2.heightHalf);
-    MapPoint downRight2 = m2.getTranslated(h2.widthHalf, -h2.heightHalf);
-    if (upLeft1.getX() > downRight2.getX() || upLeft2.getX() > downRight1.getX()) {
+  private static boolean rectangleCollide(Rectangle h1, float x1, float y1, Rectangle h2, float x2, float y2) {
+    if (x1 - h1.widthHalf > x2 + h2.widthHalf || x2 - h2.widthHalf > x1 + h1.widthHalf) {
       return false;
     }
-    return !(upLeft1.getY() < downRight2.getY() || upLeft2.getY() < downRight1.getY());
+    return !(y1 + h1.heightHalf < y2 - h2.heightHalf || y2 + h2.heightHalf < y1 - h1.heightHalf);
   }
 
   /**
@@ -110,11 +124,24 @@ public abstract class Hitbox {
    */
   public abstract Iterable<FloatFloat> getKeyPoints(float deltaX, float deltaY);
 
+  /**
+   * Retourne la demi-largeur du carré centré sur l'entité contenant toute la hitbox. Utile pour
+   * éliminer rapidement les hitbox trop éloignées pour s'intersectionner.
+   *
+   * @return La demi-largeur du carré englobant la hitbox.
+   */
+  public abstract float getExtent();
+
   private static class Null extends Hitbox {
     @Override
     public Iterable<FloatFloat> getKeyPoints(float deltaX, float deltaY) {
       return Collections.emptyList();
     }
+
+    @Override
+    public float getExtent() {
+      return 0;
+    }
   }
 
   private static class Circle extends Hitbox {
@@ -138,6 +165,11 @@ public abstract class Hitbox {
     public Iterable<FloatFloat> getKeyPoints(float deltaX, float deltaY) {
       return keyPoints;
     }
+
+    @Override
+    public float getExtent() {
+      return radius;
+    }
   }
 
   private static class Rectangle extends Hitbox {
@@ -157,6 +189,11 @@ public abstract class Hitbox {
       keyPoints = Collections.unmodifiableList(pairs);
     }
 
+    @Override
+    public float getExtent() {
+      return Math.max(widthHalf, heightHalf);
+    }
+
     @Override
     public Iterable<FloatFloat> getKeyPoints(float deltaX, float deltaY) {
       if (deltaX == 0) {
@@ -0,0 +1,128 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.util.MikoMath;
+
+/**
+ * Le calcul des positions affichées des entités entre deux ticks, pour que le rendu puisse se faire
+ * à chaque frame et non seulement à chaque tick.
+ * <p>
+ * En mode {@link Mode#INTERPOLATE}, une entité est affichée entre sa position au tick précédent et
+ * sa position au tick actuel, selon l'avancement <code>alpha</code> de la frame entre les deux
+ * ticks : l'affichage a un tick de retard, mais ne montre que des positions simulées. En mode
+ * {@link Mode#EXTRAPOLATE}, les entités distantes sont affichées à leur position au tick actuel,
+ * déplacée selon leur vitesse : l'affichage n'a pas de retard, mais peut montrer brièvement une
+ * entité là où elle n'ira pas. L'entité du joueur est toujours interpolée.
+ * <p>
+ * Une entité ayant parcouru plus de <code>maxDistance</code> cases en un tick (par exemple après
+ * une téléportation) est affichée directement à sa position actuelle.
+ */
+final class Interpolator {
+  private final Mode mode;
+  private final float maxDistance;
+
+  /**
+   * @param mode        Le mode de calcul des positions des entités distantes.
+   * @param maxDistance La distance maximale en cases entre deux ticks pour interpoler une entité.
+   */
+  public Interpolator(Mode mode, float maxDistance) {
+    if (mode == null) {
+      throw new IllegalArgumentException("mode must not be null");
+    }
+    if (!(maxDistance >= 0)) {
+      throw new IllegalArgumentException("maxDistance must be positive or zero");
+    }
+    this.mode = mode;
+    this.maxDistance = maxDistance;
+  }
+
+  /**
+   * @return Le mode de calcul des positions des entités distantes.
+   */
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * @return true si les vitesses des entités distantes sont utilisées, pour
+   * {@link #getPosition(float, float, float, float, float, float, boolean, float, float[])}.
+   */
+  public boolean usesSpeed() {
+    return mode == Mode.EXTRAPOLATE;
+  }
+
+  /**
+   * Calcule la position affichée d'une entité.
+   *
+   * @param x      L'abscisse de l'entité au tick actuel.
+   * @param y      L'ordonnée de l'entité au tick actuel.
+   * @param oldX   L'abscisse de l'entité au tick précédent, ou NaN si elle n'existait pas.
+   * @param oldY   L'ordonnée de l'entité au tick précédent, ou NaN si elle n'existait pas.
+   * @param speedX La vitesse en abscisse de l'entité au tick actuel, en cases par tick.
+   * @param speedY La vitesse en ordonnée de l'entité au tick actuel, en cases par tick.
+   * @param remote true si l'entité n'est pas celle du joueur.
+   * @param alpha  L'avancement de la frame entre deux ticks, entre 0 et 1.
+   * @param out    Le tableau dans lequel écrire l'abscisse puis l'ordonnée affichées.
+   */
+  public void getPosition(float x, float y, float oldX, float oldY, float speedX, float speedY, boolean remote, float alpha, float[] out) {
+    float clampedAlpha = Math.max(0, Math.min(1, alpha));
+    if (mode == Mode.EXTRAPOLATE && remote) {
+      if (Float.isNaN(speedX) || Float.isNaN(speedY)) {
+        speedX = 0;
+        speedY = 0;
+      }
+      out[0] = x + clampedAlpha * speedX;
+      out[1] = y + clampedAlpha * speedY;
+      return;
+    }
+    float deltaX = x - oldX;
+    float deltaY = y - oldY;
+    // faux si l'entité n'existait pas au tick précédent (NaN)
+    if (Math.abs(deltaX) <= maxDistance && Math.abs(deltaY) <= maxDistance) {
+      out[0] = oldX + clampedAlpha * deltaX;
+      out[1] = oldY + clampedAlpha * deltaY;
+    } else {
+      out[0] = x;
+      out[1] = y;
+    }
+  }
+
+  /**
+   * Calcule la position affichée d'une entité, en lisant ses positions et sa vitesse dans le
+   * gestionnaire d'entités. L'entité doit avoir une position au tick spécifié.
+   *
+   * @param entityManager Le gestionnaire des entités.
+   * @param tick          Le tick actuel.
+   * @param entityId      L'entityId de l'entité.
+   * @param remote        true si l'entité n'est pas celle du joueur.
+   * @param alpha         L'avancement de la frame entre le tick précédent et le tick actuel.
+   * @return La position affichée de l'entité.
+   */
+  public MapPoint getPosition(EntityManager entityManager, long tick, int entityId, boolean remote, float alpha) {
+    float speedX = 0;
+    float speedY = 0;
+    if (usesSpeed() && remote) {
+      float speedNorm = entityManager.getSpeedNorm(tick, entityId);
+      float speedAngle = entityManager.getSpeedAngle(tick, entityId);
+      speedX = speedNorm * MikoMath.cos(speedAngle);
+      speedY = speedNorm * MikoMath.sin(speedAngle);
+    }
+    float[] position = new float[2];
+    getPosition(entityManager.getX(tick, entityId), entityManager.getY(tick, entityId), entityManager.getX(tick - 1, entityId),
+            entityManager.getY(tick - 1, entityId), speedX, speedY, remote, alpha, position);
+    return new MapPoint(position[0], position[1]);
+  }
+
+  /**
+   * Le mode de calcul des positions affichées des entités distantes.
+   */
+  public enum Mode {
+    /**
+     * Interpolation linéaire entre le tick précédent et le tick actuel.
+     */
+    INTERPOLATE,
+    /**
+     * Extrapolation depuis le tick actuel selon la vitesse.
+     */
+    EXTRAPOLATE
+  }
+}
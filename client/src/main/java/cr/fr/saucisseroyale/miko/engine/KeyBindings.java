@@ -0,0 +1,66 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+/**
+ * Les codes des touches des actions du joueur, tels que reçus dans les événements d'input de
+ * {@link Simulation#processNextTick(java.util.List)}.
+ * <p>
+ * La simulation ne connaît pas la bibliothèque d'affichage : les codes sont choisis par
+ * {@link Engine}, selon les préférences d'input de l'utilisateur.
+ */
+public final class KeyBindings {
+  private final int moveLeft;
+  private final int moveRight;
+  private final int moveUp;
+  private final int moveDown;
+  private final int ballSend;
+
+  /**
+   * @param moveLeft  Le code de la touche "se déplacer vers la gauche".
+   * @param moveRight Le code de la touche "se déplacer vers la droite".
+   * @param moveUp    Le code de la touche "se déplacer vers le haut".
+   * @param moveDown  Le code de la touche "se déplacer vers le bas".
+   * @param ballSend  Le code de la touche "lancer une balle".
+   */
+  public KeyBindings(int moveLeft, int moveRight, int moveUp, int moveDown, int ballSend) {
+    this.moveLeft = moveLeft;
+    this.moveRight = moveRight;
+    this.moveUp = moveUp;
+    this.moveDown = moveDown;
+    this.ballSend = ballSend;
+  }
+
+  /**
+   * @return Le code de la touche "se déplacer vers la gauche".
+   */
+  public int getMoveLeft() {
+    return moveLeft;
+  }
+
+  /**
+   * @return Le code de la touche "se déplacer vers la droite".
+   */
+  public int getMoveRight() {
+    return moveRight;
+  }
+
+  /**
+   * @return Le code de la touche "se déplacer vers le haut".
+   */
+  public int getMoveUp() {
+    return moveUp;
+  }
+
+  /**
+   * @return Le code de la touche "se déplacer vers le bas".
+   */
+  public int getMoveDown() {
+    return moveDown;
+  }
+
+  /**
+   * @return Le code de la touche "lancer une balle".
+   */
+  public int getBallSend() {
+    return ballSend;
+  }
+}
@@ -0,0 +1,155 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Un ordonnanceur des rollbacks de l'engine, stockant les messages du serveur reçus en retard et
+ * les appliquant en une seule passe de simulation.
+ * <p>
+ * Les messages sont gardés triés dans l'ordre de {@link EngineMessage#compareTo(EngineMessage)}
+ * dès leur ajout. Lors d'un {@link #replay(Target, boolean)}, la simulation repart du plus ancien
+ * tick modifié (le "tick sale"), applique chaque message à son tick en avançant tick par tick, puis
+ * resimule jusqu'au dernier tick : une rafale de messages en retard ne coûte qu'une seule
+ * resimulation.
+ */
+class RollbackScheduler {
+  private final List<EngineMessage> messages = new ArrayList<>();
+  private long replays;
+  private long resimulatedTicks;
+  private int lastResimulatedTicks;
+
+  /**
+   * Ajoute un message à appliquer lors du prochain {@link #replay(Target, boolean)}.
+   *
+   * @param message Le message à ajouter.
+   */
+  public void add(EngineMessage message) {
+    // insertion après les messages égaux pour garder l'ordre d'arrivée
+    int index = Collections.binarySearch(messages, message);
+    if (index < 0) {
+      index = -index - 1;
+    } else {
+      while (index < messages.size() && messages.get(index).compareTo(message) == 0) {
+        index++;
+      }
+    }
+    messages.add(index, message);
+  }
+
+  /**
+   * @return Le plus ancien tick modifié par un message en attente, ou {@link Long#MAX_VALUE} s'il
+   * n'y a aucun message en attente.
+   */
+  public long getMinDirtyTick() {
+    if (messages.isEmpty()) {
+      return Long.MAX_VALUE;
+    }
+    return messages.get(0).getTick();
+  }
+
+  /**
+   * Applique les messages en attente en une seule passe de simulation, depuis le plus ancien tick
+   * modifié jusqu'au dernier tick de la cible.
+   * <p>
+   * Les messages de ticks après le dernier tick de la cible sont gardés pour un prochain appel, sauf
+   * si createTicks est vrai, auquel cas les ticks manquants sont créés.
+   *
+   * @param target      La simulation sur laquelle appliquer les messages.
+   * @param createTicks true pour créer les ticks manquants jusqu'aux messages les plus récents.
+   * @return Le tick du message le plus récent appliqué, ou -1 si aucun message n'a été appliqué.
+   */
+  public long replay(Target target, boolean createTicks) {
+    int ticks = 0;
+    long updateTick = -1;
+    int count = 0;
+    for (EngineMessage message : messages) {
+      long tick = message.getTick();
+      if (tick > target.getLastTick()) {
+        if (!createTicks) {
+          break;
+        }
+        if (updateTick == -1) {
+          updateTick = target.getLastTick();
+        }
+      }
+      if (updateTick != -1) {
+        for (; updateTick < tick; updateTick++) {
+          target.updateTickAfter(updateTick);
+          ticks++;
+        }
+      }
+      updateTick = tick;
+      target.processMessage(message);
+      count++;
+    }
+    if (count == 0) {
+      return -1;
+    }
+    messages.subList(0, count).clear();
+    long lastMessageTick = updateTick;
+    // update to current tick
+    for (; updateTick < target.getLastTick(); updateTick++) {
+      target.updateTickAfter(updateTick);
+      ticks++;
+    }
+    replays++;
+    resimulatedTicks += ticks;
+    lastResimulatedTicks = ticks;
+    return lastMessageTick;
+  }
+
+  /**
+   * @return Le nombre de messages en attente.
+   */
+  public int size() {
+    return messages.size();
+  }
+
+  /**
+   * @return Le nombre de passes de resimulation effectuées.
+   */
+  public long getReplays() {
+    return replays;
+  }
+
+  /**
+   * @return Le nombre total de ticks resimulés.
+   */
+  public long getResimulatedTicks() {
+    return resimulatedTicks;
+  }
+
+  /**
+   * @return Le nombre de ticks resimulés lors de la dernière passe.
+   */
+  public int getLastResimulatedTicks() {
+    return lastResimulatedTicks;
+  }
+
+  /**
+   * Une simulation sur laquelle appliquer des messages et resimuler des ticks.
+   */
+  interface Target {
+    /**
+     * @return Le dernier tick simulé.
+     */
+    long getLastTick();
+
+    /**
+     * Simule le tick suivant le tick spécifié. Si le tick spécifié est le dernier tick, le dernier
+     * tick est incrémenté.
+     *
+     * @param tick Le tick précédant le tick à simuler.
+     */
+    void updateTickAfter(long tick);
+
+    /**
+     * Applique un message à son tick.
+     *
+     * @param message Le message à appliquer.
+     */
+    void processMessage(EngineMessage message);
+  }
+}
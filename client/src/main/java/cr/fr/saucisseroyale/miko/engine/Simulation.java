@@ -0,0 +1,614 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.network.EntityUpdateCursor;
+import cr.fr.saucisseroyale.miko.network.FutureOutputMessage;
+import cr.fr.saucisseroyale.miko.network.OutputMessageFactory;
+import cr.fr.saucisseroyale.miko.protocol.*;
+import cr.fr.saucisseroyale.miko.protocol.EntityDataUpdate.Builder;
+import cr.fr.saucisseroyale.miko.util.IntList;
+import cr.fr.saucisseroyale.miko.util.MikoMath;
+import cr.fr.saucisseroyale.miko.util.Or;
+import cr.fr.saucisseroyale.miko.util.Pair;
+import cr.fr.saucisseroyale.miko.util.Pair.FloatFloat;
+import cr.fr.saucisseroyale.miko.util.Pair.Int;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * La simulation du jeu Miko, écoutant les inputs du serveur et du client, sans aucun affichage.
+ * <p>
+ * La simulation ne dépend ni de l'écran ni des ressources graphiques et peut être avancée tick par
+ * tick avec des inputs synthétiques (benchmarks, bots, vérification de parties). Les événements
+ * d'input sont ceux de {@link #processNextTick(List)} ; l'affichage est fait par {@link Engine}.
+ */
+public class Simulation {
+  private static final int TICK_DIVIDER = 1 << 16;
+  private static Logger logger = LogManager.getLogger("miko.engine");
+  private final Consumer<FutureOutputMessage> messageOutput;
+  private Config config;
+  private TerrainManager terrainManager;
+  private EntityManager entityManager;
+  private PlayerManager playerManager = new PlayerManager();
+  private ChatManager chatManager = new ChatManager();
+  private final TickInputManager tickInputManager;
+  private RollbackScheduler rollbackScheduler = new RollbackScheduler();
+  private final RollbackScheduler.Target rollbackTarget = new RollbackScheduler.Target() {
+    @Override
+    public long getLastTick() {
+      return lastTick;
+    }
+
+    @Override
+    public void updateTickAfter(long tick) {
+      Simulation.this.updateTickAfter(tick);
+    }
+
+    @Override
+    public void processMessage(EngineMessage message) {
+      Simulation.this.processMessage(message);
+    }
+  };
+  // listes réutilisées pour parcourir les entités sans allocation
+  private final IntList entities = new IntList();
+  private final IntList otherEntities = new IntList();
+  // joueurs du tick en cours de simulation, pour les collisions avec les balles
+  private final SpatialGrid playerGrid = new SpatialGrid();
+  // entités à resimuler lors d'un rollback ; les autres gardent leurs snapshots prédits
+  private final EntitySet dirtyEntities = new EntitySet();
+  private final SpatialGrid dirtyPlayerGrid = new SpatialGrid();
+  private int playerEntityId = -1;
+  private long lastDisposedTick = -1;
+  private long lastReceivedTick = -1;
+  private long lastTick;
+  private long createTick = -1;
+  private boolean startedup = false;
+
+  /**
+   * Crée une simulation commençant au tick spécifié.
+   *
+   * @param config        La configuration de la partie.
+   * @param keyBindings   Les codes des touches des actions du joueur dans les événements d'input.
+   * @param messageOutput Le consommateur des messages à envoyer au serveur.
+   * @param tickRemainder Le tick de départ, modulo 2^16.
+   */
+  public Simulation(Config config, KeyBindings keyBindings, Consumer<FutureOutputMessage> messageOutput, int tickRemainder) {
+    logger.debug("Created simulation");
+    this.config = config;
+    tickInputManager = new TickInputManager(keyBindings);
+    this.messageOutput = messageOutput;
+    terrainManager = new TerrainManager();
+    entityManager = new EntityManager(config.getMaxRollbackTicks());
+    long tick = tickRemainder;
+    lastTick = tick;
+    createTick = tick;
+  }
+
+  private static float getPlayerMovementAngle(TickInput tickInput) {
+    float angle = (float) (Math.PI / 4);
+    if (tickInput.isMoveRight()) {
+      if (tickInput.isMoveUp()) {
+        return angle * 1;
+      }
+      if (tickInput.isMoveDown()) {
+        return angle * 7;
+      }
+      return angle * 0;
+    }
+    if (tickInput.isMoveLeft()) {
+      if (tickInput.isMoveUp()) {
+        return angle * 3;
+      }
+      if (tickInput.isMoveDown()) {
+        return angle * 5;
+      }
+      return angle * 4;
+    }
+    {
+      if (tickInput.isMoveUp()) {
+        return angle * 2;
+      }
+      if (tickInput.isMoveDown()) {
+        return angle * 6;
+      }
+      return Float.NaN;
+    }
+  }
+
+  public long getTick() {
+    return lastTick;
+  }
+
+  /**
+   * Simule le tick suivant, après avoir appliqué les messages du serveur reçus.
+   * <p>
+   * Les événements sont soit une position de la souris, relative au centre du joueur (null si la
+   * souris n'est pas dans la fenêtre), soit l'appui (true) ou le relâchement (false) d'une touche,
+   * identifiée par son code, voir {@link KeyBindings}.
+   *
+   * @param eventList Les événements d'input du joueur depuis le tick précédent.
+   */
+  public void processNextTick(List<Or<Pair.DoubleDouble, Pair.IntBoolean>> eventList) {
+    tickInputManager.addInput(lastTick, eventList);
+    // redo logic until current tick
+    processBufferedMessages();
+
+    logger.trace("Creating tick after {}", lastTick);
+    // create next tick
+    updateTickAfter(lastTick);
+  }
+
+  public void endStartup(long deltaTick) {
+    tickInputManager.addInput(lastTick, Collections.emptyList());
+    processBufferedMessages();
+    long newTick = createTick + deltaTick;
+    logger.trace("Creating ticks until {} and finishing engine startup", newTick);
+    while (lastTick < newTick) {
+      updateTickAfter(lastTick);
+    }
+    // lastTick = newTick now
+    startedup = true;
+  }
+
+  public void freeTime() {
+    // we've got some time to dipose the old ticks
+    long disposeTick = lastReceivedTick - config.getMaxRollbackTicks();
+    terrainManager.disposeUntilTick(disposeTick);
+    entityManager.disposeUntilTick(disposeTick);
+    playerManager.disposeUntilTick(disposeTick);
+    tickInputManager.disposeUntilTick(disposeTick);
+    lastDisposedTick = disposeTick;
+  }
+
+  private void updateTickAfter(long oldTick) {
+    if (oldTick <= lastDisposedTick) {
+      throw new IllegalStateException("Tick " + oldTick + " has already been disposed");
+    }
+    // when replaying an existing tick, only entities that may have changed are resimulated
+    boolean replaying = oldTick < lastTick;
+    if (oldTick == lastTick) {
+      lastTick++;
+    }
+    long tick = oldTick + 1;
+
+    TickInput tickInput = tickInputManager.getInput(oldTick);
+
+    // update cooldowns and lifespans
+    entities.clear();
+    entityManager.getEntities(tick, entities);
+    for (int i = 0; i < entities.size(); i++) {
+      int entityId = entities.get(i);
+      if (!isSimulated(replaying, oldTick, entityId)) {
+        continue;
+      }
+      if (entityManager.getEntityType(tick, entityId) == EntityType.PLAYER) {
+        int cooldown = entityManager.getIntObjectAttribute(oldTick, entityId, ObjectAttribute.COOLDOWN_ONE);
+        if (cooldown > 0) {
+          entityManager.setIntObjectAttribute(tick, entityId, ObjectAttribute.COOLDOWN_ONE, cooldown - 1);
+        }
+      }
+      if (entityManager.getEntityType(tick, entityId) == EntityType.BALL) {
+        int ticksLeft = entityManager.getIntObjectAttribute(oldTick, entityId, ObjectAttribute.TICKS_LEFT);
+        if (ticksLeft > 0) {
+          entityManager.setIntObjectAttribute(tick, entityId, ObjectAttribute.TICKS_LEFT, ticksLeft - 1);
+        } else {
+          entityManager.destroyEntity(tick, entityId);
+        }
+      }
+    }
+
+    if (startedup) {
+      // set player speed
+      float playerMovementDirection = getPlayerMovementAngle(tickInput);
+      if (Float.isNaN(playerMovementDirection)) {
+        entityManager.setSpeedNorm(tick, playerEntityId, 0f);
+      } else {
+        entityManager.setSpeedNorm(tick, playerEntityId, config.getDefaultPlayerSpeed());
+        entityManager.setSpeedAngle(tick, playerEntityId, playerMovementDirection);
+      }
+    }
+
+    // integrate positions
+    // players first, so that balls collide with the players' positions at this tick
+    entities.clear();
+    entityManager.getEntities(tick, entities);
+    for (int i = 0; i < entities.size(); i++) {
+      int entityId = entities.get(i);
+      if (entityManager.getEntityType(tick, entityId) != EntityType.BALL && isSimulated(replaying, oldTick, entityId)) {
+        integrate(oldTick, tick, entityId);
+      }
+    }
+    playerGrid.clear();
+    for (int i = 0; i < entities.size(); i++) {
+      int entityId = entities.get(i);
+      if (entityManager.getEntityType(tick, entityId) == EntityType.PLAYER) {
+        float extent = entityManager.getSpriteType(tick, entityId).getHitbox().getExtent();
+        playerGrid.add(entityId, entityManager.getX(tick, entityId), entityManager.getY(tick, entityId), extent);
+      }
+    }
+    if (replaying && !dirtyEntities.isAll()) {
+      markBallsNearDirtyPlayers(oldTick, tick);
+    }
+    for (int i = 0; i < entities.size(); i++) {
+      int entityId = entities.get(i);
+      if (entityManager.getEntityType(tick, entityId) == EntityType.BALL && isSimulated(replaying, oldTick, entityId)) {
+        integrate(oldTick, tick, entityId);
+      }
+    }
+
+    // process actions
+    float ballSendAngle = tickInput.getBallSendRequest();
+    if (tick == lastTick && !Float.isNaN(ballSendAngle)) {
+      int cooldown = entityManager.getIntObjectAttribute(oldTick, playerEntityId, ObjectAttribute.COOLDOWN_ONE);
+      if (cooldown <= 0) {
+        entityManager.setIntObjectAttribute(tick, playerEntityId, ObjectAttribute.COOLDOWN_ONE, config.getPlayerBallCooldown());
+        // create a ball
+        int ballId = entityManager.getAndUseTemporaryId();
+        MapPoint position = entityManager.getMapPoint(tick, playerEntityId);
+        EntityDataUpdate ball =
+                new Builder(ballId).entityType(EntityType.BALL).position(position).speedAngle(ballSendAngle)
+                        .speedNorm(config.getDefaultBallSpeed()).spriteType(SpriteType.BALL).objectAttribute(ObjectAttribute.SENDER, playerEntityId)
+                        .objectAttribute(ObjectAttribute.TICKS_LEFT, config.getDefaultBallLifespan()).build();
+        entityManager.createEntity(tick, ball);
+        logger.trace("Ball sent on tick {} at {} {} with angle {} and speed {}", tick, position.getX(), position.getY(), ballSendAngle, config.getDefaultBallSpeed());
+        // notify server of ball send
+        messageOutput.accept(OutputMessageFactory.action(tick, new Action(ActionType.SEND_BALL, new Pair<>(ballSendAngle, ballId))));
+      }
+    }
+
+    if (startedup && tick == lastTick) {
+      // send client position
+      messageOutput.accept(OutputMessageFactory.entityUpdate(tick, playerEntityId, entityManager.getX(tick, playerEntityId),
+              entityManager.getY(tick, playerEntityId), entityManager.getSpeedAngle(tick, playerEntityId),
+              entityManager.getSpeedNorm(tick, playerEntityId)));
+    }
+
+    if (logger.isTraceEnabled()) {
+      entities.clear();
+      entityManager.getEntities(tick, entities);
+      for (int i = 0; i < entities.size(); i++) {
+        int entityId = entities.get(i);
+        if (entityManager.getEntityType(tick, entityId) != EntityType.BALL) {
+          continue;
+        }
+        MapPoint position = entityManager.getMapPoint(tick, entityId);
+        logger.trace("Ball {} on tick {} at {} {} with angle {} and speed {}", entityId, tick, position.getX(), position.getY(),
+                entityManager.getSpeedAngle(tick, entityId), entityManager.getSpeedNorm(tick, entityId));
+      }
+    }
+  }
+
+  // entities created at tick already have their state for this tick
+  private boolean isSimulated(boolean replaying, long oldTick, int entityId) {
+    if (!entityManager.isEnabled(oldTick, entityId)) {
+      return false;
+    }
+    return !replaying || dirtyEntities.contains(entityId);
+  }
+
+  private void markBallsNearDirtyPlayers(long oldTick, long tick) {
+    // balls that are not replayed may now collide differently with replayed players
+    dirtyPlayerGrid.clear();
+    for (int i = 0; i < entities.size(); i++) {
+      int entityId = entities.get(i);
+      if (dirtyEntities.contains(entityId) && entityManager.getEntityType(tick, entityId) == EntityType.PLAYER) {
+        float extent = entityManager.getSpriteType(tick, entityId).getHitbox().getExtent();
+        dirtyPlayerGrid.add(entityId, entityManager.getX(tick, entityId), entityManager.getY(tick, entityId), extent);
+      }
+    }
+    for (int i = 0; i < entities.size(); i++) {
+      int entityId = entities.get(i);
+      if (dirtyEntities.contains(entityId) || entityManager.getEntityType(tick, entityId) != EntityType.BALL
+              || !entityManager.isEnabled(oldTick, entityId)) {
+        continue;
+      }
+      float reach = entityManager.getSpriteType(tick, entityId).getHitbox().getExtent() + Math.abs(entityManager.getSpeedNorm(tick, entityId));
+      float x = entityManager.getX(oldTick, entityId);
+      float y = entityManager.getY(oldTick, entityId);
+      otherEntities.clear();
+      dirtyPlayerGrid.query(x - reach, y - reach, x + reach, y + reach, otherEntities);
+      if (!otherEntities.isEmpty()) {
+        dirtyEntities.add(entityId);
+      }
+    }
+  }
+
+  private void integrate(long oldTick, long tick, int entityId) {
+    float x = entityManager.getX(oldTick, entityId);
+    float y = entityManager.getY(oldTick, entityId);
+    float speedNorm = entityManager.getSpeedNorm(tick, entityId);
+    if (speedNorm == 0f) {
+      keepPosition(tick, entityId, x, y);
+      return;
+    }
+    float speedAngle = entityManager.getSpeedAngle(tick, entityId);
+    float newX = x + speedNorm * MikoMath.cos(speedAngle);
+    float newY = y + speedNorm * MikoMath.sin(speedAngle);
+    // unused for now
+    EntityType entityType = entityManager.getEntityType(tick, entityId);
+    // check collisions
+    // check terrain collisions
+    float deltaX = newX - x;
+    float deltaY = newY - y;
+    int width = (int) deltaX;
+    int height = (int) deltaY;
+    Hitbox hitbox = entityManager.getSpriteType(tick, entityId).getHitbox();
+    for (FloatFloat offset : hitbox.getKeyPoints(deltaX, deltaY)) {
+      int startX = (int) (x + offset.getFirst());
+      int startY = (int) (y + offset.getSecond());
+      if (terrainManager.sweep(tick, startX, startY, width, height) >= 0) {
+        if (entityType == EntityType.BALL) {
+          entityManager.destroyEntity(tick, entityId);
+        } else {
+          keepPosition(tick, entityId, x, y);
+        }
+        return;
+      }
+    }
+    // check entity collisions
+    // only check balls collisions against other entities
+    // only check moving entities against other entities
+    if (entityType == EntityType.BALL) {
+      // 0 est un entityId valide : une balle sans lanceur touche tous les joueurs
+      boolean hasSender = entityManager.hasIntObjectAttribute(tick, entityId, ObjectAttribute.SENDER);
+      int senderId = entityManager.getIntObjectAttribute(tick, entityId, ObjectAttribute.SENDER);
+      float extent = hitbox.getExtent();
+      otherEntities.clear();
+      playerGrid.query(newX - extent, newY - extent, newX + extent, newY + extent, otherEntities);
+      for (int i = 0; i < otherEntities.size(); i++) {
+        int otherId = otherEntities.get(i);
+        if (hasSender && senderId == otherId) {
+          continue;
+        }
+        // check hitbox after id checks because it may be more expensive
+        Hitbox otherHitbox = entityManager.getSpriteType(tick, otherId).getHitbox();
+        float otherX = entityManager.getX(tick, otherId);
+        float otherY = entityManager.getY(tick, otherId);
+        if (!Hitbox.collide(hitbox, newX, newY, otherHitbox, otherX, otherY)) {
+          continue;
+        }
+        // player-ball collision
+        entityManager.destroyEntity(tick, entityId);
+        if (entityManager.hasIntObjectAttribute(tick, otherId, ObjectAttribute.HEALTH)) {
+          int playerHp = entityManager.getIntObjectAttribute(tick, otherId, ObjectAttribute.HEALTH);
+          entityManager.setIntObjectAttribute(tick, otherId, ObjectAttribute.HEALTH, playerHp - 1);
+        }
+        dirtyEntities.add(otherId);
+        return;
+      }
+    }
+    entityManager.setPosition(tick, entityId, newX, newY);
+  }
+
+  // overwrites the position at tick if it was predicted differently before a rollback
+  private void keepPosition(long tick, int entityId, float x, float y) {
+    if (entityManager.getX(tick, entityId) != x || entityManager.getY(tick, entityId) != y) {
+      entityManager.setPosition(tick, entityId, x, y);
+    }
+  }
+
+  private void processAction(long tick, int entityId, Action action) {
+    if (tick <= lastDisposedTick) {
+      throw new IllegalStateException("Tick " + tick + " has already been disposed");
+    }
+    switch (action.getType()) {
+      case SEND_BALL:
+        // ignorer, la balle sera ajoutée avec un entitycreate/entitiesupdate
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown action type: " + action.getType());
+    }
+  }
+
+  private String formatMessage(long tick, int entityId, String chatMessage) {
+    if (tick <= lastDisposedTick) {
+      throw new IllegalStateException("Tick " + tick + " has already been disposed");
+    }
+    if (playerManager.isPlayer(tick, entityId)) {
+      return playerManager.getPlayerName(tick, entityId) + ": " + chatMessage;
+    } else {
+      return "Entité inconnue: " + chatMessage;
+    }
+  }
+
+  private void processBufferedMessages() {
+    if (rollbackScheduler.getMinDirtyTick() <= lastDisposedTick) {
+      throw new IllegalStateException("Tick " + rollbackScheduler.getMinDirtyTick() + " has already been disposed");
+    }
+    // redo logic from the earliest tick modified by a message, in a single pass
+    // processMessage marks the entities to resimulate
+    dirtyEntities.clear();
+    long lastMessageTick = rollbackScheduler.replay(rollbackTarget, !startedup);
+    if (lastMessageTick != -1) {
+      lastReceivedTick = lastMessageTick > lastReceivedTick ? lastMessageTick : lastReceivedTick;
+      logger.trace("Resimulated {} ticks ({} in total)", rollbackScheduler.getLastResimulatedTicks(), rollbackScheduler.getResimulatedTicks());
+    }
+    if (rollbackScheduler.size() > 0) {
+      // messages in the future are kept for the next ticks
+      logger.warn("Tick " + rollbackScheduler.getMinDirtyTick() + " has not been created yet");
+    }
+  }
+
+  private void processMessage(EngineMessage engineMessage) {
+    long tick = engineMessage.getTick();
+    Object[] data = engineMessage.getData();
+    switch (engineMessage.getType()) {
+      case PLAYER_JOINED:
+        int entityIdJoined = (int) data[0];
+        String username = (String) data[1];
+        playerManager.addPlayer(tick, entityIdJoined, username);
+        logger.debug("Player joined with entityId {} as {} on tick {}", entityIdJoined, username, tick);
+        break;
+      case PLAYER_LEFT:
+        int entityIdLeft = (int) data[0];
+        playerManager.removePlayer(tick, (int) data[0]);
+        logger.debug("Player left with entityId {} on tick {}", entityIdLeft, tick);
+        break;
+      case CHUNKS_UPDATE:
+        @SuppressWarnings("unchecked")
+        List<Pair<ChunkPoint, Chunk>> chunks = (List<Pair<ChunkPoint, Chunk>>) data[0];
+        for (Pair<ChunkPoint, Chunk> chunk : chunks) {
+          terrainManager.setChunk(tick, chunk.getFirst(), chunk.getSecond());
+        }
+        // any entity may collide with the new terrain
+        dirtyEntities.addAll();
+        logger.debug("Chunks update on tick {}, size: {}", tick, chunks.size());
+        break;
+      case ACTIONS_DONE:
+        @SuppressWarnings("unchecked")
+        List<Int<Action>> actionList = (List<Int<Action>>) data[0];
+        for (Int<Action> actionPair : actionList) {
+          processAction(tick, actionPair.getFirst(), actionPair.getSecond());
+        }
+        logger.debug("Actions received on tick {}", tick);
+        break;
+      case ENTITY_DESTROY:
+        int entityId = (int) data[0];
+        entityManager.destroyEntity(tick, entityId);
+        dirtyEntities.add(entityId);
+        logger.debug("Entity destroyed with entityId {} on tick {}", entityId, tick);
+        break;
+      case ENTITY_CREATE:
+        EntityDataUpdate entityDataCreate = (EntityDataUpdate) data[0];
+        entityManager.createEntity(tick, entityDataCreate);
+        dirtyEntities.add(entityDataCreate.getEntityId());
+        logger.debug("Entity created with entityId {} on tick {}", entityDataCreate.getEntityId(), tick);
+        break;
+      case ENTITIES_UPDATE:
+        @SuppressWarnings("unchecked")
+        List<EntityDataUpdate> entityDataUpdateList = (List<EntityDataUpdate>) data[0];
+        for (EntityDataUpdate entityDataUpdate : entityDataUpdateList) {
+          entityManager.applyUpdate(tick, entityDataUpdate);
+          dirtyEntities.add(entityDataUpdate.getEntityId());
+        }
+        logger.debug("Entities updated on tick {}", tick);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported engine message type : " + engineMessage.getType());
+    }
+  }
+
+  public void actions(int tickRemainder, List<Int<Action>> actions) {
+    rollbackScheduler.add(EngineMessage.newActionsMessage(getTick(tickRemainder), actions));
+  }
+
+  public void chatReceived(int tickRemainder, int entityIdChat, String chatMessage) {
+    String formattedMessage = formatMessage(getTick(tickRemainder), entityIdChat, chatMessage);
+    chatManager.addMessage(formattedMessage);
+    logger.info("Received chat message from entityId {}", entityIdChat);
+  }
+
+  public void chunksUpdate(int tickRemainder, List<Pair<ChunkPoint, Chunk>> chunks) {
+    rollbackScheduler.add(EngineMessage.newChunksUpdateMessage(getTick(tickRemainder), chunks));
+  }
+
+  public void entityIdChange(int oldEntityId, int newEntityId) {
+    entityManager.freeAndUpdateTemporaryId(oldEntityId, newEntityId);
+    if (dirtyEntities.contains(oldEntityId)) {
+      dirtyEntities.add(newEntityId);
+    }
+    logger.debug("Received entity id change from {} to {}", oldEntityId, newEntityId);
+  }
+
+  public void entityCreate(int tickRemainder, EntityDataUpdate entityDataUpdate) {
+    rollbackScheduler.add(EngineMessage.newEntityCreateMessage(getTick(tickRemainder), entityDataUpdate));
+  }
+
+  public void entityDestroy(int tickRemainder, int entityId) {
+    rollbackScheduler.add(EngineMessage.newEntityDestroyMessage(getTick(tickRemainder), entityId));
+  }
+
+  /**
+   * Ajoute une mise à jour d'entités à appliquer. Les mises à jour sont matérialisées ici, pour
+   * être gardées jusqu'à leur application et pour les rollbacks.
+   *
+   * @param tickRemainder Le tick de la mise à jour, modulo 2^16.
+   * @param entities      Le curseur sur les mises à jour des entités.
+   */
+  public void entitiesUpdate(int tickRemainder, EntityUpdateCursor entities) {
+    List<EntityDataUpdate> entitiesUpdateList = new ArrayList<>(entities.size());
+    while (entities.next()) {
+      entitiesUpdateList.add(entities.toEntityDataUpdate());
+    }
+    entitiesUpdate(tickRemainder, entitiesUpdateList);
+  }
+
+  public void entitiesUpdate(int tickRemainder, List<EntityDataUpdate> entitiesUpdateList) {
+    rollbackScheduler.add(EngineMessage.newEntitiesUpdateMessage(getTick(tickRemainder), entitiesUpdateList));
+  }
+
+  public void playerJoined(int tickRemainder, int entityId, String pseudo) {
+    rollbackScheduler.add(EngineMessage.newPlayerJoinedMessage(getTick(tickRemainder), entityId, pseudo));
+  }
+
+  public void playerLeft(int tickRemainder, int entityId) {
+    rollbackScheduler.add(EngineMessage.newPlayerLeftMessage(getTick(tickRemainder), entityId));
+  }
+
+  /**
+   * Définit définitivement l'entityId de l'entité du joueur ; doit être appelé avant toute logique
+   * ou render.
+   *
+   * @param entityId L'entityId du joueur.
+   */
+  public void setPlayerEntityId(int entityId) {
+    if (playerEntityId != -1) {
+      throw new IllegalStateException("setPlayerEntityId is only callable once");
+    }
+    playerEntityId = entityId;
+    logger.debug("Set player entity id to {}", entityId);
+  }
+
+  public void wroteMessage(String message) {
+    // TODO call this from miko
+    String formattedMessage = formatMessage(lastTick, playerEntityId, message);
+    chatManager.addMessage(formattedMessage);
+    messageOutput.accept(OutputMessageFactory.chatSend(message));
+    logger.info("Sent chat message");
+  }
+
+  TerrainManager getTerrainManager() {
+    return terrainManager;
+  }
+
+  EntityManager getEntityManager() {
+    return entityManager;
+  }
+
+  int getPlayerEntityId() {
+    return playerEntityId;
+  }
+
+  boolean isStartedup() {
+    return startedup;
+  }
+
+  List<String> getChatMessages() {
+    return chatManager.getMessages();
+  }
+
+  private long getTick(int tickRemainder) {
+    long quotient = lastTick / TICK_DIVIDER;
+    long difference = tickRemainder - lastTick % TICK_DIVIDER;
+    long newTick;
+    boolean inverted;
+    if (difference < 0) {
+      inverted = true;
+      difference = -difference;
+    } else {
+      inverted = false;
+    }
+    if (difference >= TICK_DIVIDER / 2) {
+      if (inverted) {
+        newTick = (quotient + 1) * TICK_DIVIDER + tickRemainder;
+      } else {
+        newTick = (quotient - 1) * TICK_DIVIDER + tickRemainder;
+      }
+    } else {
+      newTick = quotient * TICK_DIVIDER + tickRemainder;
+    }
+    return newTick;
+  }
+}
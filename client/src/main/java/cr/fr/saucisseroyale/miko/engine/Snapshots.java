@@ -1,12 +1,5 @@
 package cr.fr.saucisseroyale.miko.engine;
 
-import cr.fr.saucisseroyale.miko.util.MutablePair;
-
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
-
 /**
  * Un gestionnaire de snapshots, stockant des couples (tick ; donnée) et renvoyant pour un tick
  * demandé, la donnée la plus récente dont le tick est avant celui demandé.
@@ -16,27 +9,38 @@ import java.util.ListIterator;
  * <p>
  * Les utilisateurs de cette classe peuvent indiquer qu'ils n'utiliseront plus des valeurs
  * suffisament anciennes grâce à {@link #disposeUntilTick(long)}.
+ * <p>
+ * Pour des données primitives, utiliser plutôt {@link FloatSnapshots}, {@link IntSnapshots} ou
+ * {@link BooleanSnapshots}, qui évitent l'autoboxing.
  *
  * @param <T> Le type de données à stocker dans chaque couple (tick ; donnée).
+ * @see AbstractSnapshots
  */
-class Snapshots<T> {
-  private List<MutablePair.Long<T>> snapshots;
-  private long first, last;
-
+class Snapshots<T> extends AbstractSnapshots<Object[]> {
   /**
-   * Crée un snapshots avec comme support une {@link LinkedList}.
+   * Crée un snapshots avec une capacité initiale par défaut.
    */
   public Snapshots() {
-    snapshots = new LinkedList<>();
+    super();
   }
 
   /**
-   * Crée un snapshots avec comme support une {@link ArrayList} de capacité intiale spécifiée.
+   * Crée un snapshots avec une capacité initiale spécifiée.
    *
-   * @param capacity La capacité initiale de la {@link ArrayList} à créer.
+   * @param capacity La capacité initiale du buffer à créer.
    */
   public Snapshots(int capacity) {
-    snapshots = new ArrayList<>(capacity);
+    super(capacity);
+  }
+
+  @Override
+  protected Object[] newValues(int capacity) {
+    return new Object[capacity];
+  }
+
+  @Override
+  protected void clearValue(int slot) {
+    values[slot] = null;
   }
 
   /**
@@ -45,44 +49,13 @@ class Snapshots<T> {
    * @param tick Le tick du chunk à renvoyer.
    * @return Le snapshot spécifié par le tick, ou null s'il n'existe pas.
    */
+  @SuppressWarnings("unchecked")
   public T getSnapshot(long tick) {
-    if (tick - first < last - tick) {
-      return getSnapshotFromBeginning(tick);
-    } else {
-      return getSnapshotFromEnd(tick);
-    }
-  }
-
-  private T getSnapshotFromBeginning(long tick) {
-    ListIterator<MutablePair.Long<T>> snapshotIterator = snapshots.listIterator();
-    while (snapshotIterator.hasNext()) {
-      MutablePair.Long<T> pair = snapshotIterator.next();
-      if (pair.getFirst() == tick) {
-        return pair.getSecond();
-      }
-      if (pair.getFirst() > tick) {
-        snapshotIterator.previous();
-        if (!snapshotIterator.hasPrevious()) {
-          return null;
-        }
-        return snapshotIterator.previous().getSecond();
-      }
-    }
-    if (snapshots.isEmpty()) {
+    int slot = getSlot(tick);
+    if (slot < 0) {
       return null;
     }
-    return snapshotIterator.previous().getSecond();
-  }
-
-  private T getSnapshotFromEnd(long tick) {
-    ListIterator<MutablePair.Long<T>> snapshotIterator = snapshots.listIterator(snapshots.size());
-    while (snapshotIterator.hasPrevious()) {
-      MutablePair.Long<T> pair = snapshotIterator.previous();
-      if (pair.getFirst() <= tick) {
-        return pair.getSecond();
-      }
-    }
-    return null;
+    return (T) values[slot];
   }
 
   /**
@@ -96,102 +69,7 @@ class Snapshots<T> {
    * @param snapshot Le snapshot à ajouter.
    */
   public void setSnapshot(long tick, T snapshot) {
-    if (tick - first < last - tick) {
-      setSnapshotFromBeginning(tick, snapshot);
-    } else {
-      setSnapshotFromEnd(tick, snapshot);
-    }
-    if (tick < first) {
-      first = tick;
-    }
-    if (tick > last) {
-      last = tick;
-    }
-  }
-
-  private void setSnapshotFromBeginning(long tick, T snapshot) {
-    ListIterator<MutablePair.Long<T>> snapshotIterator = snapshots.listIterator();
-    while (snapshotIterator.hasNext()) {
-      MutablePair.Long<T> pair = snapshotIterator.next();
-      if (pair.getFirst() == tick) {
-        pair.setSecond(snapshot);
-        return;
-      }
-      if (pair.getFirst() > tick) {
-        snapshotIterator.previous();
-        snapshotIterator.add(new MutablePair.Long<>(tick, snapshot));
-        return;
-      }
-    }
-    snapshots.add(new MutablePair.Long<>(tick, snapshot));
-  }
-
-  private void setSnapshotFromEnd(long tick, T snapshot) {
-    ListIterator<MutablePair.Long<T>> snapshotIterator = snapshots.listIterator(snapshots.size());
-    while (snapshotIterator.hasPrevious()) {
-      MutablePair.Long<T> pair = snapshotIterator.previous();
-      if (pair.getFirst() == tick) {
-        pair.setSecond(snapshot);
-        return;
-      }
-      if (pair.getFirst() < tick) {
-        snapshotIterator.next();
-        snapshotIterator.add(new MutablePair.Long<>(tick, snapshot));
-        return;
-      }
-    }
-    snapshots.add(new MutablePair.Long<>(tick, snapshot));
-  }
-
-  /**
-   * Indique que les snapshots appartenant à des ticks avant ou égaux au tick spécifié ne seront
-   * plus jamais demandés et peuvent être supprimés.
-   * <p>
-   * Cette méthode n'est qu'une indication ; la classe peut décider de disposer les ressources
-   * associées aux ticks, ou non.
-   *
-   * @param tick Le tick (inclus) jusqu'auquel les snapshots ne seront plus demandés.
-   */
-  public void disposeUntilTick(long tick) {
-    if (snapshots.isEmpty()) {
-      return;
-    }
-    ListIterator<MutablePair.Long<T>> snapshotIterator = snapshots.listIterator();
-    while (snapshotIterator.hasNext()) {
-      MutablePair.Long<T> pair = snapshotIterator.next();
-      if (pair.getFirst() > tick) {
-        snapshotIterator.previous();
-        break;
-      }
-    }
-    if (!snapshotIterator.hasPrevious()) {
-      return;
-    }
-    first = snapshotIterator.previous().getFirst();
-    while (snapshotIterator.hasPrevious()) {
-      snapshotIterator.previous();
-      snapshotIterator.remove();
-    }
-  }
-
-  /**
-   * Renvoit false si la liste de snapshots n'est pas vide, et peut renvoyer true si elle est vide.
-   * Méthode de convenance retournant exactement {@code size()==0}.
-   *
-   * @return Le booléen décrit ci-dessus.
-   */
-  public boolean isEmpty() {
-    return size() == 0;
-  }
-
-  /**
-   * Renvoit une valeur supérieur ou égale au nombre de snapshots enregistrés dans la liste. Appeler
-   * {@link #disposeUntilTick(long)} puis cette méthode <b>ne renverra pas forcément</b> le nombre
-   * effectif de snapshots après le tick.
-   *
-   * @return Une majoration du nombre de snapshots stockés.
-   */
-  public int size() {
-    return snapshots.size();
+    int slot = setSlot(tick);
+    values[slot] = snapshot;
   }
 }
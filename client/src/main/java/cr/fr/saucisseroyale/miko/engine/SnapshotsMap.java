@@ -18,15 +18,15 @@ import java.util.Set;
  * @see Snapshots
  */
 public class SnapshotsMap<T, U> {
-  private static final int LINKED_LIST = -1;
+  private static final int DEFAULT_CAPACITY = 4;
   private final int snapshotsCapacity;
   private Map<T, Snapshots<U>> map = new HashMap<>();
 
   /**
-   * Crée une map de snapshots, créant des snapshots avec {@link Snapshots#Snapshots()}.
+   * Crée une map de snapshots, créant des snapshots avec une capacité initiale par défaut.
    */
   public SnapshotsMap() {
-    snapshotsCapacity = LINKED_LIST;
+    snapshotsCapacity = DEFAULT_CAPACITY;
   }
 
   /**
@@ -51,11 +51,7 @@ public class SnapshotsMap<T, U> {
   public void setSnapshot(long tick, T key, U value) {
     Snapshots<U> snapshots = map.get(key);
     if (snapshots == null) {
-      if (snapshotsCapacity == LINKED_LIST) {
-        snapshots = new Snapshots<>();
-      } else {
-        snapshots = new Snapshots<>(snapshotsCapacity);
-      }
+      snapshots = new Snapshots<>(snapshotsCapacity);
       map.put(key, snapshots);
     }
     snapshots.setSnapshot(tick, value);
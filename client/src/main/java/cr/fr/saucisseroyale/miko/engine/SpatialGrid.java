@@ -0,0 +1,179 @@
+package cr.fr.saucisseroyale.miko.engine;
+
+import cr.fr.saucisseroyale.miko.util.IntList;
+
+import java.util.Arrays;
+
+/**
+ * Une grille uniforme d'entités, reconstruite à chaque tick, permettant de trouver rapidement les
+ * entités proches d'un point.
+ * <p>
+ * Chaque entité est rangée dans la cellule de son centre ; les cellules non vides sont stockées
+ * dans une table de hachage à adressage ouvert indexée par les coordonnées de cellule. Une
+ * recherche parcourt les cellules d'un rectangle élargi de la plus grande demi-largeur de hitbox
+ * ajoutée, pour ne manquer aucune entité débordant de sa cellule.
+ * <p>
+ * Utilisation : {@link #clear()}, puis {@link #add(int, float, float, float)} pour chaque entité,
+ * puis {@link #query(float, float, float, float, IntList)} autant de fois que nécessaire.
+ */
+class SpatialGrid {
+  // cellules de 64x64 cases
+  private static final int CELL_SHIFT = 6;
+  private static final int DEFAULT_CAPACITY = 64;
+  // table de hachage : coordonnées de cellule -> première entrée de la cellule
+  private long[] cellKeys;
+  private int[] cellHeads;
+  // génération de chaque case de la table, pour la vider en temps constant
+  private int[] cellGenerations;
+  private int generation = 1;
+  private int cellCount;
+  // entrées, chaînées par cellule
+  private int[] entryIds;
+  private float[] entryXs;
+  private float[] entryYs;
+  private int[] entryNexts;
+  private int entryCount;
+  private float maxExtent;
+
+  public SpatialGrid() {
+    allocateTable(DEFAULT_CAPACITY * 2);
+    entryIds = new int[DEFAULT_CAPACITY];
+    entryXs = new float[DEFAULT_CAPACITY];
+    entryYs = new float[DEFAULT_CAPACITY];
+    entryNexts = new int[DEFAULT_CAPACITY];
+  }
+
+  private static long cellKey(int cellX, int cellY) {
+    return (long) cellX << 32 | cellY & 0xFFFFFFFFL;
+  }
+
+  private static int cell(float coordinate) {
+    return (int) Math.floor(coordinate) >> CELL_SHIFT;
+  }
+
+  /**
+   * Vide la grille, sans libérer sa mémoire.
+   */
+  public void clear() {
+    generation++;
+    if (generation == 0) {
+      // débordement après 2^32 ticks : réinitialiser les générations
+      Arrays.fill(cellGenerations, 0);
+      generation = 1;
+    }
+    cellCount = 0;
+    entryCount = 0;
+    maxExtent = 0;
+  }
+
+  /**
+   * Ajoute une entité à la grille.
+   *
+   * @param entityId L'entityId de l'entité à ajouter.
+   * @param x        L'abscisse du centre de l'entité.
+   * @param y        L'ordonnée du centre de l'entité.
+   * @param extent   La demi-largeur du carré englobant la hitbox de l'entité.
+   * @see Hitbox#getExtent()
+   */
+  public void add(int entityId, float x, float y, float extent) {
+    if (entryCount == entryIds.length) {
+      int capacity = entryCount * 2;
+      entryIds = Arrays.copyOf(entryIds, capacity);
+      entryXs = Arrays.copyOf(entryXs, capacity);
+      entryYs = Arrays.copyOf(entryYs, capacity);
+      entryNexts = Arrays.copyOf(entryNexts, capacity);
+    }
+    if ((cellCount + 1) * 2 > cellKeys.length) {
+      rehash();
+    }
+    int entry = entryCount++;
+    entryIds[entry] = entityId;
+    entryXs[entry] = x;
+    entryYs[entry] = y;
+    long key = cellKey(cell(x), cell(y));
+    int index = findCell(key);
+    if (cellGenerations[index] != generation) {
+      cellGenerations[index] = generation;
+      cellKeys[index] = key;
+      cellHeads[index] = -1;
+      cellCount++;
+    }
+    entryNexts[entry] = cellHeads[index];
+    cellHeads[index] = entry;
+    if (extent > maxExtent) {
+      maxExtent = extent;
+    }
+  }
+
+  /**
+   * Ajoute à la liste spécifiée les entités dont la hitbox peut intersecter le rectangle spécifié.
+   * La liste peut contenir des entités ne l'intersectant pas, mais contient toutes celles qui
+   * l'intersectent.
+   *
+   * @param minX L'abscisse minimale du rectangle.
+   * @param minY L'ordonnée minimale du rectangle.
+   * @param maxX L'abscisse maximale du rectangle.
+   * @param maxY L'ordonnée maximale du rectangle.
+   * @param out  La liste à laquelle ajouter les entityId.
+   */
+  public void query(float minX, float minY, float maxX, float maxY, IntList out) {
+    if (entryCount == 0) {
+      return;
+    }
+    float minCenterX = minX - maxExtent;
+    float minCenterY = minY - maxExtent;
+    float maxCenterX = maxX + maxExtent;
+    float maxCenterY = maxY + maxExtent;
+    int minCellX = cell(minCenterX);
+    int minCellY = cell(minCenterY);
+    int maxCellX = cell(maxCenterX);
+    int maxCellY = cell(maxCenterY);
+    for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+      for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+        int index = findCell(cellKey(cellX, cellY));
+        if (cellGenerations[index] != generation) {
+          continue;
+        }
+        for (int entry = cellHeads[index]; entry >= 0; entry = entryNexts[entry]) {
+          float x = entryXs[entry];
+          float y = entryYs[entry];
+          if (x >= minCenterX && x <= maxCenterX && y >= minCenterY && y <= maxCenterY) {
+            out.add(entryIds[entry]);
+          }
+        }
+      }
+    }
+  }
+
+  // renvoie l'indice de la cellule dans la table, ou de la case libre où l'ajouter
+  private int findCell(long key) {
+    int mask = cellKeys.length - 1;
+    long hash = key * 0x9E3779B97F4A7C15L;
+    int index = (int) (hash >>> 32) & mask;
+    while (cellGenerations[index] == generation && cellKeys[index] != key) {
+      index = index + 1 & mask;
+    }
+    return index;
+  }
+
+  private void rehash() {
+    long[] oldKeys = cellKeys;
+    int[] oldHeads = cellHeads;
+    int[] oldGenerations = cellGenerations;
+    allocateTable(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldGenerations[i] == generation) {
+        int index = findCell(oldKeys[i]);
+        cellGenerations[index] = generation;
+        cellKeys[index] = oldKeys[i];
+        cellHeads[index] = oldHeads[i];
+      }
+    }
+  }
+
+  private void allocateTable(int capacity) {
+    cellKeys = new long[capacity];
+    cellHeads = new int[capacity];
+    cellGenerations = new int[capacity];
+  }
+}
@@ -30,12 +30,22 @@ public class SpriteManager {
    * @param y          La position en y du centre de l'image à afficher.
    */
   public void drawSpriteType(Drawer drawer, SpriteType spriteType, long spriteTime, int x, int y) {
+    Image image = getSprite(spriteType).getImage(spriteTime);
+    drawer.drawImage(x, y, image);
+  }
+
+  /**
+   * Retourne le sprite correspondant au type spécifié.
+   *
+   * @param spriteType Le type du sprite à renvoyer.
+   * @return Le sprite correspondant.
+   */
+  public Sprite getSprite(SpriteType spriteType) {
     Sprite sprite = sprites.get(spriteType);
     if (sprite == null) {
       throw new IllegalArgumentException("SpriteType " + spriteType + " doesn't have a sprite.");
     }
-    Image image = sprite.getImage(spriteTime);
-    drawer.drawImage(x, y, image);
+    return sprite;
   }
 
   /**
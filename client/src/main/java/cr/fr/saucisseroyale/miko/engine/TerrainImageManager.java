@@ -6,31 +6,78 @@ import fr.delthas.uitest.Image;
 import org.lwjgl.BufferUtils;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.BiFunction;
 
 /**
  * Un gestionnaire des images correspondant au terrain de jeu, mis à jour à chaque changement de chunk.
+ * <p>
+ * Les pixels des chunks sont calculés par un pool de threads partagé, au plus
+ * {@link #MAX_IN_FLIGHT} chunks à la fois. Seul l'envoi des pixels à la carte graphique est fait sur
+ * le thread de rendu, par {@link #uploadRasterized()}, au plus {@link #UPLOADS_PER_FRAME} chunks par
+ * frame ; en attendant, l'ancienne image du chunk est affichée.
+ * <p>
+ * Les images des chunks éloignés de la zone affichée sont supprimées selon une
+ * {@link ChunkResidency}, et recalculées si le chunk est à nouveau affiché. Les images supprimées
+ * ou remplacées sont libérées immédiatement.
+ * <p>
+ * Les chunks identiques (au sens de {@link Chunk#equals(Object)}) partagent la même image, comptée
+ * par références : un chunk dont l'image existe déjà n'est ni recalculé ni envoyé.
  */
 class TerrainImageManager {
-  // TODO palette mode, old image modification, image deletion if too far away
+  // TODO palette mode (not supported by the drawer), old image modification
+  private static final int UPLOADS_PER_FRAME = 2;
+  // chunks en cours de calcul ou calculés et pas encore envoyés, chacun avec son buffer
+  private static final int MAX_IN_FLIGHT = 8;
+  // taille d'une image de chunk sur la carte graphique
+  private static final long IMAGE_BYTES = 256 * 256 * 4;
+  private static final ExecutorService rasterizer = createRasterizer();
   private BiFunction<Long, ChunkPoint, Chunk> chunkProvider;
+  private final ChunkResidency residency;
   private ChunkData defaultChunk;
   private long tick = Long.MAX_VALUE;
   private Map<ChunkPoint, ChunkData> map = new HashMap<>(50);
+  // images partagées par les chunks identiques
+  private final Map<Chunk, SharedImage> images = new HashMap<>();
   private Set<ChunkPoint> toUpdate = new HashSet<>();
-  private ByteBuffer buffer = BufferUtils.createByteBuffer(256 * 256 * 3);
+  // dernier chunk à afficher pour chaque position, pas encore affiché
+  private Map<ChunkPoint, Chunk> rasterizing = new HashMap<>();
+  // positions dont le chunk n'a pas encore été confié au pool
+  private Set<ChunkPoint> waiting = new LinkedHashSet<>();
+  private int inFlight;
+  // pixels calculés par le pool, à envoyer à la carte graphique
+  private final Queue<Raster> rasterized = new ConcurrentLinkedQueue<>();
+  private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>(MAX_IN_FLIGHT);
 
-  public TerrainImageManager(BiFunction<Long, ChunkPoint, Chunk> chunkProvider) {
+  public TerrainImageManager(BiFunction<Long, ChunkPoint, Chunk> chunkProvider, ChunkResidency residency) {
     this.chunkProvider = chunkProvider;
-    defaultChunk = updateChunk(null, TerrainManager.getDefaultChunk());
+    this.residency = residency;
+    defaultChunk = new ChunkData(TerrainManager.getDefaultChunk());
+  }
+
+  private static ExecutorService createRasterizer() {
+    int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    return Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r);
+      thread.setName("Miko Chunk Rasterizer");
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
   public void updateTick(long newTick) {
     tick = newTick;
+    residency.trim(tick, this::evict);
     if (toUpdate.isEmpty()) {
       return;
     }
@@ -38,12 +85,14 @@ class TerrainImageManager {
       Chunk chunk = chunkProvider.apply(tick, chunkPoint);
       updateChunk(chunkPoint, chunk);
     }
+    toUpdate.clear();
   }
 
   public void update(long tick, ChunkPoint chunkPoint) {
     ChunkData chunkData = map.get(chunkPoint);
     Chunk latestChunk = chunkProvider.apply(this.tick, chunkPoint);
     if (chunkData != null && latestChunk == chunkData.chunk) {
+      rasterizing.remove(chunkPoint);
       return;
     }
     if (tick > this.tick) {
@@ -53,42 +102,159 @@ class TerrainImageManager {
     updateChunk(chunkPoint, latestChunk);
   }
 
+  /**
+   * Envoie à la carte graphique les chunks dont les pixels ont été calculés, dans la limite du
+   * budget par frame. Doit être appelé sur le thread de rendu.
+   */
+  public void uploadRasterized() {
+    int uploads = 0;
+    while (uploads < UPLOADS_PER_FRAME) {
+      Raster raster = rasterized.poll();
+      if (raster == null) {
+        break;
+      }
+      inFlight--;
+      if (rasterizing.get(raster.chunkPoint) != raster.chunk) {
+        // chunk remplacé depuis le début du calcul
+        releaseBuffer(raster.pixels);
+        continue;
+      }
+      rasterizing.remove(raster.chunkPoint);
+      SharedImage image = images.get(raster.chunk);
+      if (image == null) {
+        image = new SharedImage(Image.createImageRaw(raster.pixels, 256, 256, true));
+        images.put(raster.chunk, image);
+        uploads++;
+      }
+      releaseBuffer(raster.pixels);
+      setChunkData(raster.chunkPoint, new ChunkData(raster.chunk, image));
+    }
+    submit();
+  }
+
   public void drawChunk(Drawer drawer, ChunkPoint chunkPoint) {
-    ChunkData chunkData = map.getOrDefault(chunkPoint, defaultChunk);
+    ChunkData chunkData = map.get(chunkPoint);
+    if (chunkData == null) {
+      // image supprimée car trop éloignée, à recalculer
+      if (!rasterizing.containsKey(chunkPoint)) {
+        updateChunk(chunkPoint, chunkProvider.apply(tick, chunkPoint));
+      }
+      chunkData = map.getOrDefault(chunkPoint, defaultChunk);
+    }
     if (chunkData.image == null) {
       drawer.setColor(chunkData.chunk.getDefaultType().getColor());
       drawer.fillRectangle(0, 0, 256, 256, false);
     } else {
-      drawer.drawImage(0, 0, chunkData.image, false);
+      drawer.drawImage(0, 0, chunkData.image.image, false);
     }
   }
 
-  private ChunkData updateChunk(ChunkPoint chunkPoint, Chunk chunk) {
-    ChunkData chunkData;
+  private void updateChunk(ChunkPoint chunkPoint, Chunk chunk) {
+    ChunkData chunkData = map.get(chunkPoint);
+    if (chunkData != null && chunkData.chunk == chunk) {
+      rasterizing.remove(chunkPoint);
+      return;
+    }
     if (chunk.isUniform()) {
-      chunkData = new ChunkData(chunk);
-    } else {
-      buffer.clear();
-      for (int y = 255; y >= 0; y--) {
-        for (int x = 0; x < 256; x++) {
-          int color = chunk.getBlock(x, y).getColorInt();
-          buffer.put((byte) (color >> 16 & 0xFF)).put((byte) (color >> 8 & 0xFF)).put((byte) (color & 0xFF));
-        }
+      rasterizing.remove(chunkPoint);
+      setChunkData(chunkPoint, new ChunkData(chunk));
+      return;
+    }
+    if (rasterizing.get(chunkPoint) == chunk) {
+      return;
+    }
+    SharedImage image = images.get(chunk);
+    if (image != null) {
+      rasterizing.remove(chunkPoint);
+      setChunkData(chunkPoint, new ChunkData(chunk, image));
+      return;
+    }
+    rasterizing.put(chunkPoint, chunk);
+    waiting.add(chunkPoint);
+    submit();
+  }
+
+  private void setChunkData(ChunkPoint chunkPoint, ChunkData chunkData) {
+    if (chunkData.image != null) {
+      chunkData.image.references++;
+    }
+    release(map.put(chunkPoint, chunkData));
+    // une image partagée est comptée pour chaque chunk : le budget est une majoration
+    residency.put(chunkPoint, chunkData.image != null ? IMAGE_BYTES : 0);
+  }
+
+  private void release(ChunkData chunkData) {
+    if (chunkData == null || chunkData.image == null) {
+      return;
+    }
+    if (--chunkData.image.references == 0) {
+      images.remove(chunkData.chunk);
+      chunkData.image.image.destroy();
+    }
+  }
+
+  private boolean evict(ChunkPoint chunkPoint) {
+    release(map.remove(chunkPoint));
+    // un calcul en cours pour ce chunk sera ignoré
+    rasterizing.remove(chunkPoint);
+    return true;
+  }
+
+  private void submit() {
+    for (Iterator<ChunkPoint> it = waiting.iterator(); it.hasNext() && inFlight < MAX_IN_FLIGHT; ) {
+      ChunkPoint chunkPoint = it.next();
+      it.remove();
+      Chunk chunk = rasterizing.get(chunkPoint);
+      if (chunk == null) {
+        // affiché ou devenu uniforme depuis
+        continue;
+      }
+      SharedImage image = images.get(chunk);
+      if (image != null) {
+        // un chunk identique a été envoyé depuis
+        rasterizing.remove(chunkPoint);
+        setChunkData(chunkPoint, new ChunkData(chunk, image));
+        continue;
+      }
+      inFlight++;
+      rasterizer.execute(() -> rasterized.add(new Raster(chunkPoint, chunk, rasterize(chunk))));
+    }
+  }
+
+  // appelé par le pool
+  private ByteBuffer rasterize(Chunk chunk) {
+    ByteBuffer buffer = acquireBuffer();
+    buffer.clear();
+    for (int y = 255; y >= 0; y--) {
+      for (int x = 0; x < 256; x++) {
+        int color = chunk.getBlock(x, y).getColorInt();
+        buffer.put((byte) (color >> 16 & 0xFF)).put((byte) (color >> 8 & 0xFF)).put((byte) (color & 0xFF));
       }
-      Image image = Image.createImageRaw(buffer, 256, 256, true);
-      chunkData = new ChunkData(chunk, image);
     }
-    if (chunkPoint != null) {
-      map.put(chunkPoint, chunkData);
+    return buffer;
+  }
+
+  private ByteBuffer acquireBuffer() {
+    ByteBuffer buffer;
+    synchronized (buffers) {
+      buffer = buffers.pollLast();
+    }
+    return buffer != null ? buffer : BufferUtils.createByteBuffer(256 * 256 * 3);
+  }
+
+  private void releaseBuffer(ByteBuffer buffer) {
+    synchronized (buffers) {
+      if (buffers.size() < MAX_IN_FLIGHT) {
+        buffers.addLast(buffer);
+      }
     }
-    return chunkData;
   }
 
   private static class ChunkData {
     public final Chunk chunk;
-    public final Image image;
+    public final SharedImage image;
 
-    public ChunkData(Chunk chunk, Image image) {
+    public ChunkData(Chunk chunk, SharedImage image) {
       this.chunk = chunk;
       this.image = image;
     }
@@ -98,4 +264,25 @@ class TerrainImageManager {
       image = null;
     }
   }
+
+  private static class SharedImage {
+    public final Image image;
+    public int references;
+
+    public SharedImage(Image image) {
+      this.image = image;
+    }
+  }
+
+  private static class Raster {
+    public final ChunkPoint chunkPoint;
+    public final Chunk chunk;
+    public final ByteBuffer pixels;
+
+    public Raster(ChunkPoint chunkPoint, Chunk chunk, ByteBuffer pixels) {
+      this.chunkPoint = chunkPoint;
+      this.chunk = chunk;
+      this.pixels = pixels;
+    }
+  }
 }
@@ -9,14 +9,20 @@ import java.util.function.BiConsumer;
 /**
  * Un gestionnaire du terrain de jeu, stockant tous les chunks à tous les ticks, avec le principe de
  * {@link Snapshots}.
+ * <p>
+ * Si une {@link ChunkResidency} est définie, les chunks qu'elle désigne sont supprimés lors de
+ * {@link #disposeUntilTick(long)}, s'ils n'ont pas changé depuis le tick disposé ; ils sont alors
+ * à nouveau non définis et peuvent être redemandés au serveur.
  *
  * @see Chunk
  * @see Snapshots
  */
 class TerrainManager {
   private static final Chunk defaultChunk = new Chunk(TerrainType.UNKNOWN, Collections.emptyList());
-  private SnapshotsMap<ChunkPoint, Chunk> map = new SnapshotsMap<>(5);
+  private static final int SNAPSHOTS_CAPACITY = 5;
+  private final ChunkTable<Snapshots<Chunk>> chunks = new ChunkTable<>();
   private BiConsumer<Long, ChunkPoint> chunkUpdateConsumer;
+  private ChunkResidency residency;
 
   /**
    * Retourne le chunk que ce gestionnaire fournit si un chunk demandé n'a pas été défini.
@@ -36,7 +42,15 @@ class TerrainManager {
    * @param chunk    Le chunk à ajouter.
    */
   public void setChunk(long tick, ChunkPoint position, Chunk chunk) {
-    map.setSnapshot(tick, position, chunk);
+    Snapshots<Chunk> snapshots = chunks.get(position.getChunkX(), position.getChunkY());
+    if (snapshots == null) {
+      snapshots = new Snapshots<>(SNAPSHOTS_CAPACITY);
+      chunks.put(position.getChunkX(), position.getChunkY(), snapshots);
+    }
+    snapshots.setSnapshot(tick, chunk);
+    if (residency != null) {
+      residency.put(position, chunk.getMemorySize());
+    }
     if (chunkUpdateConsumer != null) {
       chunkUpdateConsumer.accept(tick, position);
     }
@@ -54,13 +68,106 @@ class TerrainManager {
    * @return Le chunk spécifié par les coordonnées et le tick, ou null s'il n'existe pas.
    */
   public Chunk getChunk(long tick, ChunkPoint position) {
-    Chunk chunk = map.getSnapshot(tick, position);
+    return getChunk(tick, position.getChunkX(), position.getChunkY());
+  }
+
+  /**
+   * Retourne le chunk aux coordonnées de chunk spécifiées, au tick spécifié, comme
+   * {@link #getChunk(long, ChunkPoint)}, sans créer de {@link ChunkPoint}.
+   *
+   * @param tick   Le tick du chunk à renvoyer.
+   * @param chunkX La coordonnée X du chunk à renvoyer.
+   * @param chunkY La coordonnée Y du chunk à renvoyer.
+   * @return Le chunk spécifié par les coordonnées et le tick, ou le chunk par défaut.
+   */
+  public Chunk getChunk(long tick, int chunkX, int chunkY) {
+    Snapshots<Chunk> snapshots = chunks.get(chunkX, chunkY);
+    Chunk chunk = snapshots == null ? null : snapshots.getSnapshot(tick);
     if (chunk == null) {
       return defaultChunk;
     }
     return chunk;
   }
 
+  /**
+   * Parcourt les cases d'un segment de terrain, avec l'algorithme de Bresenham, et retourne l'indice
+   * de la première case de type {@link TerrainType#BLACK_WALL} rencontrée, ou -1 si le segment
+   * n'en traverse aucune.
+   * <p>
+   * Le segment part de la case (startX;startY) et comporte max(|width|, |height|) + 1 cases, la
+   * case de départ ayant l'indice 0. Le parcours n'alloue aucun objet, et ne cherche un chunk que
+   * lorsque le segment change de chunk.
+   *
+   * @param tick   Le tick auquel lire le terrain.
+   * @param startX La coordonnée X de la case de départ.
+   * @param startY La coordonnée Y de la case de départ.
+   * @param width  Le déplacement en X du segment.
+   * @param height Le déplacement en Y du segment.
+   * @return L'indice de la première case mur du segment, ou -1 s'il n'y en a pas.
+   */
+  public int sweep(long tick, int startX, int startY, int width, int height) {
+    // brensenham algorithm
+    // taken from http://tech-algorithm.com/articles/drawing-line-using-bresenham-algorithm/
+    int x = startX;
+    int y = startY;
+    int dx1 = 0, dy1 = 0, dx2 = 0, dy2 = 0;
+    if (width < 0) {
+      dx1 = -1;
+    } else if (width > 0) {
+      dx1 = 1;
+    }
+    if (height < 0) {
+      dy1 = -1;
+    } else if (height > 0) {
+      dy1 = 1;
+    }
+    if (width < 0) {
+      dx2 = -1;
+    } else if (width > 0) {
+      dx2 = 1;
+    }
+    int longest = Math.abs(width);
+    int shortest = Math.abs(height);
+    if (longest <= shortest) {
+      int temp = longest;
+      longest = shortest;
+      shortest = temp;
+      if (height < 0) {
+        dy2 = -1;
+      } else if (height > 0) {
+        dy2 = 1;
+      }
+      dx2 = 0;
+    }
+    int numerator = longest >> 1;
+    // chunk courant, mis à jour seulement quand le segment change de chunk
+    Chunk chunk = null;
+    int chunkX = 0;
+    int chunkY = 0;
+    for (int i = 0; i <= longest; i++) {
+      int newChunkX = x >> 8;
+      int newChunkY = y >> 8;
+      if (chunk == null || newChunkX != chunkX || newChunkY != chunkY) {
+        chunkX = newChunkX;
+        chunkY = newChunkY;
+        chunk = getChunk(tick, chunkX, chunkY);
+      }
+      if (chunk.getBlock(x & 0xFF, y & 0xFF) == TerrainType.BLACK_WALL) {
+        return i;
+      }
+      numerator += shortest;
+      if (!(numerator < longest)) {
+        numerator -= longest;
+        x += dx1;
+        y += dy1;
+      } else {
+        x += dx2;
+        y += dy2;
+      }
+    }
+    return -1;
+  }
+
   /**
    * Retourne vrai si le chunk à l'endroit spécifié a été défini.
    *
@@ -69,7 +176,20 @@ class TerrainManager {
    * @see #getChunk(long, ChunkPoint)
    */
   public boolean chunkDefined(ChunkPoint position) {
-    return map.getSnapshot(Long.MAX_VALUE, position) != null;
+    return chunkDefined(position.getChunkX(), position.getChunkY());
+  }
+
+  /**
+   * Retourne vrai si le chunk aux coordonnées de chunk spécifiées a été défini, sans créer de
+   * {@link ChunkPoint}.
+   *
+   * @param chunkX La coordonnée X du chunk.
+   * @param chunkY La coordonnée Y du chunk.
+   * @return true si le chunk a été défini à cette position.
+   */
+  public boolean chunkDefined(int chunkX, int chunkY) {
+    Snapshots<Chunk> snapshots = chunks.get(chunkX, chunkY);
+    return snapshots != null && snapshots.getSnapshot(Long.MAX_VALUE) != null;
   }
 
   /**
@@ -79,7 +199,32 @@ class TerrainManager {
    * @param tick Le tick (inclus) jusqu'auquel les chunks ne seront plus demandés.
    */
   public void disposeUntilTick(long tick) {
-    map.disposeUntilTick(tick);
+    chunks.forEachValue(snapshots -> snapshots.disposeUntilTick(tick));
+    if (residency != null) {
+      residency.trim(tick, position -> removeUnchangedSince(tick, position));
+    }
+  }
+
+  private boolean removeUnchangedSince(long tick, ChunkPoint position) {
+    Snapshots<Chunk> snapshots = chunks.get(position.getChunkX(), position.getChunkY());
+    if (snapshots == null) {
+      return true;
+    }
+    if (snapshots.hasSnapshotAfter(tick)) {
+      return false;
+    }
+    chunks.remove(position.getChunkX(), position.getChunkY());
+    return true;
+  }
+
+  /**
+   * Définit la politique de résidence des chunks, qui supprime les chunks éloignés de la zone
+   * affichée. Les chunks déjà ajoutés ne sont pas pris en compte.
+   *
+   * @param residency La politique de résidence, ou null pour garder tous les chunks.
+   */
+  public void setResidency(ChunkResidency residency) {
+    this.residency = residency;
   }
 
   /**
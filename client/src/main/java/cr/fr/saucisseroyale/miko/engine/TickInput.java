@@ -3,23 +3,15 @@ package cr.fr.saucisseroyale.miko.engine;
 import cr.fr.saucisseroyale.miko.util.MikoMath;
 import cr.fr.saucisseroyale.miko.util.Or;
 import cr.fr.saucisseroyale.miko.util.Pair;
-import fr.delthas.uitest.Ui;
 
 import java.awt.geom.Point2D;
 import java.util.Collections;
 import java.util.List;
-import java.util.prefs.Preferences;
 
 /**
  * Un input pour un tick d'engine de Miko.
  */
 class TickInput {
-  private static final Preferences prefsNode = Preferences.userRoot().node("miko.input");
-  private static final int moveLeftKeycode = prefsNode.getInt("left", Ui.KEY_A);
-  private static final int moveRightKeycode = prefsNode.getInt("right", Ui.KEY_D);
-  private static final int moveUpKeycode = prefsNode.getInt("up", Ui.KEY_W);
-  private static final int moveDownKeycode = prefsNode.getInt("down", Ui.KEY_S);
-  private static final int ballSendKeycode = prefsNode.getInt("ball", Ui.MOUSE_LEFT);
   private boolean moveLeft;
   private boolean moveRight;
   private boolean moveUp;
@@ -29,7 +21,12 @@ class TickInput {
   private boolean ballSendDown;
   private float ballSendAngle = Float.NaN;
 
-  public TickInput(TickInput previous, List<Or<Pair.DoubleDouble, Pair.IntBoolean>> eventList) {
+  public TickInput(TickInput previous, KeyBindings keyBindings, List<Or<Pair.DoubleDouble, Pair.IntBoolean>> eventList) {
+    int moveLeftKeycode = keyBindings.getMoveLeft();
+    int moveRightKeycode = keyBindings.getMoveRight();
+    int moveUpKeycode = keyBindings.getMoveUp();
+    int moveDownKeycode = keyBindings.getMoveDown();
+    int ballSendKeycode = keyBindings.getBallSend();
 
     if (previous != null) {
       moveLeft = previous.moveLeft;
@@ -118,20 +115,20 @@ class TickInput {
     if (mousePosition == null) {
       return Float.NaN;
     }
-    // angle can be calculated from screen middle because the render translation (offset based
-    // on mouse position) has the same direction
-    float angle = MikoMath.atan2(new Point2D.Double(mousePosition.getFirst() - Ui.getWidth() / 2.0, mousePosition.getSecond() - Ui.getHeight() / 2.0));
+    // the mouse position is relative to the player
+    float angle = MikoMath.atan2(new Point2D.Double(mousePosition.getFirst(), mousePosition.getSecond()));
     return angle;
   }
 
   /**
    * Retourne l'input par défaut suivant un input donné.
    *
-   * @param previous L'input sur lequel se baser pour construire l'input.
+   * @param previous    L'input sur lequel se baser pour construire l'input.
+   * @param keyBindings Les codes des touches des actions du joueur.
    * @return Un input par défaut basé sur l'input passé en paramètre.
    */
-  public static TickInput getNextFrom(TickInput previous) {
-    return new TickInput(previous, Collections.emptyList());
+  public static TickInput getNextFrom(TickInput previous, KeyBindings keyBindings) {
+    return new TickInput(previous, keyBindings, Collections.emptyList());
   }
 
   /**
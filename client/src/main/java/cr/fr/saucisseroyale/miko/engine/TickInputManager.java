@@ -3,19 +3,25 @@ package cr.fr.saucisseroyale.miko.engine;
 import cr.fr.saucisseroyale.miko.util.Or;
 import cr.fr.saucisseroyale.miko.util.Pair;
 
-import java.util.*;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 /**
  * Un gestionnaire des inputs à chaque tick de jeu.
  */
 class TickInputManager {
-  private Map<Long, TickInput> map = new HashMap<>();
+  private final KeyBindings keyBindings;
+  private NavigableMap<Long, TickInput> map = new TreeMap<>();
   private long firstTick = Long.MAX_VALUE;
 
+  public TickInputManager(KeyBindings keyBindings) {
+    this.keyBindings = keyBindings;
+  }
+
   public void addInput(long tick, List<Or<Pair.DoubleDouble, Pair.IntBoolean>> eventList) {
     TickInput previousInput = getInput(tick - 1);
-    TickInput newInput = new TickInput(previousInput, eventList);
+    TickInput newInput = new TickInput(previousInput, keyBindings, eventList);
     map.put(tick, newInput);
     if (tick < firstTick) {
       firstTick = tick;
@@ -29,7 +35,7 @@ class TickInputManager {
     TickInput tickInput = map.get(tick);
     if (tickInput == null) {
       TickInput previousInput = getInput(tick - 1);
-      TickInput newInput = TickInput.getNextFrom(previousInput);
+      TickInput newInput = TickInput.getNextFrom(previousInput, keyBindings);
       map.put(tick, newInput);
       return newInput;
     } else {
@@ -38,15 +44,7 @@ class TickInputManager {
   }
 
   public void disposeUntilTick(long tick) {
-    Set<Entry<Long, TickInput>> entrySet = map.entrySet();
-    Iterator<Entry<Long, TickInput>> iterator = entrySet.iterator();
-    while (iterator.hasNext()) {
-      Entry<Long, TickInput> entry = iterator.next();
-      if (entry.getKey() > tick) {
-        firstTick = entry.getKey();
-        break;
-      }
-      iterator.remove();
-    }
+    map.headMap(tick, true).clear();
+    firstTick = map.isEmpty() ? Long.MAX_VALUE : map.firstKey();
   }
 }
@@ -0,0 +1,74 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Un pool de {@link ByteBuffer} directs, de capacités puissances de deux.
+ * <p>
+ * Les buffers directs sont coûteux à allouer et ne sont libérés qu'au passage du garbage collector :
+ * les connexions réutilisent donc les buffers des connexions fermées et des buffers agrandis.
+ * <p>
+ * Cette classe n'est pas thread-safe : elle n'est utilisée que par le thread d'un
+ * {@link NetworkSelector}.
+ */
+class BufferPool {
+  // pas de buffers de moins de 1 KiB
+  private static final int MIN_SHIFT = 10;
+  private static final int MAX_POOLED_BUFFERS = 64;
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final ArrayDeque<ByteBuffer>[] pools = new ArrayDeque[31];
+
+  /**
+   * Renvoie un buffer vide, en mode écriture, d'une capacité au moins égale à celle spécifiée.
+   *
+   * @param minCapacity La capacité minimale du buffer.
+   * @return Le buffer.
+   */
+  public ByteBuffer acquire(int minCapacity) {
+    if (minCapacity > 1 << 30) {
+      throw new IllegalArgumentException("Buffer capacity too large: " + minCapacity);
+    }
+    int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(minCapacity - 1));
+    ArrayDeque<ByteBuffer> pool = pools[shift];
+    ByteBuffer buffer = pool == null ? null : pool.pollLast();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(1 << shift);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Rend un buffer au pool ; le buffer ne doit plus être utilisé ensuite.
+   *
+   * @param buffer Le buffer à rendre, obtenu par {@link #acquire(int)}.
+   */
+  public void release(ByteBuffer buffer) {
+    int shift = Integer.numberOfTrailingZeros(buffer.capacity());
+    ArrayDeque<ByteBuffer> pool = pools[shift];
+    if (pool == null) {
+      pool = new ArrayDeque<>();
+      pools[shift] = pool;
+    }
+    if (pool.size() < MAX_POOLED_BUFFERS) {
+      pool.addLast(buffer);
+    }
+  }
+
+  /**
+   * Remplace un buffer en mode écriture par un buffer plus grand contenant les mêmes données, et rend
+   * l'ancien buffer au pool.
+   *
+   * @param buffer      Le buffer à agrandir, en mode écriture.
+   * @param minCapacity La capacité minimale du nouveau buffer.
+   * @return Le nouveau buffer, en mode écriture.
+   */
+  public ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+    ByteBuffer bigger = acquire(minCapacity);
+    buffer.flip();
+    bigger.put(buffer);
+    release(buffer);
+    return bigger;
+  }
+}
@@ -0,0 +1,125 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Un {@link DataInput} lisant directement dans un {@link ByteBuffer}, en mode lecture.
+ * <p>
+ * Contrairement à un flux, la lecture au-delà des données du buffer ne bloque pas mais lance une
+ * {@link BufferUnderflowException} : le message lu est incomplet et doit être relu depuis son début
+ * quand plus de données seront disponibles.
+ */
+class ByteBufferDataInput implements DataInput {
+  private ByteBuffer buffer;
+
+  /**
+   * @param buffer Le buffer dans lequel lire, en mode lecture.
+   */
+  public void setBuffer(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public void readFully(byte[] b) {
+    buffer.get(b);
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) {
+    buffer.get(b, off, len);
+  }
+
+  @Override
+  public int skipBytes(int n) {
+    int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+    buffer.position(buffer.position() + skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean readBoolean() {
+    return buffer.get() != 0;
+  }
+
+  @Override
+  public byte readByte() {
+    return buffer.get();
+  }
+
+  @Override
+  public int readUnsignedByte() {
+    return buffer.get() & 0xFF;
+  }
+
+  @Override
+  public short readShort() {
+    return buffer.getShort();
+  }
+
+  @Override
+  public int readUnsignedShort() {
+    return buffer.getShort() & 0xFFFF;
+  }
+
+  @Override
+  public char readChar() {
+    return buffer.getChar();
+  }
+
+  @Override
+  public int readInt() {
+    return buffer.getInt();
+  }
+
+  @Override
+  public long readLong() {
+    return buffer.getLong();
+  }
+
+  @Override
+  public float readFloat() {
+    return buffer.getFloat();
+  }
+
+  @Override
+  public double readDouble() {
+    return buffer.getDouble();
+  }
+
+  /**
+   * Lit une ligne comme {@link DataInputStream#readLine()} : chaque octet est un caractère, et la
+   * ligne se termine par <code>\n</code>, <code>\r</code>, <code>\r\n</code> ou la fin du buffer.
+   *
+   * @return La ligne lue, sans son caractère de fin, ou null si le buffer est vide.
+   */
+  @Override
+  public String readLine() {
+    if (!buffer.hasRemaining()) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    while (buffer.hasRemaining()) {
+      int c = buffer.get() & 0xFF;
+      if (c == '\n') {
+        break;
+      }
+      if (c == '\r') {
+        if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+          buffer.get();
+        }
+        break;
+      }
+      sb.append((char) c);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String readUTF() throws IOException {
+    return DataInputStream.readUTF(this);
+  }
+}
@@ -0,0 +1,136 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Un {@link DataOutput} écrivant directement dans un {@link ByteBuffer} d'un {@link BufferPool},
+ * agrandi si besoin.
+ * <p>
+ * Le buffer est en mode écriture ; il peut être remplacé à chaque écriture, et doit donc être
+ * récupéré avec {@link #getBuffer()} après chaque écriture.
+ */
+class ByteBufferDataOutput implements DataOutput {
+  private final BufferPool pool;
+  private ByteBuffer buffer;
+
+  /**
+   * @param pool     Le pool dans lequel prendre le buffer.
+   * @param capacity La capacité initiale du buffer.
+   */
+  public ByteBufferDataOutput(BufferPool pool, int capacity) {
+    this.pool = pool;
+    buffer = pool.acquire(capacity);
+  }
+
+  /**
+   * @return Le buffer contenant les données écrites, en mode écriture.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Rend le buffer au pool ; cet objet ne doit plus être utilisé ensuite.
+   */
+  public void release() {
+    pool.release(buffer);
+    buffer = null;
+  }
+
+  private void ensureRemaining(int length) {
+    if (buffer.remaining() < length) {
+      buffer = pool.grow(buffer, buffer.position() + length);
+    }
+  }
+
+  @Override
+  public void write(int b) {
+    ensureRemaining(1);
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b) {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureRemaining(len);
+    buffer.put(b, off, len);
+  }
+
+  @Override
+  public void writeBoolean(boolean v) {
+    write(v ? 1 : 0);
+  }
+
+  @Override
+  public void writeByte(int v) {
+    write(v);
+  }
+
+  @Override
+  public void writeShort(int v) {
+    ensureRemaining(2);
+    buffer.putShort((short) v);
+  }
+
+  @Override
+  public void writeChar(int v) {
+    ensureRemaining(2);
+    buffer.putChar((char) v);
+  }
+
+  @Override
+  public void writeInt(int v) {
+    ensureRemaining(4);
+    buffer.putInt(v);
+  }
+
+  @Override
+  public void writeLong(long v) {
+    ensureRemaining(8);
+    buffer.putLong(v);
+  }
+
+  @Override
+  public void writeFloat(float v) {
+    ensureRemaining(4);
+    buffer.putFloat(v);
+  }
+
+  @Override
+  public void writeDouble(double v) {
+    ensureRemaining(8);
+    buffer.putDouble(v);
+  }
+
+  @Override
+  public void writeBytes(String s) {
+    ensureRemaining(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      buffer.put((byte) s.charAt(i));
+    }
+  }
+
+  @Override
+  public void writeChars(String s) {
+    ensureRemaining(s.length() * 2);
+    for (int i = 0; i < s.length(); i++) {
+      buffer.putChar(s.charAt(i));
+    }
+  }
+
+  @Override
+  public void writeUTF(String s) throws IOException {
+    // rarement utilisé : réutiliser l'encodage de DataOutputStream
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(s.length() + 2);
+    new DataOutputStream(baos).writeUTF(s);
+    write(baos.toByteArray());
+  }
+}
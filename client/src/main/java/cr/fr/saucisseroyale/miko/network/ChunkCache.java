@@ -0,0 +1,513 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import cr.fr.saucisseroyale.miko.engine.Chunk;
+import cr.fr.saucisseroyale.miko.protocol.ChunkPoint;
+import cr.fr.saucisseroyale.miko.util.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Un cache sur disque des blocs de terrain (<code>chunk</code>) reçus d'un serveur, indexé par la
+ * position et l'empreinte de chaque bloc (voir {@link ChunkCodec#hash(Chunk)}).
+ * <p>
+ * À partir de la version {@link #HASHES_VERSION}, le client annonce au serveur les empreintes des
+ * blocs qu'il a en cache, et le serveur ne renvoie que les blocs qui ont changé : les autres sont
+ * lus dans ce cache. Le serveur n'implémentant que la version 10 du protocole, le cache n'est
+ * utilisé que si cette version expérimentale est demandée avec la propriété <code>miko.protocol</code>.
+ * <p>
+ * Les blocs sont ajoutés à la fin d'un fichier projeté en mémoire, encodés par un
+ * {@link ChunkCodec}. L'index des blocs est reconstruit à l'ouverture en parcourant le fichier.
+ * Quand le fichier atteint sa taille maximale, il est compacté sur place en gardant les blocs
+ * utilisés le plus récemment. Les blocs sont encodés et écrits, et les blocs annoncés en cache par
+ * le serveur sont lus, par un thread dédié, pour ne pas ralentir la réception.
+ * <p>
+ * Cette classe est thread-safe.
+ */
+public final class ChunkCache implements Closeable {
+  /**
+   * La première version du protocole avec les empreintes de blocs.
+   */
+  public static final int HASHES_VERSION = 13;
+  private static Logger logger = LogManager.getLogger("miko.network");
+  private static final int MAGIC = 0x4D494B43; // MIKC
+  private static final int FORMAT_VERSION = 1;
+  private static final int FILE_HEADER_SIZE = 8;
+  // taille, position, empreinte et date d'utilisation d'un enregistrement
+  private static final int RECORD_HEADER_SIZE = 4 + 2 + 2 + 8 + 8;
+  private static final int LAST_USED_OFFSET = 16;
+  // taille de l'enregistrement vide terminant le fichier
+  private static final int END_SIZE = 4;
+  private static final int MIN_MAPPED_SIZE = 1 << 20;
+  private static final int DEFAULT_MAX_SIZE = 32 << 20;
+  private static final long CLOSE_TIMEOUT_SECONDS = 5;
+  private final FileChannel channel;
+  private final int maxSize;
+  private final Map<ChunkPoint, Entry> entries = new HashMap<>();
+  private final ExecutorService writer;
+  // codecs de lecture (sous le verrou) et d'écriture (thread d'écriture)
+  private final ChunkCodec readCodec = new ChunkCodec(ChunkCodec.ENCODED_CHUNKS_VERSION);
+  private final ChunkCodec writeCodec = new ChunkCodec(ChunkCodec.ENCODED_CHUNKS_VERSION);
+  private MappedByteBuffer buffer;
+  // position de l'enregistrement vide terminant le fichier
+  private int end;
+  // taille des enregistrements de l'index
+  private int liveSize;
+  private boolean closed;
+  // fermeture demandée, terminée une fois les blocs en attente écrits
+  private CompletableFuture<Void> closing;
+
+  /**
+   * Ouvre ou crée un cache avec la taille maximale par défaut.
+   *
+   * @param file Le fichier du cache.
+   * @throws IOException S'il y a une erreur lors de l'ouverture du fichier.
+   */
+  public ChunkCache(Path file) throws IOException {
+    this(file, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Ouvre ou crée un cache.
+   *
+   * @param file    Le fichier du cache.
+   * @param maxSize La taille maximale du fichier, en octets.
+   * @throws IOException S'il y a une erreur lors de l'ouverture du fichier.
+   */
+  public ChunkCache(Path file, int maxSize) throws IOException {
+    if (maxSize < MIN_MAPPED_SIZE) {
+      throw new IllegalArgumentException("maxSize must be at least " + MIN_MAPPED_SIZE);
+    }
+    this.maxSize = maxSize;
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    try {
+      lock();
+      long fileSize = channel.size();
+      map((int) Math.min(maxSize, Math.max(MIN_MAPPED_SIZE, fileSize)));
+      if (fileSize < FILE_HEADER_SIZE + END_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        end = FILE_HEADER_SIZE;
+        buffer.putInt(end, 0);
+      } else {
+        load();
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    writer = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setName("Miko Chunk Cache");
+      thread.setDaemon(true);
+      return thread;
+    });
+    logger.debug("Opened chunk cache {} with {} chunks", file, entries.size());
+  }
+
+  /**
+   * Renvoie le dossier de cache de l'utilisateur pour Miko, selon le système d'exploitation.
+   *
+   * @return Le dossier de cache par défaut.
+   */
+  public static Path getDefaultDirectory() {
+    String os = System.getProperty("os.name", "").toLowerCase();
+    String home = System.getProperty("user.home");
+    if (os.contains("win")) {
+      String localAppData = System.getenv("LOCALAPPDATA");
+      return localAppData != null ? Paths.get(localAppData, "miko", "cache") : Paths.get(home, "AppData", "Local", "miko", "cache");
+    }
+    if (os.contains("mac")) {
+      return Paths.get(home, "Library", "Caches", "miko");
+    }
+    String xdgCacheHome = System.getenv("XDG_CACHE_HOME");
+    return xdgCacheHome != null && !xdgCacheHome.isEmpty() ? Paths.get(xdgCacheHome, "miko") : Paths.get(home, ".cache", "miko");
+  }
+
+  /**
+   * Renvoie le fichier du cache des blocs d'un serveur, dans le dossier de cache par défaut.
+   *
+   * @param address L'adresse du serveur, telle qu'entrée par l'utilisateur.
+   * @param port    Le port du serveur.
+   * @return Le fichier du cache du serveur.
+   */
+  public static Path getDefaultFile(String address, int port) {
+    String name = address.replaceAll("[^A-Za-z0-9.-]", "_") + "_" + port + ".chunks";
+    return getDefaultDirectory().resolve(name);
+  }
+
+  /**
+   * Ajoute un bloc au cache, en remplaçant le bloc à la même position. Le bloc est écrit plus tard
+   * par le thread du cache.
+   *
+   * @param chunkPoint La position du bloc.
+   * @param chunk      Le bloc.
+   */
+  public void put(ChunkPoint chunkPoint, Chunk chunk) {
+    try {
+      writer.execute(() -> write(chunkPoint, chunk));
+    } catch (RejectedExecutionException e) {
+      // cache fermé, ignorer
+    }
+  }
+
+  /**
+   * Lit des blocs du cache par le thread du cache, après l'écriture des blocs ajoutés avant l'appel.
+   * Les blocs absents du cache, par exemple supprimés pour faire de la place, sont ignorés.
+   *
+   * @param chunkPoints Les positions des blocs.
+   * @return Les blocs lus, une fois lus ; une liste vide si le cache est fermé.
+   */
+  public CompletableFuture<List<Pair<ChunkPoint, Chunk>>> getAsync(ChunkPoint[] chunkPoints) {
+    CompletableFuture<List<Pair<ChunkPoint, Chunk>>> future = new CompletableFuture<>();
+    try {
+      writer.execute(() -> {
+        List<Pair<ChunkPoint, Chunk>> chunks = new ArrayList<>(chunkPoints.length);
+        for (ChunkPoint chunkPoint : chunkPoints) {
+          Chunk chunk = get(chunkPoint);
+          if (chunk == null) {
+            logger.warn("Received chunk ({};{}) as cached but it is not in the cache", chunkPoint.getChunkX(), chunkPoint.getChunkY());
+            continue;
+          }
+          chunks.add(new Pair<>(chunkPoint, chunk));
+        }
+        future.complete(chunks);
+      });
+    } catch (RejectedExecutionException e) {
+      logger.warn("Received {} chunks as cached but the cache is closed", chunkPoints.length);
+      future.complete(new ArrayList<>());
+    }
+    return future;
+  }
+
+  /**
+   * Lit un bloc du cache.
+   *
+   * @param chunkPoint La position du bloc.
+   * @return Le bloc, ou null s'il n'est pas dans le cache.
+   */
+  public synchronized Chunk get(ChunkPoint chunkPoint) {
+    Entry entry = entries.get(chunkPoint);
+    if (entry == null || closed) {
+      return null;
+    }
+    byte[] data = new byte[entry.size - RECORD_HEADER_SIZE];
+    readBytes(entry.offset + RECORD_HEADER_SIZE, data);
+    Chunk chunk;
+    try {
+      Pair<ChunkPoint, Chunk> pair = readCodec.read(new DataInputStream(new ByteArrayInputStream(data)));
+      if (!pair.getFirst().equals(chunkPoint) || ChunkCodec.hash(pair.getSecond()) != entry.hash) {
+        throw new MessageParseException("Chunk hash mismatch");
+      }
+      chunk = pair.getSecond();
+    } catch (IOException e) {
+      logger.warn("Removed corrupted chunk ({};{}) from cache", chunkPoint.getChunkX(), chunkPoint.getChunkY(), e);
+      entries.remove(chunkPoint);
+      liveSize -= entry.size;
+      return null;
+    }
+    touch(entry);
+    return chunk;
+  }
+
+  /**
+   * @param chunkPoint La position du bloc.
+   * @return L'empreinte du bloc dans le cache, ou 0 s'il n'est pas dans le cache.
+   */
+  public synchronized long getHash(ChunkPoint chunkPoint) {
+    Entry entry = entries.get(chunkPoint);
+    return entry == null ? 0 : entry.hash;
+  }
+
+  /**
+   * Renvoie les positions et empreintes des blocs utilisés le plus récemment, à annoncer au serveur.
+   *
+   * @param max Le nombre maximum de blocs à renvoyer.
+   * @return Les positions et empreintes des blocs, du plus récent au plus ancien.
+   */
+  public synchronized List<Pair<ChunkPoint, Long>> getRecentHashes(int max) {
+    List<Map.Entry<ChunkPoint, Entry>> sorted = new ArrayList<>(entries.entrySet());
+    sorted.sort(Comparator.comparingLong((Map.Entry<ChunkPoint, Entry> e) -> e.getValue().lastUsed).reversed());
+    int size = Math.min(max, sorted.size());
+    List<Pair<ChunkPoint, Long>> hashes = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      Map.Entry<ChunkPoint, Entry> entry = sorted.get(i);
+      hashes.add(new Pair<>(entry.getKey(), entry.getValue().hash));
+    }
+    return hashes;
+  }
+
+  /**
+   * @return Le nombre de blocs dans le cache.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Ferme le cache, après avoir écrit les blocs en attente pendant un temps limité. Les appels
+   * suivants n'ont aucun effet.
+   */
+  @Override
+  public void close() {
+    try {
+      closeAsync().get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      logger.warn("Timed out writing pending chunks to cache");
+      writer.shutdownNow();
+      closeFile();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // impossible, la fermeture ne termine pas en erreur
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Ferme le cache sans attendre : les blocs en attente sont écrits, puis le fichier est fermé par
+   * le thread du cache. Le fichier reste verrouillé jusqu'à la fin de la fermeture.
+   *
+   * @return La fermeture du cache, terminée une fois le fichier fermé.
+   */
+  public synchronized CompletableFuture<Void> closeAsync() {
+    if (closing != null) {
+      return closing;
+    }
+    closing = new CompletableFuture<>();
+    CompletableFuture<Void> future = closing;
+    writer.execute(() -> {
+      closeFile();
+      future.complete(null);
+    });
+    writer.shutdown();
+    return closing;
+  }
+
+  private synchronized void closeFile() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      buffer.force();
+      channel.close();
+    } catch (IOException e) {
+      logger.warn("Failed closing chunk cache", e);
+    }
+  }
+
+  private void write(ChunkPoint chunkPoint, Chunk chunk) {
+    long hash = ChunkCodec.hash(chunk);
+    synchronized (this) {
+      Entry entry = entries.get(chunkPoint);
+      if (entry != null && entry.hash == hash) {
+        touch(entry);
+        return;
+      }
+    }
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try {
+      writeCodec.write(new DataOutputStream(baos), chunkPoint, chunk);
+    } catch (IOException e) {
+      // impossible avec un ByteArrayOutputStream
+      throw new RuntimeException(e);
+    }
+    byte[] data = baos.toByteArray();
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      try {
+        append(chunkPoint, hash, data);
+      } catch (IOException e) {
+        logger.warn("Failed writing chunk ({};{}) to cache", chunkPoint.getChunkX(), chunkPoint.getChunkY(), e);
+      }
+    }
+  }
+
+  private void append(ChunkPoint chunkPoint, long hash, byte[] data) throws IOException {
+    int size = RECORD_HEADER_SIZE + data.length;
+    if (FILE_HEADER_SIZE + size + END_SIZE > maxSize) {
+      return;
+    }
+    Entry old = entries.remove(chunkPoint);
+    if (old != null) {
+      liveSize -= old.size;
+    }
+    if (end + size + END_SIZE > maxSize) {
+      compact(size);
+    }
+    if (end + size + END_SIZE > buffer.capacity()) {
+      map(Math.min(maxSize, Math.max(buffer.capacity() * 2, end + size + END_SIZE)));
+    }
+    Entry entry = new Entry(end, size, hash, System.currentTimeMillis());
+    // l'enregistrement vide et la taille sont écrits en dernier : un enregistrement incomplet est ignoré
+    buffer.putInt(end + size, 0);
+    buffer.putShort(end + 4, (short) chunkPoint.getChunkX());
+    buffer.putShort(end + 6, (short) chunkPoint.getChunkY());
+    buffer.putLong(end + 8, hash);
+    buffer.putLong(end + LAST_USED_OFFSET, entry.lastUsed);
+    writeBytes(end + RECORD_HEADER_SIZE, data);
+    buffer.putInt(end, size);
+    end += size;
+    entries.put(chunkPoint, entry);
+    liveSize += size;
+  }
+
+  // supprime les enregistrements remplacés, puis les moins utilisés s'il ne reste pas assez de place
+  private void compact(int needed) {
+    int available = maxSize - FILE_HEADER_SIZE - END_SIZE - needed;
+    // garder de la place pour ne pas compacter à chaque écriture
+    int budget = liveSize <= available / 2 ? available : available / 2;
+    List<Map.Entry<ChunkPoint, Entry>> sorted = new ArrayList<>(entries.entrySet());
+    sorted.sort(Comparator.comparingLong((Map.Entry<ChunkPoint, Entry> e) -> e.getValue().lastUsed).reversed());
+    List<Entry> kept = new ArrayList<>(sorted.size());
+    int keptSize = 0;
+    for (Map.Entry<ChunkPoint, Entry> e : sorted) {
+      Entry entry = e.getValue();
+      if (keptSize + entry.size > budget) {
+        entries.remove(e.getKey());
+        continue;
+      }
+      keptSize += entry.size;
+      kept.add(entry);
+    }
+    kept.sort(Comparator.comparingInt(e -> e.offset));
+    int position = FILE_HEADER_SIZE;
+    byte[] record = new byte[0];
+    for (Entry entry : kept) {
+      if (entry.offset != position) {
+        if (record.length < entry.size) {
+          record = new byte[entry.size];
+        }
+        readBytes(entry.offset, record, entry.size);
+        writeBytes(position, record, entry.size);
+        entry.offset = position;
+      }
+      position += entry.size;
+    }
+    end = position;
+    buffer.putInt(end, 0);
+    logger.debug("Compacted chunk cache, kept {} chunks, dropped {} bytes", kept.size(), liveSize - keptSize);
+    liveSize = keptSize;
+  }
+
+  private void load() {
+    int offset = FILE_HEADER_SIZE;
+    while (offset + END_SIZE <= buffer.capacity()) {
+      int size = buffer.getInt(offset);
+      if (size == 0) {
+        break;
+      }
+      if (size < RECORD_HEADER_SIZE || offset + size + END_SIZE > buffer.capacity()) {
+        logger.warn("Truncated corrupted chunk cache at offset {}", offset);
+        buffer.putInt(offset, 0);
+        break;
+      }
+      ChunkPoint chunkPoint = new ChunkPoint(buffer.getShort(offset + 4), buffer.getShort(offset + 6));
+      Entry entry = new Entry(offset, size, buffer.getLong(offset + 8), buffer.getLong(offset + LAST_USED_OFFSET));
+      Entry old = entries.put(chunkPoint, entry);
+      if (old != null) {
+        liveSize -= old.size;
+      }
+      liveSize += size;
+      offset += size;
+    }
+    if (offset + END_SIZE > buffer.capacity()) {
+      // fichier plein sans enregistrement vide
+      offset = FILE_HEADER_SIZE;
+      entries.clear();
+      liveSize = 0;
+      buffer.putInt(offset, 0);
+    }
+    end = offset;
+  }
+
+  // un seul cache par fichier, même entre plusieurs processus
+  private void lock() throws IOException {
+    FileLock lock;
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      throw new IOException("Chunk cache file is already in use");
+    }
+  }
+
+  private void map(int size) throws IOException {
+    buffer = channel.map(MapMode.READ_WRITE, 0, size);
+  }
+
+  private void touch(Entry entry) {
+    entry.lastUsed = System.currentTimeMillis();
+    if (!closed) {
+      buffer.putLong(entry.offset + LAST_USED_OFFSET, entry.lastUsed);
+    }
+  }
+
+  private void readBytes(int offset, byte[] data) {
+    readBytes(offset, data, data.length);
+  }
+
+  private void readBytes(int offset, byte[] data, int length) {
+    buffer.position(offset);
+    buffer.get(data, 0, length);
+  }
+
+  private void writeBytes(int offset, byte[] data) {
+    writeBytes(offset, data, data.length);
+  }
+
+  private void writeBytes(int offset, byte[] data, int length) {
+    buffer.position(offset);
+    buffer.put(data, 0, length);
+  }
+
+  private static class Entry {
+    private int offset;
+    private final int size;
+    private final long hash;
+    private long lastUsed;
+
+    public Entry(int offset, int size, long hash, long lastUsed) {
+      this.offset = offset;
+      this.size = size;
+      this.hash = hash;
+      this.lastUsed = lastUsed;
+    }
+  }
+}
@@ -0,0 +1,379 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import cr.fr.saucisseroyale.miko.engine.Block;
+import cr.fr.saucisseroyale.miko.engine.Chunk;
+import cr.fr.saucisseroyale.miko.protocol.ChunkPoint;
+import cr.fr.saucisseroyale.miko.protocol.TerrainType;
+import cr.fr.saucisseroyale.miko.util.Pair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encode et décode les blocs de terrain (<code>chunk</code>) d'une connexion, selon la version du
+ * protocole négociée.
+ * <p>
+ * À partir de la version {@link #ENCODED_CHUNKS_VERSION}, un bloc est envoyé dans le plus petit de
+ * trois encodages (liste de cases, suites de cases identiques, ou palette et index), éventuellement
+ * compressé par deflate. Les blocs sont décodés directement dans le tableau des types de leurs
+ * cases, sans créer de {@link Block}.
+ * <p>
+ * Cette classe peut servir d'implémentation de référence pour un serveur de test, avec
+ * {@link #write(DataOutput, ChunkPoint, Chunk)} et {@link #read(DataInput)}. Elle n'est pas
+ * thread-safe.
+ */
+public final class ChunkCodec {
+  /**
+   * La première version du protocole avec les encodages de blocs.
+   */
+  public static final int ENCODED_CHUNKS_VERSION = 12;
+  // encodages, avec le bit de compression deflate
+  private static final int SPARSE = 0;
+  private static final int RUNS = 1;
+  private static final int PALETTE = 2;
+  private static final int DEFLATE = 0x80;
+  private static final int CASES = 1 << 16;
+  // taille maximale d'un bloc encodé, avant compression : liste de toutes les cases
+  private static final int MAX_ENCODED_SIZE = 2 + 3 * CASES;
+  // taille minimale d'un bloc encodé pour essayer de le compresser
+  private static final int MIN_DEFLATE_SIZE = 64;
+  private static final TerrainType[] TYPES = TerrainType.values();
+  private static final byte UNSET = -1;
+  private final boolean encoded;
+  private byte[] compressed = new byte[0];
+  private byte[] inflated = new byte[0];
+  private Inflater inflater;
+  private Deflater deflater;
+
+  /**
+   * @param protocolVersion La version du protocole négociée sur la connexion.
+   */
+  public ChunkCodec(int protocolVersion) {
+    encoded = protocolVersion >= ENCODED_CHUNKS_VERSION;
+  }
+
+  /**
+   * Lit un bloc de terrain (<code>chunk</code>).
+   *
+   * @param dis Le flux à lire.
+   * @return La position du bloc et le bloc.
+   * @throws MessageParseException S'il y a une erreur lors de la lecture.
+   * @throws IOException           S'il y a une erreur quelconque lors de la récupération des données.
+   */
+  public Pair<ChunkPoint, Chunk> read(DataInput dis) throws IOException {
+    int chunkX = dis.readShort();
+    int chunkY = dis.readShort();
+    ChunkPoint chunkPoint = new ChunkPoint(chunkX, chunkY);
+    TerrainType defaultType = readType(dis);
+    if (!encoded) {
+      int blocksSize = dis.readUnsignedShort();
+      Block[] blocks = new Block[blocksSize];
+      for (int i = 0; i < blocksSize; i++) {
+        int x = dis.readUnsignedByte();
+        int y = dis.readUnsignedByte();
+        blocks[i] = new Block(x, y, readType(dis));
+      }
+      return new Pair<>(chunkPoint, new Chunk(defaultType, Arrays.asList(blocks)));
+    }
+    int encoding = dis.readUnsignedByte();
+    DataInput data = dis;
+    if ((encoding & DEFLATE) != 0) {
+      data = inflate(dis);
+      encoding &= ~DEFLATE;
+    }
+    byte[] types = new byte[CASES];
+    switch (encoding) {
+      case SPARSE:
+        readSparse(data, defaultType, types);
+        break;
+      case RUNS:
+        readRuns(data, types);
+        break;
+      case PALETTE:
+        readPalette(data, types);
+        break;
+      default:
+        throw new MessageParseException("Unknown chunk encoding " + encoding);
+    }
+    return new Pair<>(chunkPoint, new Chunk(defaultType, types));
+  }
+
+  /**
+   * Écrit un bloc de terrain (<code>chunk</code>), dans le plus petit encodage possible.
+   *
+   * @param dos        Le flux sur lequel écrire.
+   * @param chunkPoint La position du bloc.
+   * @param chunk      Le bloc.
+   * @throws IOException S'il y a une erreur lors de l'écriture.
+   */
+  public void write(DataOutput dos, ChunkPoint chunkPoint, Chunk chunk) throws IOException {
+    dos.writeShort(chunkPoint.getChunkX());
+    dos.writeShort(chunkPoint.getChunkY());
+    TerrainType defaultType = chunk.getDefaultType();
+    dos.writeByte(defaultType.getId());
+    byte[] types = new byte[CASES];
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 256; x++) {
+        types[y << 8 | x] = (byte) chunk.getBlock(x, y).ordinal();
+      }
+    }
+    if (!encoded) {
+      writeSparse(dos, defaultType, types);
+      return;
+    }
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    int encoding = writeSmallest(new DataOutputStream(payload), defaultType, types);
+    byte[] data = payload.toByteArray();
+    if (data.length >= MIN_DEFLATE_SIZE) {
+      byte[] deflatedData = deflate(data);
+      if (deflatedData.length + 4 < data.length) {
+        dos.writeByte(encoding | DEFLATE);
+        dos.writeInt(deflatedData.length);
+        dos.write(deflatedData);
+        return;
+      }
+    }
+    dos.writeByte(encoding);
+    dos.write(data);
+  }
+
+  /**
+   * Calcule l'empreinte d'un bloc de terrain, utilisée par le serveur pour savoir si le client a
+   * déjà le bloc.
+   * <p>
+   * L'empreinte est le FNV-1a 64 bits de l'identifiant du type par défaut suivi des identifiants
+   * des types des 256x256 cases, dans l'ordre de leur indice <code>y * 256 + x</code>. Une empreinte
+   * nulle est remplacée par 1, 0 signifiant l'absence de bloc.
+   *
+   * @param chunk Le bloc.
+   * @return L'empreinte du bloc, non nulle.
+   */
+  public static long hash(Chunk chunk) {
+    long hash = 0xcbf29ce484222325L;
+    hash = (hash ^ chunk.getDefaultType().getId()) * 0x100000001b3L;
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 256; x++) {
+        hash = (hash ^ chunk.getBlock(x, y).getId()) * 0x100000001b3L;
+      }
+    }
+    return hash == 0 ? 1 : hash;
+  }
+
+  private static TerrainType readType(DataInput dis) throws IOException {
+    TerrainType type = TerrainType.getType(dis.readUnsignedByte());
+    if (type == null) {
+      throw new MessageParseException("Unknown terrain type, aborted parsing");
+    }
+    return type;
+  }
+
+  private DataInput inflate(DataInput dis) throws IOException {
+    int compressedSize = dis.readInt();
+    if (compressedSize < 0 || compressedSize > MAX_ENCODED_SIZE) {
+      throw new MessageParseException("Invalid compressed chunk size " + compressedSize);
+    }
+    if (compressed.length < compressedSize) {
+      compressed = new byte[compressedSize];
+    }
+    dis.readFully(compressed, 0, compressedSize);
+    if (inflater == null) {
+      inflater = new Inflater();
+      inflated = new byte[MAX_ENCODED_SIZE];
+    }
+    inflater.reset();
+    inflater.setInput(compressed, 0, compressedSize);
+    int inflatedSize;
+    try {
+      inflatedSize = inflater.inflate(inflated);
+    } catch (DataFormatException e) {
+      throw new MessageParseException("Invalid compressed chunk", e);
+    }
+    if (!inflater.finished()) {
+      throw new MessageParseException("Compressed chunk too large");
+    }
+    return new DataInputStream(new ByteArrayInputStream(inflated, 0, inflatedSize));
+  }
+
+  // la première case définie en un point est prioritaire, comme pour Chunk(TerrainType, List)
+  private static void readSparse(DataInput dis, TerrainType defaultType, byte[] types) throws IOException {
+    Arrays.fill(types, UNSET);
+    int size = dis.readUnsignedShort();
+    for (int i = 0; i < size; i++) {
+      int x = dis.readUnsignedByte();
+      int y = dis.readUnsignedByte();
+      byte type = (byte) readType(dis).ordinal();
+      int index = y << 8 | x;
+      if (types[index] == UNSET) {
+        types[index] = type;
+      }
+    }
+    byte defaultOrdinal = (byte) defaultType.ordinal();
+    for (int i = 0; i < CASES; i++) {
+      if (types[i] == UNSET) {
+        types[i] = defaultOrdinal;
+      }
+    }
+  }
+
+  private static void readRuns(DataInput dis, byte[] types) throws IOException {
+    int index = 0;
+    while (index < CASES) {
+      byte type = (byte) readType(dis).ordinal();
+      int length = dis.readUnsignedShort() + 1;
+      if (index + length > CASES) {
+        throw new MessageParseException("Chunk run too long");
+      }
+      Arrays.fill(types, index, index + length, type);
+      index += length;
+    }
+  }
+
+  private static void readPalette(DataInput dis, byte[] types) throws IOException {
+    int paletteSize = dis.readUnsignedByte() + 1;
+    byte[] palette = new byte[paletteSize];
+    for (int i = 0; i < paletteSize; i++) {
+      palette[i] = (byte) readType(dis).ordinal();
+    }
+    int bits = getIndexBits(paletteSize);
+    int mask = (1 << bits) - 1;
+    int perByte = 8 / bits;
+    for (int index = 0; index < CASES; ) {
+      int packed = dis.readUnsignedByte();
+      for (int i = perByte - 1; i >= 0; i--) {
+        int paletteIndex = packed >>> i * bits & mask;
+        if (paletteIndex >= paletteSize) {
+          throw new MessageParseException("Chunk palette index out of bounds");
+        }
+        types[index++] = palette[paletteIndex];
+      }
+    }
+  }
+
+  private static int getIndexBits(int paletteSize) {
+    if (paletteSize <= 2) {
+      return 1;
+    }
+    if (paletteSize <= 4) {
+      return 2;
+    }
+    if (paletteSize <= 16) {
+      return 4;
+    }
+    return 8;
+  }
+
+  // écrit le bloc dans l'encodage le plus petit, et renvoie cet encodage
+  private static int writeSmallest(DataOutput dos, TerrainType defaultType, byte[] types) throws IOException {
+    byte defaultOrdinal = (byte) defaultType.ordinal();
+    int definedCount = 0;
+    int runCount = 0;
+    boolean[] used = new boolean[TYPES.length];
+    for (int i = 0; i < CASES; i++) {
+      if (types[i] != defaultOrdinal) {
+        definedCount++;
+      }
+      if (i == 0 || types[i] != types[i - 1]) {
+        runCount++;
+      }
+      used[types[i]] = true;
+    }
+    int paletteSize = 0;
+    for (boolean u : used) {
+      if (u) {
+        paletteSize++;
+      }
+    }
+    // le plus gros run est de 2^16 cases : longueur - 1 tient sur un uint16
+    int sparseSize = definedCount < CASES ? 2 + 3 * definedCount : Integer.MAX_VALUE;
+    int runsSize = 3 * runCount;
+    int paletteEncodedSize = 1 + paletteSize + CASES * getIndexBits(paletteSize) / 8;
+    if (sparseSize <= runsSize && sparseSize <= paletteEncodedSize) {
+      writeSparse(dos, defaultType, types);
+      return SPARSE;
+    }
+    if (runsSize <= paletteEncodedSize) {
+      writeRuns(dos, types);
+      return RUNS;
+    }
+    writePalette(dos, types, used, paletteSize);
+    return PALETTE;
+  }
+
+  private static void writeSparse(DataOutput dos, TerrainType defaultType, byte[] types) throws IOException {
+    byte defaultOrdinal = (byte) defaultType.ordinal();
+    List<Integer> defined = new ArrayList<>();
+    for (int i = 0; i < CASES; i++) {
+      if (types[i] != defaultOrdinal) {
+        defined.add(i);
+      }
+    }
+    if (defined.size() >= 1 << 16) {
+      throw new IllegalArgumentException("The chunk has too many defined blocks for a sparse encoding");
+    }
+    dos.writeShort(defined.size());
+    for (int index : defined) {
+      dos.writeByte(index & 0xFF);
+      dos.writeByte(index >>> 8);
+      dos.writeByte(TYPES[types[index]].getId());
+    }
+  }
+
+  private static void writeRuns(DataOutput dos, byte[] types) throws IOException {
+    int start = 0;
+    for (int i = 1; i <= CASES; i++) {
+      if (i == CASES || types[i] != types[start]) {
+        dos.writeByte(TYPES[types[start]].getId());
+        dos.writeShort(i - start - 1);
+        start = i;
+      }
+    }
+  }
+
+  private static void writePalette(DataOutput dos, byte[] types, boolean[] used, int paletteSize) throws IOException {
+    dos.writeByte(paletteSize - 1);
+    int[] paletteIndices = new int[TYPES.length];
+    int paletteIndex = 0;
+    for (int ordinal = 0; ordinal < used.length; ordinal++) {
+      if (used[ordinal]) {
+        dos.writeByte(TYPES[ordinal].getId());
+        paletteIndices[ordinal] = paletteIndex++;
+      }
+    }
+    int bits = getIndexBits(paletteSize);
+    int perByte = 8 / bits;
+    for (int index = 0; index < CASES; ) {
+      int packed = 0;
+      for (int i = perByte - 1; i >= 0; i--) {
+        packed |= paletteIndices[types[index++]] << i * bits;
+      }
+      dos.writeByte(packed);
+    }
+  }
+
+  private byte[] deflate(byte[] data) {
+    if (deflater == null) {
+      deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    }
+    deflater.reset();
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 4);
+    byte[] buffer = new byte[4096];
+    while (!deflater.finished()) {
+      int size = deflater.deflate(buffer);
+      baos.write(buffer, 0, size);
+    }
+    return baos.toByteArray();
+  }
+}
@@ -0,0 +1,87 @@
+package cr.fr.saucisseroyale.miko.network;
+
+/**
+ * Un estimateur de la différence entre l'horloge locale et celle du serveur de temps, sur le
+ * principe du filtre d'horloge de NTP.
+ * <p>
+ * Les files d'attente du réseau peuvent allonger le trajet d'un message mais jamais le raccourcir :
+ * les échanges au temps d'aller-retour le plus faible sont ceux dont la différence mesurée est la
+ * plus juste. L'estimateur garde les {@link #WINDOW} derniers échanges dans des tableaux
+ * circulaires, et estime la différence par la moyenne des échanges dont l'aller-retour est proche
+ * du minimum de la fenêtre. La fenêtre étant glissante, l'estimation suit la dérive des horloges.
+ * <p>
+ * Toutes les durées sont en microsecondes. Cette classe n'est pas thread-safe.
+ */
+final class ClockEstimator {
+  /**
+   * Le nombre d'échanges gardés.
+   */
+  static final int WINDOW = 64;
+  /**
+   * Le nombre d'échanges nécessaires à une première estimation.
+   */
+  static final int MIN_SAMPLES = 32;
+  // écart maximal à l'aller-retour minimal des échanges utilisés pour l'estimation
+  private static final long RTT_TOLERANCE = 200;
+  private final long[] roundTripTimes = new long[WINDOW];
+  private final long[] clockDifferences = new long[WINDOW];
+  private int size;
+  private int next;
+  private long minRoundTripTime;
+  private long clockDifference;
+
+  /**
+   * Ajoute un échange de messages de temps.
+   *
+   * @param localSendTimestamp    L'horloge locale à l'envoi de la requête.
+   * @param remoteTimestamp       L'horloge du serveur à la réception de la requête.
+   * @param localReceiveTimestamp L'horloge locale à la réception de la réponse.
+   */
+  public void add(long localSendTimestamp, long remoteTimestamp, long localReceiveTimestamp) {
+    long roundTripTime = localReceiveTimestamp - localSendTimestamp;
+    if (roundTripTime < 0) {
+      return;
+    }
+    roundTripTimes[next] = roundTripTime;
+    clockDifferences[next] = localSendTimestamp + roundTripTime / 2 - remoteTimestamp;
+    next = (next + 1) % WINDOW;
+    if (size < WINDOW) {
+      size++;
+    }
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      min = Math.min(min, roundTripTimes[i]);
+    }
+    int count = 0;
+    long sum = 0;
+    for (int i = 0; i < size; i++) {
+      if (roundTripTimes[i] <= min + RTT_TOLERANCE) {
+        count++;
+        sum += clockDifferences[i];
+      }
+    }
+    minRoundTripTime = min;
+    clockDifference = sum / count;
+  }
+
+  /**
+   * @return true si assez d'échanges ont été ajoutés pour estimer la différence des horloges.
+   */
+  public boolean isReady() {
+    return size >= MIN_SAMPLES;
+  }
+
+  /**
+   * @return La différence estimée entre l'horloge locale et l'horloge du serveur : locale - serveur.
+   */
+  public long getClockDifference() {
+    return clockDifference;
+  }
+
+  /**
+   * @return Le temps d'aller-retour minimal de la fenêtre.
+   */
+  public long getMinRoundTripTime() {
+    return minRoundTripTime;
+  }
+}
@@ -0,0 +1,309 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import cr.fr.saucisseroyale.miko.protocol.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encode et décode les mises à jour d'entités (<code>entity_update</code>) d'un sens d'une
+ * connexion, selon la version du protocole négociée.
+ * <p>
+ * À partir de la version {@link #COMPRESSION_VERSION}, une position peut être envoyée comme un
+ * delta par rapport à la dernière position de la même entité sur la connexion, et l'angle de la
+ * vitesse est quantifié sur 16 bits. Comme TCP transmet les messages dans l'ordre et sans perte, la
+ * dernière position envoyée est toujours la dernière reçue : aucun accusé de réception n'est
+ * nécessaire pour garder l'encodeur et le décodeur synchronisés.
+ * <p>
+ * Un codec garde les dernières positions d'un seul sens d'une connexion : il faut un codec pour
+ * l'envoi et un pour la réception. Cette classe peut servir d'implémentation de référence pour un
+ * serveur de test, avec {@link #write(DataOutput, EntityDataUpdate)} et {@link #read(DataInput)}.
+ * Elle n'est pas thread-safe.
+ * <p>
+ * Un message incomplet pouvant être relu depuis son début, les positions modifiées par la lecture
+ * d'un message peuvent être restaurées, voir {@link #beginMessage()} et {@link #rollbackMessage()}.
+ */
+public final class EntityUpdateCodec {
+  /**
+   * La première version du protocole avec les positions en delta et les angles quantifiés.
+   */
+  public static final int COMPRESSION_VERSION = 11;
+  // bits du bitfield, non utilisés avant la version de compression
+  static final int POSITION_DELTA_BIT = 3;
+  static final int SPEED_ANGLE_QUANTIZED_BIT = 4;
+  private static final long NO_POSITION = Long.MIN_VALUE;
+  private final boolean compressed;
+  // dernière position de chaque entité, indexée par id, x et y dans un long
+  private long[] positions = new long[0];
+  // positions remplacées depuis le début du message en cours de lecture
+  private boolean recording;
+  private int undoSize;
+  private int[] undoEntityIds = new int[0];
+  private long[] undoPositions = new long[0];
+  private EntityUpdateCursor cursor;
+
+  /**
+   * @param protocolVersion La version du protocole négociée sur la connexion.
+   */
+  public EntityUpdateCodec(int protocolVersion) {
+    compressed = protocolVersion >= COMPRESSION_VERSION;
+  }
+
+  /**
+   * @return true si les positions en delta et les angles quantifiés sont utilisés.
+   */
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * Écrit une mise à jour d'entité (<code>entity_update</code>).
+   *
+   * @param dos              Le flux sur lequel écrire.
+   * @param entityDataUpdate La mise à jour d'entité.
+   * @throws IOException S'il y a une erreur lors de l'écriture.
+   */
+  public void write(DataOutput dos, EntityDataUpdate entityDataUpdate) throws IOException {
+    EntityUpdateMessage message = EntityUpdateMessage.encode(0, entityDataUpdate);
+    try {
+      message.writeEntityTo(dos, this);
+    } finally {
+      message.release();
+    }
+  }
+
+  /**
+   * Lit une mise à jour d'entité (<code>entity_update</code>).
+   *
+   * @param dis Le flux à lire.
+   * @return La mise à jour d'entité.
+   * @throws MessageParseException S'il y a une erreur lors de la lecture.
+   * @throws IOException           S'il y a une erreur quelconque lors de la récupération des données.
+   */
+  public EntityDataUpdate read(DataInput dis) throws IOException {
+    if (cursor == null) {
+      cursor = new EntityUpdateCursor();
+    }
+    cursor.clear();
+    read(dis, cursor);
+    return cursor.toEntityDataUpdate();
+  }
+
+  /**
+   * Lit une mise à jour d'entité et l'ajoute au curseur, sur laquelle le curseur est placé.
+   */
+  void read(DataInput dis, EntityUpdateCursor cursor) throws IOException {
+    int entityId = dis.readUnsignedShort();
+    cursor.add(entityId);
+    byte bitfield = dis.readByte();
+    for (int b = 0; b < 8; b++) {
+      if ((bitfield & 1 << 7 - b) == 0) {
+        continue;
+      }
+      if (compressed && b == POSITION_DELTA_BIT) {
+        long position = getPosition(entityId);
+        if (position == NO_POSITION) {
+          throw new MessageParseException("Received a position delta for an entity without a position");
+        }
+        int x = getX(position) + dis.readByte();
+        int y = getY(position) + dis.readByte();
+        setPosition(entityId, x, y);
+        cursor.setPosition(x, y);
+        continue;
+      }
+      if (compressed && b == SPEED_ANGLE_QUANTIZED_BIT) {
+        cursor.setSpeedAngle(dequantizeAngle(dis.readShort()));
+        continue;
+      }
+      EntityUpdateType type = EntityUpdateType.getType(b);
+      if (type == null) {
+        throw newParseException();
+      }
+      switch (type) {
+        case POSITION:
+          int chunkX = dis.readShort();
+          int chunkY = dis.readShort();
+          int blockX = dis.readUnsignedByte();
+          int blockY = dis.readUnsignedByte();
+          int x = chunkX * 256 + blockX;
+          int y = chunkY * 256 + blockY;
+          setPosition(entityId, x, y);
+          cursor.setPosition(x, y);
+          break;
+        case SPEED_ANGLE:
+          cursor.setSpeedAngle(dis.readFloat());
+          break;
+        case SPEED_NORM:
+          cursor.setSpeedNorm(dis.readFloat());
+          break;
+        case ENTITY_TYPE:
+          int entityTypeCode = dis.readUnsignedShort();
+          EntityType entityType = EntityType.getType(entityTypeCode);
+          if (entityType == null) {
+            throw newParseException();
+          }
+          cursor.setEntityType(entityType);
+          break;
+        case SPRITE_TYPE:
+          int spriteTypeCode = dis.readUnsignedShort();
+          SpriteType spriteType = SpriteType.getType(spriteTypeCode);
+          if (spriteType == null) {
+            throw newParseException();
+          }
+          cursor.setSpriteType(spriteType);
+          break;
+        case OBJECT_DATA:
+          int objectDataUpdateSize = dis.readUnsignedShort();
+          for (int j = 0; j < objectDataUpdateSize; j++) {
+            int objectAttributeCode = dis.readUnsignedShort();
+            ObjectAttribute objectAttribute = ObjectAttribute.getType(objectAttributeCode);
+            if (objectAttribute == null) {
+              throw newParseException();
+            }
+            readObjectAttribute(dis, objectAttribute, cursor);
+          }
+          break;
+        default:
+          throw newParseException();
+      }
+    }
+  }
+
+  /**
+   * Commence la lecture d'un message : les positions lues ensuite pourront être restaurées par
+   * {@link #rollbackMessage()}.
+   */
+  void beginMessage() {
+    recording = true;
+    undoSize = 0;
+  }
+
+  /**
+   * Restaure les positions d'avant la lecture du message en cours, pour le relire depuis son début.
+   */
+  void rollbackMessage() {
+    while (undoSize > 0) {
+      undoSize--;
+      positions[undoEntityIds[undoSize]] = undoPositions[undoSize];
+    }
+  }
+
+  /**
+   * Indique si une position peut être envoyée comme un delta, c'est-à-dire si la compression est
+   * utilisée, qu'une position a déjà été envoyée pour l'entité, et que le delta tient sur un sint8.
+   */
+  boolean canWriteDelta(int entityId, int x, int y) {
+    if (!compressed) {
+      return false;
+    }
+    long position = getPosition(entityId);
+    if (position == NO_POSITION) {
+      return false;
+    }
+    int dx = x - getX(position);
+    int dy = y - getY(position);
+    return dx >= Byte.MIN_VALUE && dx <= Byte.MAX_VALUE && dy >= Byte.MIN_VALUE && dy <= Byte.MAX_VALUE;
+  }
+
+  /**
+   * Écrit une position comme un delta ; {@link #canWriteDelta(int, int, int)} doit avoir renvoyé
+   * true pour cette position.
+   */
+  void writeDelta(DataOutput dos, int entityId, int x, int y) throws IOException {
+    long position = getPosition(entityId);
+    dos.writeByte(x - getX(position));
+    dos.writeByte(y - getY(position));
+    setPosition(entityId, x, y);
+  }
+
+  /**
+   * Enregistre une position écrite en entier, comme base des deltas suivants.
+   */
+  void positionWritten(int entityId, int x, int y) {
+    setPosition(entityId, x, y);
+  }
+
+  /**
+   * Quantifie un angle en radians sur 16 bits signés, représentant [-π;π[.
+   */
+  static int quantizeAngle(float angle) {
+    double turns = angle / (2 * Math.PI);
+    turns -= Math.floor(turns + 0.5); // ramené dans [-0.5;0.5[
+    return (int) Math.round(turns * (1 << 16)) & 0xFFFF;
+  }
+
+  static float dequantizeAngle(short quantizedAngle) {
+    return (float) (quantizedAngle * (2 * Math.PI) / (1 << 16));
+  }
+
+  private long getPosition(int entityId) {
+    return entityId < positions.length ? positions[entityId] : NO_POSITION;
+  }
+
+  private void setPosition(int entityId, int x, int y) {
+    if (!compressed) {
+      // les positions ne servent qu'aux deltas
+      return;
+    }
+    if (entityId >= positions.length) {
+      int oldLength = positions.length;
+      positions = Arrays.copyOf(positions, Math.max(entityId + 1, Math.min(oldLength * 2, 1 << 16)));
+      Arrays.fill(positions, oldLength, positions.length, NO_POSITION);
+    }
+    if (recording) {
+      if (undoSize == undoEntityIds.length) {
+        int capacity = Math.max(16, undoSize * 2);
+        undoEntityIds = Arrays.copyOf(undoEntityIds, capacity);
+        undoPositions = Arrays.copyOf(undoPositions, capacity);
+      }
+      undoEntityIds[undoSize] = entityId;
+      undoPositions[undoSize] = positions[entityId];
+      undoSize++;
+    }
+    positions[entityId] = (long) x << 32 | y & 0xFFFFFFFFL;
+  }
+
+  private static int getX(long position) {
+    return (int) (position >> 32);
+  }
+
+  private static int getY(long position) {
+    return (int) position;
+  }
+
+  // stocke la valeur sous forme de deux entiers, comme attendu par le curseur
+  private static void readObjectAttribute(DataInput dis, ObjectAttribute attribute, EntityUpdateCursor cursor) throws IOException {
+    switch (attribute.getDataType()) {
+      case VOID:
+        cursor.addObjectAttribute(attribute, 0, 0);
+        break;
+      case ONE_FLOAT:
+        cursor.addObjectAttribute(attribute, Float.floatToRawIntBits(dis.readFloat()), 0);
+        break;
+      case ONE_SHORT:
+      case ONE_ENTITY:
+        cursor.addObjectAttribute(attribute, dis.readUnsignedShort(), 0);
+        break;
+      case ONE_TERRAIN:
+        int chunkX = dis.readShort();
+        int chunkY = dis.readShort();
+        int blockX = dis.readUnsignedByte();
+        int blockY = dis.readUnsignedByte();
+        cursor.addObjectAttribute(attribute, chunkX * 256 + blockX, chunkY * 256 + blockY);
+        break;
+      case PAIR_FLOAT_ENTITY:
+        int number = Float.floatToRawIntBits(dis.readFloat());
+        int entityId = dis.readUnsignedShort();
+        cursor.addObjectAttribute(attribute, number, entityId);
+        break;
+      default:
+        throw newParseException();
+    }
+  }
+
+  private static MessageParseException newParseException() {
+    return new MessageParseException("Unknown entity update type, aborted parsing");
+  }
+}
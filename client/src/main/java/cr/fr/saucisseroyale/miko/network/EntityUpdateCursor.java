@@ -0,0 +1,296 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import cr.fr.saucisseroyale.miko.engine.MapPoint;
+import cr.fr.saucisseroyale.miko.protocol.*;
+import cr.fr.saucisseroyale.miko.util.Pair;
+
+import java.util.Arrays;
+
+/**
+ * Un curseur sur les mises à jour d'entités d'un message, donnant accès à leurs champs sous forme
+ * primitive, sans créer d'objet.
+ * <p>
+ * Les données sont stockées dans des tableaux réutilisés d'un message à l'autre : le curseur n'est
+ * valide que pendant l'appel du {@link cr.fr.saucisseroyale.miko.MessageHandler} qui le reçoit.
+ * Pour garder une mise à jour, la matérialiser avec {@link #toEntityDataUpdate()}.
+ * <p>
+ * Utilisation : <code>while (cursor.next()) { ... }</code>
+ */
+public final class EntityUpdateCursor {
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final ObjectAttribute[] NO_ATTRIBUTES = new ObjectAttribute[0];
+  private int size;
+  private int index = -1;
+  // champs des entités
+  private int[] entityIds = new int[DEFAULT_CAPACITY];
+  private boolean[][] updateTypes = new boolean[EntityUpdateType.values().length][DEFAULT_CAPACITY];
+  private float[] xs = new float[DEFAULT_CAPACITY];
+  private float[] ys = new float[DEFAULT_CAPACITY];
+  private float[] speedAngles = new float[DEFAULT_CAPACITY];
+  private float[] speedNorms = new float[DEFAULT_CAPACITY];
+  private EntityType[] entityTypes = new EntityType[DEFAULT_CAPACITY];
+  private SpriteType[] spriteTypes = new SpriteType[DEFAULT_CAPACITY];
+  private int[] attributesStart = new int[DEFAULT_CAPACITY];
+  private int[] attributesCount = new int[DEFAULT_CAPACITY];
+  // attributs de toutes les entités, chacun avec deux valeurs (flottants stockés en bits)
+  private int attributesSize;
+  private ObjectAttribute[] attributes = NO_ATTRIBUTES;
+  private int[] attributeValues = new int[0];
+
+  EntityUpdateCursor() {}
+
+  /**
+   * @return Le nombre de mises à jour d'entités.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Passe à la mise à jour suivante ; doit être appelé avant de lire la première mise à jour.
+   *
+   * @return true s'il y avait une mise à jour suivante, false si le curseur est à la fin.
+   */
+  public boolean next() {
+    if (index + 1 >= size) {
+      index = size;
+      return false;
+    }
+    index++;
+    return true;
+  }
+
+  /**
+   * Replace le curseur avant la première mise à jour.
+   */
+  public void rewind() {
+    index = -1;
+  }
+
+  public int getEntityId() {
+    return entityIds[current()];
+  }
+
+  public boolean hasPosition() {
+    return has(EntityUpdateType.POSITION);
+  }
+
+  public float getX() {
+    return xs[current()];
+  }
+
+  public float getY() {
+    return ys[current()];
+  }
+
+  public boolean hasSpeedAngle() {
+    return has(EntityUpdateType.SPEED_ANGLE);
+  }
+
+  public float getSpeedAngle() {
+    return speedAngles[current()];
+  }
+
+  public boolean hasSpeedNorm() {
+    return has(EntityUpdateType.SPEED_NORM);
+  }
+
+  public float getSpeedNorm() {
+    return speedNorms[current()];
+  }
+
+  public boolean hasEntityType() {
+    return has(EntityUpdateType.ENTITY_TYPE);
+  }
+
+  public EntityType getEntityType() {
+    return entityTypes[current()];
+  }
+
+  public boolean hasSpriteType() {
+    return has(EntityUpdateType.SPRITE_TYPE);
+  }
+
+  public SpriteType getSpriteType() {
+    return spriteTypes[current()];
+  }
+
+  /**
+   * @return Le nombre d'attributs mis à jour de l'entité.
+   */
+  public int getObjectAttributeCount() {
+    return attributesCount[current()];
+  }
+
+  /**
+   * @param attributeIndex L'indice de l'attribut dans la mise à jour de l'entité.
+   * @return Le type de l'attribut.
+   */
+  public ObjectAttribute getObjectAttribute(int attributeIndex) {
+    return attributes[attribute(attributeIndex)];
+  }
+
+  /**
+   * @param attributeIndex L'indice de l'attribut dans la mise à jour de l'entité.
+   * @return La valeur de l'attribut s'il est de type {@link DataType#ONE_SHORT} ou
+   * {@link DataType#ONE_ENTITY}, ou l'entité de la paire s'il est de type
+   * {@link DataType#PAIR_FLOAT_ENTITY}.
+   */
+  public int getObjectAttributeInt(int attributeIndex) {
+    int attribute = attribute(attributeIndex);
+    return attributes[attribute].getDataType() == DataType.PAIR_FLOAT_ENTITY ? attributeValues[2 * attribute + 1] : attributeValues[2 * attribute];
+  }
+
+  /**
+   * @param attributeIndex L'indice de l'attribut dans la mise à jour de l'entité.
+   * @return La valeur de l'attribut s'il est de type {@link DataType#ONE_FLOAT}, ou le flottant de
+   * la paire s'il est de type {@link DataType#PAIR_FLOAT_ENTITY}.
+   */
+  public float getObjectAttributeFloat(int attributeIndex) {
+    return Float.intBitsToFloat(attributeValues[2 * attribute(attributeIndex)]);
+  }
+
+  /**
+   * Crée une mise à jour d'entité immutable à partir de la mise à jour courante, pour la garder
+   * au-delà de la validité du curseur.
+   *
+   * @return La mise à jour d'entité.
+   */
+  public EntityDataUpdate toEntityDataUpdate() {
+    int i = current();
+    EntityDataUpdate.Builder builder = new EntityDataUpdate.Builder(entityIds[i]);
+    if (hasPosition()) {
+      builder.position(new MapPoint(xs[i], ys[i]));
+    }
+    if (hasSpeedAngle()) {
+      builder.speedAngle(speedAngles[i]);
+    }
+    if (hasSpeedNorm()) {
+      builder.speedNorm(speedNorms[i]);
+    }
+    if (hasEntityType()) {
+      builder.entityType(entityTypes[i]);
+    }
+    if (hasSpriteType()) {
+      builder.spriteType(spriteTypes[i]);
+    }
+    for (int a = attributesStart[i]; a < attributesStart[i] + attributesCount[i]; a++) {
+      builder.objectAttribute(attributes[a], getAttributeObject(a));
+    }
+    return builder.build();
+  }
+
+  private Object getAttributeObject(int attribute) {
+    int first = attributeValues[2 * attribute];
+    int second = attributeValues[2 * attribute + 1];
+    switch (attributes[attribute].getDataType()) {
+      case VOID:
+        return null;
+      case ONE_FLOAT:
+        return Float.intBitsToFloat(first);
+      case ONE_SHORT:
+      case ONE_ENTITY:
+        return first;
+      case ONE_TERRAIN:
+        return new TerrainPoint(first, second);
+      case PAIR_FLOAT_ENTITY:
+        return new Pair<>(Float.intBitsToFloat(first), second);
+      default:
+        throw new IllegalStateException("Unknown data type: " + attributes[attribute].getDataType());
+    }
+  }
+
+  private int current() {
+    if (index < 0 || index >= size) {
+      throw new IllegalStateException("The cursor is not on an entity update");
+    }
+    return index;
+  }
+
+  private int attribute(int attributeIndex) {
+    int i = current();
+    if (attributeIndex < 0 || attributeIndex >= attributesCount[i]) {
+      throw new IndexOutOfBoundsException("Attribute index " + attributeIndex + " out of bounds for size " + attributesCount[i]);
+    }
+    return attributesStart[i] + attributeIndex;
+  }
+
+  private boolean has(EntityUpdateType type) {
+    return updateTypes[type.ordinal()][current()];
+  }
+
+  // écriture, par le parser
+
+  void clear() {
+    size = 0;
+    index = -1;
+    attributesSize = 0;
+  }
+
+  /**
+   * Ajoute une mise à jour d'entité vide, sur laquelle est placé le curseur pour la remplir.
+   */
+  void add(int entityId) {
+    if (size == entityIds.length) {
+      int capacity = size * 2;
+      entityIds = Arrays.copyOf(entityIds, capacity);
+      for (int t = 0; t < updateTypes.length; t++) {
+        updateTypes[t] = Arrays.copyOf(updateTypes[t], capacity);
+      }
+      xs = Arrays.copyOf(xs, capacity);
+      ys = Arrays.copyOf(ys, capacity);
+      speedAngles = Arrays.copyOf(speedAngles, capacity);
+      speedNorms = Arrays.copyOf(speedNorms, capacity);
+      entityTypes = Arrays.copyOf(entityTypes, capacity);
+      spriteTypes = Arrays.copyOf(spriteTypes, capacity);
+      attributesStart = Arrays.copyOf(attributesStart, capacity);
+      attributesCount = Arrays.copyOf(attributesCount, capacity);
+    }
+    index = size++;
+    entityIds[index] = entityId;
+    for (boolean[] types : updateTypes) {
+      types[index] = false;
+    }
+    attributesStart[index] = attributesSize;
+    attributesCount[index] = 0;
+  }
+
+  void setPosition(float x, float y) {
+    updateTypes[EntityUpdateType.POSITION.ordinal()][index] = true;
+    xs[index] = x;
+    ys[index] = y;
+  }
+
+  void setSpeedAngle(float speedAngle) {
+    updateTypes[EntityUpdateType.SPEED_ANGLE.ordinal()][index] = true;
+    speedAngles[index] = speedAngle;
+  }
+
+  void setSpeedNorm(float speedNorm) {
+    updateTypes[EntityUpdateType.SPEED_NORM.ordinal()][index] = true;
+    speedNorms[index] = speedNorm;
+  }
+
+  void setEntityType(EntityType entityType) {
+    updateTypes[EntityUpdateType.ENTITY_TYPE.ordinal()][index] = true;
+    entityTypes[index] = entityType;
+  }
+
+  void setSpriteType(SpriteType spriteType) {
+    updateTypes[EntityUpdateType.SPRITE_TYPE.ordinal()][index] = true;
+    spriteTypes[index] = spriteType;
+  }
+
+  void addObjectAttribute(ObjectAttribute attribute, int first, int second) {
+    if (attributesSize == attributes.length) {
+      int capacity = Math.max(DEFAULT_CAPACITY, attributesSize * 2);
+      attributes = Arrays.copyOf(attributes, capacity);
+      attributeValues = Arrays.copyOf(attributeValues, 2 * capacity);
+    }
+    attributes[attributesSize] = attribute;
+    attributeValues[2 * attributesSize] = first;
+    attributeValues[2 * attributesSize + 1] = second;
+    attributesSize++;
+    attributesCount[index]++;
+  }
+}
@@ -0,0 +1,86 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import cr.fr.saucisseroyale.miko.MessageHandler;
+
+import java.util.ArrayDeque;
+
+/**
+ * Un message reçu de création ou de mise à jour d'entités, dont les données sont stockées dans un
+ * {@link EntityUpdateCursor} réutilisé.
+ * <p>
+ * Les frames sont prises dans un {@link Pool} par le thread de réception et y retournent après
+ * leur exécution par le thread de jeu : un flot de mises à jour d'entités ne crée aucun objet.
+ */
+final class EntityUpdateFrame implements FutureInputMessage {
+  private final Pool pool;
+  private final EntityUpdateCursor cursor = new EntityUpdateCursor();
+  private boolean create;
+  private int tickRemainder;
+
+  private EntityUpdateFrame(Pool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Réinitialise la frame pour un nouveau message.
+   *
+   * @param create        true pour un message de création d'entité, false pour une mise à jour.
+   * @param tickRemainder Le tick du message, modulo 2^16.
+   * @return Le curseur à remplir.
+   */
+  EntityUpdateCursor reset(boolean create, int tickRemainder) {
+    this.create = create;
+    this.tickRemainder = tickRemainder;
+    cursor.clear();
+    return cursor;
+  }
+
+  /**
+   * Rend la frame à son pool ; elle ne doit plus être utilisée ensuite.
+   */
+  void release() {
+    pool.release(this);
+  }
+
+  @Override
+  public void execute(MessageHandler handler) {
+    try {
+      cursor.rewind();
+      if (create) {
+        cursor.next();
+        handler.entityCreate(tickRemainder, cursor.toEntityDataUpdate());
+      } else {
+        handler.entitiesUpdate(tickRemainder, cursor);
+      }
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Un pool de frames, partagé entre le thread de réception et le thread de jeu.
+   */
+  static final class Pool {
+    private static final int MAX_POOLED_FRAMES = 64;
+    private final ArrayDeque<EntityUpdateFrame> frames = new ArrayDeque<>(MAX_POOLED_FRAMES);
+
+    /**
+     * @return Une frame du pool, ou une nouvelle frame si le pool est vide.
+     */
+    public EntityUpdateFrame acquire() {
+      EntityUpdateFrame frame;
+      synchronized (frames) {
+        frame = frames.pollLast();
+      }
+      return frame != null ? frame : new EntityUpdateFrame(this);
+    }
+
+    private void release(EntityUpdateFrame frame) {
+      synchronized (frames) {
+        if (frames.size() < MAX_POOLED_FRAMES) {
+          frames.addLast(frame);
+        }
+      }
+    }
+  }
+}
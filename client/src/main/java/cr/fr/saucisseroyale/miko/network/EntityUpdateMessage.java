@@ -0,0 +1,344 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import cr.fr.saucisseroyale.miko.engine.MapPoint;
+import cr.fr.saucisseroyale.miko.protocol.*;
+import cr.fr.saucisseroyale.miko.util.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+/**
+ * Un message de mise à jour d'entité à envoyer, sérialisé dès sa création dans un buffer réutilisé.
+ * <p>
+ * Les messages sont pris dans un pool par {@link OutputMessageFactory} et y retournent une fois
+ * écrits ou remplacés par un {@link OutputBatch} : l'envoi de la position du joueur à chaque tick
+ * ne crée aucun objet ni ne copie les données.
+ * <p>
+ * Garde l'entité et les champs mis à jour pour qu'une mise à jour plus récente encore en attente
+ * d'envoi puisse la remplacer, voir {@link #supersedes(EntityUpdateMessage)}. La position et l'angle
+ * de la vitesse sont gardés à part, pour être compressés à l'écriture par le
+ * {@link EntityUpdateCodec} de la connexion, voir {@link #writeTo(DataOutput, EntityUpdateCodec)}.
+ */
+final class EntityUpdateMessage implements FutureOutputMessage {
+  private static Logger logger = LogManager.getLogger("miko.output");
+  private static final int OBJECT_DATA_BIT = 1 << 7 - EntityUpdateType.OBJECT_DATA.getId();
+  private static final int MAX_POOLED_MESSAGES = 64;
+  private static final ArrayDeque<EntityUpdateMessage> pool = new ArrayDeque<>(MAX_POOLED_MESSAGES);
+  // type, tick, entité, champ de bits, position, angle et norme de la vitesse
+  private static final int DEFAULT_CAPACITY = 32;
+  // indices dans data du début de l'entité et de ses champs
+  private static final int ENTITY_OFFSET = 3;
+  private static final int FIELDS_OFFSET = 6;
+  private static final int POSITION_SIZE = 6;
+  private static final int SPEED_ANGLE_SIZE = 4;
+  private static final int SPEED_NORM_SIZE = 4;
+  private int entityId;
+  private int updateTypesByte;
+  private int x;
+  private int y;
+  private float speedAngle;
+  private byte[] data = new byte[DEFAULT_CAPACITY];
+  private int size;
+
+  private EntityUpdateMessage() {}
+
+  /**
+   * Crée un message de mise à jour d'entité, pris dans le pool si possible.
+   *
+   * @param tick             Le tick de la mise à jour.
+   * @param entityDataUpdate La mise à jour à envoyer.
+   * @return Le message, à rendre au pool avec {@link #release()} une fois écrit.
+   */
+  public static EntityUpdateMessage encode(long tick, EntityDataUpdate entityDataUpdate) {
+    EntityUpdateMessage message = acquire();
+    message.write(tick, entityDataUpdate);
+    return message;
+  }
+
+  /**
+   * Crée un message de mise à jour de la position et de la vitesse d'une entité, pris dans le pool
+   * si possible, sans passer par un {@link EntityDataUpdate}.
+   *
+   * @param tick       Le tick de la mise à jour.
+   * @param entityId   L'entityId de l'entité.
+   * @param x          La position X de l'entité.
+   * @param y          La position Y de l'entité.
+   * @param speedAngle L'angle de la vitesse de l'entité.
+   * @param speedNorm  La norme de la vitesse de l'entité.
+   * @return Le message, à rendre au pool avec {@link #release()} une fois écrit.
+   */
+  public static EntityUpdateMessage encode(long tick, int entityId, float x, float y, float speedAngle, float speedNorm) {
+    EntityUpdateMessage message = acquire();
+    message.write(tick, entityId, x, y, speedAngle, speedNorm);
+    return message;
+  }
+
+  private static EntityUpdateMessage acquire() {
+    EntityUpdateMessage message;
+    synchronized (pool) {
+      message = pool.pollLast();
+    }
+    if (message == null) {
+      message = new EntityUpdateMessage();
+    }
+    return message;
+  }
+
+  /**
+   * Rend le message au pool ; il ne doit plus être utilisé ensuite.
+   */
+  public void release() {
+    synchronized (pool) {
+      if (pool.size() < MAX_POOLED_MESSAGES) {
+        pool.addLast(this);
+      }
+    }
+  }
+
+  /**
+   * Indique si ce message rend inutile un message plus ancien, c'est-à-dire s'il concerne la même
+   * entité et met à jour au moins tous ses champs. Les messages avec des attributs d'objets ne sont
+   * jamais remplacés, les attributs mis à jour pouvant différer.
+   *
+   * @param older Le message plus ancien.
+   * @return true si le message plus ancien peut ne pas être envoyé.
+   */
+  public boolean supersedes(EntityUpdateMessage older) {
+    if (older.entityId != entityId || (older.updateTypesByte & OBJECT_DATA_BIT) != 0) {
+      return false;
+    }
+    return (older.updateTypesByte & ~updateTypesByte) == 0;
+  }
+
+  @Override
+  public void writeTo(DataOutput dos) throws IOException {
+    logger.trace("Sent entityupdate");
+    dos.write(data, 0, size);
+  }
+
+  /**
+   * Écrit le message, en compressant la position et l'angle de la vitesse si le codec de la
+   * connexion le permet.
+   *
+   * @param dos   Le flux sur lequel écrire.
+   * @param codec Le codec d'envoi de la connexion.
+   * @throws IOException S'il y a une erreur lors de l'écriture.
+   */
+  public void writeTo(DataOutput dos, EntityUpdateCodec codec) throws IOException {
+    logger.trace("Sent entityupdate");
+    dos.write(data, 0, ENTITY_OFFSET);
+    writeEntityTo(dos, codec);
+  }
+
+  /**
+   * Écrit la mise à jour d'entité seule (<code>entity_update</code>), sans le type du message ni le
+   * tick.
+   */
+  void writeEntityTo(DataOutput dos, EntityUpdateCodec codec) throws IOException {
+    boolean hasPosition = has(EntityUpdateType.POSITION.getId());
+    if (!codec.isCompressed()) {
+      dos.write(data, ENTITY_OFFSET, size - ENTITY_OFFSET);
+      return;
+    }
+    boolean delta = hasPosition && codec.canWriteDelta(entityId, x, y);
+    boolean quantized = has(EntityUpdateType.SPEED_ANGLE.getId());
+    int bitfield = updateTypesByte;
+    if (delta) {
+      bitfield = bitfield & ~bit(EntityUpdateType.POSITION.getId()) | bit(EntityUpdateCodec.POSITION_DELTA_BIT);
+    }
+    if (quantized) {
+      bitfield = bitfield & ~bit(EntityUpdateType.SPEED_ANGLE.getId()) | bit(EntityUpdateCodec.SPEED_ANGLE_QUANTIZED_BIT);
+    }
+    dos.write(data, ENTITY_OFFSET, FIELDS_OFFSET - 1 - ENTITY_OFFSET);
+    dos.writeByte(bitfield);
+    // les champs sont écrits dans l'ordre des bits : position, angle, norme, delta, angle quantifié
+    int offset = FIELDS_OFFSET;
+    if (hasPosition) {
+      if (!delta) {
+        dos.write(data, offset, POSITION_SIZE);
+        codec.positionWritten(entityId, x, y);
+      }
+      offset += POSITION_SIZE;
+    }
+    if (quantized) {
+      offset += SPEED_ANGLE_SIZE;
+    }
+    if (has(EntityUpdateType.SPEED_NORM.getId())) {
+      dos.write(data, offset, SPEED_NORM_SIZE);
+      offset += SPEED_NORM_SIZE;
+    }
+    if (delta) {
+      codec.writeDelta(dos, entityId, x, y);
+    }
+    if (quantized) {
+      dos.writeShort(EntityUpdateCodec.quantizeAngle(speedAngle));
+    }
+    dos.write(data, offset, size - offset);
+  }
+
+  private boolean has(int bit) {
+    return (updateTypesByte & bit(bit)) != 0;
+  }
+
+  private static int bit(int bit) {
+    return 1 << 7 - bit;
+  }
+
+  private void write(long tick, EntityDataUpdate entityDataUpdate) {
+    entityId = entityDataUpdate.getEntityId();
+    size = 0;
+    writeByte(MessageType.ENTITY_UPDATE.getId());
+    writeShort((int) (tick % (1 << 16)));
+    writeShort(entityId);
+    int bitfieldPosition = size;
+    writeByte(0);
+    updateTypesByte = 0;
+    for (int b = 0; b < 8; b++) {
+      EntityUpdateType updateType = EntityUpdateType.getType(b);
+      if (updateType == null) {
+        // bit doesn't exist in the protocol or isn't implemented in client _at all_
+        // ignore
+        continue;
+      }
+      switch (updateType) {
+        case POSITION:
+          if (!entityDataUpdate.hasPosition()) {
+            continue;
+          }
+          MapPoint position = entityDataUpdate.getPosition();
+          x = (int) position.getX();
+          y = (int) position.getY();
+          writeTerrainPoint(x, y);
+          break;
+        case SPEED_ANGLE:
+          if (!entityDataUpdate.hasSpeedAngle()) {
+            continue;
+          }
+          speedAngle = entityDataUpdate.getSpeedAngle();
+          writeFloat(speedAngle);
+          break;
+        case SPEED_NORM:
+          if (!entityDataUpdate.hasSpeedNorm()) {
+            continue;
+          }
+          writeFloat(entityDataUpdate.getSpeedNorm());
+          break;
+        case ENTITY_TYPE:
+          if (!entityDataUpdate.hasEntityType()) {
+            continue;
+          }
+          writeShort(entityDataUpdate.getEntityType().getId());
+          break;
+        case SPRITE_TYPE:
+          if (!entityDataUpdate.hasSprite()) {
+            continue;
+          }
+          writeShort(entityDataUpdate.getSpriteType().getId());
+          break;
+        case OBJECT_DATA:
+          if (!entityDataUpdate.hasObjectAttributes()) {
+            continue;
+          }
+          writeObjectAttributes(entityDataUpdate);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown parameters set in entityDataUpdate");
+      }
+      updateTypesByte |= 1 << 7 - b; // on met à 1 le bit en position b en partant de la gauche
+    }
+    data[bitfieldPosition] = (byte) updateTypesByte;
+  }
+
+  private void write(long tick, int entityId, float x, float y, float speedAngle, float speedNorm) {
+    this.entityId = entityId;
+    size = 0;
+    writeByte(MessageType.ENTITY_UPDATE.getId());
+    writeShort((int) (tick % (1 << 16)));
+    writeShort(entityId);
+    updateTypesByte = bit(EntityUpdateType.POSITION.getId()) | bit(EntityUpdateType.SPEED_ANGLE.getId()) | bit(EntityUpdateType.SPEED_NORM.getId());
+    writeByte(updateTypesByte);
+    // dans l'ordre des bits, comme write(long, EntityDataUpdate)
+    this.x = (int) x;
+    this.y = (int) y;
+    writeTerrainPoint(this.x, this.y);
+    this.speedAngle = speedAngle;
+    writeFloat(speedAngle);
+    writeFloat(speedNorm);
+  }
+
+  private void writeObjectAttributes(EntityDataUpdate entityDataUpdate) {
+    int count = entityDataUpdate.getObjectAttributes().size();
+    if (count >= 1 << 16) {
+      throw new IllegalArgumentException("The attributes list is too long, max size : 65535 attributes");
+    }
+    writeShort(count);
+    for (Entry<ObjectAttribute, Object> attribute : entityDataUpdate.getObjectAttributes().entrySet()) {
+      ObjectAttribute type = attribute.getKey();
+      Object value = attribute.getValue();
+      writeShort(type.getId());
+      switch (type.getDataType()) {
+        case VOID:
+          break;
+        case ONE_SHORT:
+        case ONE_ENTITY:
+          writeShort((int) value);
+          break;
+        case ONE_FLOAT:
+          writeFloat((float) value);
+          break;
+        case ONE_TERRAIN:
+          TerrainPoint point = (TerrainPoint) value;
+          writeTerrainPoint(point.getX(), point.getY());
+          break;
+        case PAIR_FLOAT_ENTITY:
+          @SuppressWarnings("unchecked")
+          Pair<Float, Integer> pair = (Pair<Float, Integer>) value;
+          writeFloat(pair.getFirst());
+          writeShort(pair.getSecond());
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown parameters set in entityDataUpdate objectattributes");
+      }
+    }
+  }
+
+  // division euclidienne, pour que chunk * 256 + case redonne exactement la position, y compris
+  // pour les multiples négatifs de 256 : le codec garde cette position comme base des deltas
+  private void writeTerrainPoint(int x, int y) {
+    writeShort(x >> 8);
+    writeShort(y >> 8);
+    writeByte(x & 0xFF);
+    writeByte(y & 0xFF);
+  }
+
+  private void writeByte(int v) {
+    ensureCapacity(1);
+    data[size++] = (byte) v;
+  }
+
+  private void writeShort(int v) {
+    ensureCapacity(2);
+    data[size++] = (byte) (v >>> 8);
+    data[size++] = (byte) v;
+  }
+
+  private void writeFloat(float v) {
+    ensureCapacity(4);
+    int bits = Float.floatToIntBits(v);
+    data[size++] = (byte) (bits >>> 24);
+    data[size++] = (byte) (bits >>> 16);
+    data[size++] = (byte) (bits >>> 8);
+    data[size++] = (byte) bits;
+  }
+
+  private void ensureCapacity(int length) {
+    if (size + length > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+    }
+  }
+}
@@ -1,9 +1,9 @@
 package cr.fr.saucisseroyale.miko.network;
 
-import java.io.DataOutputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 
 @FunctionalInterface
 public interface FutureOutputMessage {
-  void writeTo(DataOutputStream dos) throws IOException;
+  void writeTo(DataOutput dos) throws IOException;
 }
@@ -0,0 +1,78 @@
+package cr.fr.saucisseroyale.miko.network;
+
+/**
+ * L'état de réception d'une connexion, utilisé pour parse ses messages.
+ * <p>
+ * La lecture de chaque message doit commencer par {@link #beginMessage()}, pour pouvoir annuler ses
+ * effets avec {@link #rollbackMessage()} si le message est incomplet.
+ *
+ * @see InputMessageFactory#parseMessage(java.io.DataInput, InputContext)
+ */
+final class InputContext {
+  private final int protocolVersion;
+  private final EntityUpdateFrame.Pool frames = new EntityUpdateFrame.Pool();
+  private final EntityUpdateCodec entityCodec;
+  private final ChunkCodec chunkCodec;
+  private final ChunkCache chunkCache;
+
+  /**
+   * @param protocolVersion La version du protocole négociée sur la connexion.
+   * @param chunkCache      Le cache des blocs de terrain du serveur, ou null s'il n'y en a pas.
+   */
+  public InputContext(int protocolVersion, ChunkCache chunkCache) {
+    this.protocolVersion = protocolVersion;
+    this.chunkCache = chunkCache;
+    entityCodec = new EntityUpdateCodec(protocolVersion);
+    chunkCodec = new ChunkCodec(protocolVersion);
+  }
+
+  /**
+   * Commence la lecture d'un message.
+   */
+  public void beginMessage() {
+    entityCodec.beginMessage();
+  }
+
+  /**
+   * Annule les effets de la lecture du message en cours sur l'état de la connexion, pour le relire
+   * depuis son début quand il sera complet.
+   */
+  public void rollbackMessage() {
+    entityCodec.rollbackMessage();
+  }
+
+  /**
+   * @return La version du protocole négociée sur la connexion.
+   */
+  public int getProtocolVersion() {
+    return protocolVersion;
+  }
+
+  /**
+   * @return Le pool des frames de mises à jour d'entités.
+   */
+  public EntityUpdateFrame.Pool getFrames() {
+    return frames;
+  }
+
+  /**
+   * @return Le codec de réception des mises à jour d'entités.
+   */
+  public EntityUpdateCodec getEntityCodec() {
+    return entityCodec;
+  }
+
+  /**
+   * @return Le codec de réception des blocs de terrain.
+   */
+  public ChunkCodec getChunkCodec() {
+    return chunkCodec;
+  }
+
+  /**
+   * @return Le cache des blocs de terrain du serveur, ou null s'il n'y en a pas.
+   */
+  public ChunkCache getChunkCache() {
+    return chunkCache;
+  }
+}
@@ -1,26 +1,24 @@
 package cr.fr.saucisseroyale.miko.network;
 
-import cr.fr.saucisseroyale.miko.engine.Block;
 import cr.fr.saucisseroyale.miko.engine.Chunk;
 import cr.fr.saucisseroyale.miko.protocol.*;
-import cr.fr.saucisseroyale.miko.protocol.EntityDataUpdate.Builder;
 import cr.fr.saucisseroyale.miko.util.Pair;
 import cr.fr.saucisseroyale.miko.util.Pair.Int;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.DataInputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Factory permettant de parse des {@link FutureInputMessage} à partir de flux.
+ * Factory permettant de parse des {@link FutureInputMessage} à partir de flux ou de buffers.
  *
- * @see #parseMessage(DataInputStream)
+ * @see #parseMessage(DataInput, InputContext)
  */
 final class InputMessageFactory {
   private static Logger logger = LogManager.getLogger("miko.input");
@@ -32,21 +30,29 @@ final class InputMessageFactory {
 
   /**
    * Parse un message entrant d'un flux dans un {@link FutureInputMessage}
+   * <p>
+   * Le flux peut être un {@link ByteBufferDataInput}, auquel cas un message incomplet est signalé
+   * par une {@link java.nio.BufferUnderflowException}, après lequel le message doit être relu depuis
+   * son début, après {@link InputContext#rollbackMessage()}.
+   * <p>
+   * Les messages de création et de mise à jour d'entités sont parse dans une frame du pool du
+   * contexte, sans créer d'objet.
    *
-   * @param dis Le flux de données entrant pour parse un message.
+   * @param dis     Le flux de données entrant pour parse un message.
+   * @param context L'état de réception de la connexion.
    * @return Un {@link FutureInputMessage} correspondant à ce qui a été parse.
    * @throws MessageParseException S'il y a une erreur lors de la lecture (le flux est alors dans un
    *                               état <b>corrompu et irrécupérable</b>).
    * @throws IOException           S'il y a une erreur quelconque lors de la récupération des données.
    */
-  public static FutureInputMessage parseMessage(DataInputStream dis) throws IOException {
+  public static FutureInputMessage parseMessage(DataInput dis, InputContext context) throws IOException {
+    context.beginMessage();
     int messageCode = dis.readUnsignedByte();
     MessageType messageType = MessageType.getType(messageCode);
     if (messageType == null) {
-      System.out.println("erreur : " + messageCode);
+      logger.trace("Received unknown message code {}", messageCode);
       throw newParseException();
     }
-    System.out.println("reçu " + messageType);
     int tickRemainder;
     switch (messageType) {
       case PING:
@@ -107,7 +113,8 @@ final class InputMessageFactory {
         }
       case CHUNK_UPDATE:
         tickRemainder = dis.readUnsignedShort();
-        Pair<ChunkPoint, Chunk> chunkPair = readChunk(dis);
+        Pair<ChunkPoint, Chunk> chunkPair = context.getChunkCodec().read(dis);
+        cacheChunk(context, chunkPair);
         logger.trace("Received chunk update, tickRemainder {}", tickRemainder);
         return handler -> handler.chunksUpdate(tickRemainder, Collections.singletonList(chunkPair));
       case CHUNKS_UPDATE:
@@ -115,20 +122,41 @@ final class InputMessageFactory {
         int chunksUpdateSize = dis.readUnsignedShort();
         List<Pair<ChunkPoint, Chunk>> chunks = new ArrayList<>(chunksUpdateSize);
         for (int i = 0; i < chunksUpdateSize; i++) {
-          chunks.add(readChunk(dis));
+          chunks.add(context.getChunkCodec().read(dis));
+        }
+        for (Pair<ChunkPoint, Chunk> chunk : chunks) {
+          cacheChunk(context, chunk);
         }
         logger.trace("Received chunks update, tickRemainder {}", tickRemainder);
         return handler -> handler.chunksUpdate(tickRemainder, chunks);
+      case CHUNKS_CACHED:
+        tickRemainder = dis.readUnsignedShort();
+        int chunksCachedSize = dis.readUnsignedShort();
+        ChunkPoint[] chunkPoints = new ChunkPoint[chunksCachedSize];
+        for (int i = 0; i < chunksCachedSize; i++) {
+          int chunkX = dis.readShort();
+          int chunkY = dis.readShort();
+          chunkPoints[i] = new ChunkPoint(chunkX, chunkY);
+        }
+        CompletableFuture<List<Pair<ChunkPoint, Chunk>>> cachedChunks = readCachedChunks(context, chunkPoints);
+        logger.trace("Received chunks cached, tickRemainder {}", tickRemainder);
+        // blocs lus par le thread du cache, en général déjà lus quand le message est traité
+        return handler -> handler.chunksUpdate(tickRemainder, cachedChunks.join());
       case ENTITIES_UPDATE:
         tickRemainder = dis.readUnsignedShort();
         int entitiesSize = dis.readUnsignedShort();
-        List<EntityDataUpdate> entitiesUpdateList = new ArrayList<>(entitiesSize);
-        for (int i = 0; i < entitiesSize; i++) {
-          EntityDataUpdate entityDataUpdate = readEntityDataUpdate(dis);
-          entitiesUpdateList.add(entityDataUpdate);
+        EntityUpdateFrame entitiesFrame = context.getFrames().acquire();
+        try {
+          EntityUpdateCursor cursor = entitiesFrame.reset(false, tickRemainder);
+          for (int i = 0; i < entitiesSize; i++) {
+            context.getEntityCodec().read(dis, cursor);
+          }
+        } catch (IOException | RuntimeException e) {
+          entitiesFrame.release();
+          throw e;
         }
         logger.trace("Received entitiesUpdates, tickRemainder {}", tickRemainder);
-        return handler -> handler.entitiesUpdate(tickRemainder, entitiesUpdateList);
+        return entitiesFrame;
       case ACTIONS:
         tickRemainder = dis.readUnsignedShort();
         int actionsSize = dis.readUnsignedShort();
@@ -142,9 +170,15 @@ final class InputMessageFactory {
         return handler -> handler.actions(tickRemainder, actions);
       case ENTITY_CREATE:
         tickRemainder = dis.readUnsignedShort();
-        EntityDataUpdate entityCreateUpdate = readEntityDataUpdate(dis);
+        EntityUpdateFrame createFrame = context.getFrames().acquire();
+        try {
+          context.getEntityCodec().read(dis, createFrame.reset(true, tickRemainder));
+        } catch (IOException | RuntimeException e) {
+          createFrame.release();
+          throw e;
+        }
         logger.trace("Received entityCreate, tickRemainder {}", tickRemainder);
-        return handler -> handler.entityCreate(tickRemainder, entityCreateUpdate);
+        return createFrame;
       case ENTITY_DESTROY:
         tickRemainder = dis.readUnsignedShort();
         int entityIdDestroy = dis.readUnsignedShort();
@@ -174,7 +208,7 @@ final class InputMessageFactory {
     return handler -> handler.networkError(e);
   }
 
-  private static Action readAction(DataInputStream dis) throws IOException {
+  private static Action readAction(DataInput dis) throws IOException {
     int actionCode = dis.readUnsignedShort();
     ActionType actionType = ActionType.getType(actionCode);
     if (actionType == null) {
@@ -184,104 +218,28 @@ final class InputMessageFactory {
     return new Action(actionType, value);
   }
 
-  private static Block readBlock(DataInputStream dis) throws IOException {
-    int x = dis.readUnsignedByte();
-    int y = dis.readUnsignedByte();
-    int code = dis.readUnsignedByte();
-    TerrainType type = TerrainType.getType(code);
-    if (type == null) {
-      throw newParseException();
+  // le bloc n'est ajouté qu'une fois le message entier lu, un message incomplet étant relu
+  private static void cacheChunk(InputContext context, Pair<ChunkPoint, Chunk> chunk) {
+    ChunkCache chunkCache = context.getChunkCache();
+    if (chunkCache != null) {
+      chunkCache.put(chunk.getFirst(), chunk.getSecond());
     }
-    Block block = new Block(x, y, type);
-    return block;
-  }
-
-  private static ChunkPoint readChunkPoint(DataInputStream dis) throws IOException {
-    int chunkX = dis.readShort();
-    int chunkY = dis.readShort();
-    ChunkPoint chunkPoint = new ChunkPoint(chunkX, chunkY);
-    return chunkPoint;
   }
 
-  private static Pair<ChunkPoint, Chunk> readChunk(DataInputStream dis) throws IOException {
-    ChunkPoint chunkPoint = readChunkPoint(dis);
-    int defaultCode = dis.readUnsignedByte();
-    TerrainType defaultType = TerrainType.getType(defaultCode);
-    if (defaultType == null) {
+  private static CompletableFuture<List<Pair<ChunkPoint, Chunk>>> readCachedChunks(InputContext context, ChunkPoint[] chunkPoints)
+          throws IOException {
+    if (context.getProtocolVersion() < ChunkCache.HASHES_VERSION) {
       throw newParseException();
     }
-    int blocksSize = dis.readUnsignedShort();
-    Block[] blocks = new Block[blocksSize];
-    for (int i = 0; i < blocksSize; i++) {
-      Block block = readBlock(dis);
-      blocks[i] = block;
-    }
-    Chunk chunk = new Chunk(defaultType, Arrays.asList(blocks));
-    return new Pair<>(chunkPoint, chunk);
-  }
-
-  private static EntityDataUpdate readEntityDataUpdate(DataInputStream dis) throws IOException {
-    int entityId = dis.readUnsignedShort();
-    Builder builder = new Builder(entityId);
-    byte bitfield = dis.readByte();
-    for (int b = 0; b < 8; b++) {
-      if ((bitfield & 1 << 7 - b) == 0) {
-        continue;
-      }
-      EntityUpdateType type = EntityUpdateType.getType(b);
-      if (type == null) {
-        throw newParseException();
-      }
-      switch (type) {
-        case POSITION:
-          TerrainPoint terrainPoint = readTerrainPoint(dis);
-          builder.position(terrainPoint);
-          break;
-        case SPEED_ANGLE:
-          float speedAngle = dis.readFloat();
-          builder.speedAngle(speedAngle);
-          break;
-        case SPEED_NORM:
-          float speedNorm = dis.readFloat();
-          builder.speedNorm(speedNorm);
-          break;
-        case ENTITY_TYPE:
-          int entityTypeCode = dis.readUnsignedShort();
-          EntityType entityType = EntityType.getType(entityTypeCode);
-          if (entityType == null) {
-            throw newParseException();
-          }
-          builder.entityType(entityType);
-          break;
-        case SPRITE_TYPE:
-          int spriteTypeCode = dis.readUnsignedShort();
-          SpriteType spriteType = SpriteType.getType(spriteTypeCode);
-          if (spriteType == null) {
-            throw newParseException();
-          }
-          builder.spriteType(spriteType);
-          break;
-        case OBJECT_DATA:
-          int objectDataUpdateSize = dis.readUnsignedShort();
-          for (int j = 0; j < objectDataUpdateSize; j++) {
-            int objectAttributeCode = dis.readUnsignedShort();
-            ObjectAttribute objectAttribute = ObjectAttribute.getType(objectAttributeCode);
-            if (objectAttribute == null) {
-              throw newParseException();
-            }
-            Object objectAttributeData = readObject(dis, objectAttribute.getDataType());
-            builder.objectAttribute(objectAttribute, objectAttributeData);
-            System.out.println("attension " + objectAttribute + " " + objectAttributeData);
-          }
-          break;
-        default:
-          throw newParseException();
-      }
+    ChunkCache chunkCache = context.getChunkCache();
+    if (chunkCache == null) {
+      logger.warn("Received {} chunks as cached but there is no cache", chunkPoints.length);
+      return CompletableFuture.completedFuture(new ArrayList<>());
     }
-    return builder.build();
+    return chunkCache.getAsync(chunkPoints);
   }
 
-  private static Object readObject(DataInputStream dis, DataType type) throws IOException {
+  private static Object readObject(DataInput dis, DataType type) throws IOException {
     switch (type) {
       case VOID:
         return null;
@@ -301,7 +259,7 @@ final class InputMessageFactory {
     }
   }
 
-  private static TerrainPoint readTerrainPoint(DataInputStream dis) throws IOException {
+  private static TerrainPoint readTerrainPoint(DataInput dis) throws IOException {
     int chunkX = dis.readShort();
     int chunkY = dis.readShort();
     int blockX = dis.readUnsignedByte();
@@ -310,7 +268,7 @@ final class InputMessageFactory {
     return terrainPoint;
   }
 
-  private static Config readConfig(DataInputStream dis) throws IOException {
+  private static Config readConfig(DataInput dis) throws IOException {
     int maxRollbackTicks = dis.readUnsignedShort();
     int timeServerPort = dis.readUnsignedShort();
     float defaultPlayerSpeed = dis.readFloat();
@@ -320,8 +278,8 @@ final class InputMessageFactory {
     return new Config(maxRollbackTicks, timeServerPort, defaultPlayerSpeed, playerBallCooldown, defaultBallSpeed, defaultBallLifespan);
   }
 
-  // DIS' readString method reads some codepoints differently than what we want, use a custom readString method
-  private static String readString(DataInputStream dis) throws IOException {
+  // DataInput's readUTF method reads some codepoints differently than what we want, use a custom readString method
+  private static String readString(DataInput dis) throws IOException {
     int length = dis.readUnsignedShort();
     byte[] data = new byte[length];
     dis.readFully(data);
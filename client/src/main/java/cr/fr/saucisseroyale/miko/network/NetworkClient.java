@@ -1,50 +1,94 @@
 package cr.fr.saucisseroyale.miko.network;
 
+import cr.fr.saucisseroyale.miko.Miko;
+import cr.fr.saucisseroyale.miko.util.SpscRingBuffer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Client de connexion à un serveur Miko fonctionnant sur la couche des messages.
+ * <p>
+ * Par défaut, le client utilise une socket bloquante et deux threads (réception et envoi). Créé
+ * avec un {@link NetworkSelector}, il utilise une connexion non bloquante gérée par le thread du
+ * sélecteur, qui peut être partagé entre de nombreux clients.
+ * <p>
+ * Les messages passent entre le réseau et le thread de jeu par deux files bornées sans verrou,
+ * propres à chaque connexion : les messages reçus d'une connexion précédente sont ignorés à la
+ * connexion suivante, et les messages pas encore envoyés à la déconnexion sont ignorés. Un
+ * seul thread doit appeler {@link #getMessage()}, et un seul thread {@link #putMessage(FutureOutputMessage)}.
+ * Quand la file de réception est pleine, la réception attend que le thread de jeu la vide ; quand la
+ * file d'envoi est pleine, {@link #putMessage(FutureOutputMessage)} attend que les messages soient
+ * envoyés. Ces dépassements sont comptés, voir {@link #getInputOverflowCount()} et
+ * {@link #getOutputOverflowCount()}.
  *
  * @see FutureInputMessage
  * @see FutureOutputMessage
  */
 public class NetworkClient {
   private static Logger logger = LogManager.getLogger("miko.network");
-  private SSLSocketFactory socketFactory;
+  private static final int INPUT_CAPACITY = 4096;
+  private static final int OUTPUT_CAPACITY = 1024;
+  private static final long CHUNK_CACHE_CLOSE_TIMEOUT_SECONDS = 5;
+  private SSLContext sslContext;
+  private NetworkSelector selector;
   private Socket socket;
+  private volatile NioConnection connection;
   private ReceiverThread receiverThread;
   private SenderThread senderThread;
   private String lastAddressString;
   private InetSocketAddress lastAddress;
-  private Queue<FutureInputMessage> inputMessages = new ConcurrentLinkedQueue<>();
-  private BlockingQueue<FutureOutputMessage> outputMessages = new LinkedBlockingQueue<>();
+  // les threads d'une connexion fermée peuvent encore utiliser ses files : la file de réception est
+  // recréée à chaque connexion, celle d'envoi à chaque déconnexion
+  private volatile SpscRingBuffer<FutureInputMessage> inputMessages = new SpscRingBuffer<>(INPUT_CAPACITY);
+  private volatile SpscRingBuffer<FutureOutputMessage> outputMessages = new SpscRingBuffer<>(OUTPUT_CAPACITY);
+  // erreur réseau à transmettre au thread de jeu après les messages reçus avant elle
+  private AtomicReference<Exception> networkError = new AtomicReference<>();
+  // incrémenté à chaque connexion et déconnexion, pour ignorer les erreurs des connexions fermées
+  private AtomicInteger connectionId = new AtomicInteger();
+  private long lastInputOverflowCount;
+  private volatile ChunkCache chunkCache;
+  // fermeture du dernier cache, qui garde son fichier verrouillé jusqu'à sa fin
+  private volatile CompletableFuture<Void> chunkCacheClosing;
 
   public NetworkClient() {
     try {
-      socketFactory = createSocketFactory();
-      logger.debug("Created socket factory");
+      sslContext = createSslContext();
+      logger.debug("Created SSL context");
     } catch (Exception e) {
-      logger.fatal("Failed creating socket factory while initating network client", e);
+      logger.fatal("Failed creating SSL context while initating network client", e);
       throw new RuntimeException(e);
     }
   }
 
-  private static SSLSocketFactory createSocketFactory() throws GeneralSecurityException, IOException {
+  /**
+   * Crée un client non bloquant, dont la connexion sera gérée par le sélecteur spécifié.
+   *
+   * @param selector Le sélecteur gérant la connexion du client.
+   */
+  public NetworkClient(NetworkSelector selector) {
+    this();
+    this.selector = selector;
+  }
+
+  private static SSLContext createSslContext() throws GeneralSecurityException, IOException {
     KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
     try (InputStream keyStoreStream = NetworkClient.class.getResourceAsStream("/keystore")) {
       keyStore.load(keyStoreStream, "keypass".toCharArray());
@@ -53,23 +97,60 @@ public class NetworkClient {
     tmf.init(keyStore);
     SSLContext context = SSLContext.getInstance("TLS");
     context.init(null, tmf.getTrustManagers(), null);
-    return context.getSocketFactory();
+    return context;
   }
 
   /**
-   * Se connecte au serveur spécifié et démarre les threads d'envoi et de réception des messages.
+   * Se connecte au serveur spécifié avec la version courante du protocole.
    *
    * @param address L'adresse du serveur auquel se connecter (IP ou nom d'hôte).
    * @param port    Le port auquel se connecter.
    * @throws IOException S'il y a des erreurs quelconques d'IO lors de la connexion.
+   * @see #connect(String, int, int)
    */
   public void connect(String address, int port) throws IOException {
-    logger.debug("Starting connection to server {} at port {}", address, port);
-    socket = socketFactory.createSocket(address, port);
+    connect(address, port, Miko.PROTOCOL_VERSION);
+  }
+
+  /**
+   * Se connecte au serveur spécifié et démarre les threads d'envoi et de réception des messages, ou
+   * confie la connexion au sélecteur du client.
+   * <p>
+   * Les messages sont encodés et décodés selon la version du protocole spécifiée, qui doit être
+   * celle envoyée au serveur dans le message de version.
+   *
+   * @param address         L'adresse du serveur auquel se connecter (IP ou nom d'hôte).
+   * @param port            Le port auquel se connecter.
+   * @param protocolVersion La version du protocole à utiliser.
+   * @throws IOException S'il y a des erreurs quelconques d'IO lors de la connexion.
+   */
+  public void connect(String address, int port, int protocolVersion) throws IOException {
+    logger.debug("Starting connection to server {} at port {} with protocol version {}", address, port, protocolVersion);
+    networkError.set(null);
+    int id = connectionId.incrementAndGet();
+    inputMessages = new SpscRingBuffer<>(INPUT_CAPACITY);
+    lastInputOverflowCount = 0;
+    Consumer<Exception> errorCallback = e -> networkError(id, e);
+    if (protocolVersion >= ChunkCache.HASHES_VERSION) {
+      openChunkCache(address, port);
+    }
+    if (selector != null) {
+      SSLEngine engine = sslContext.createSSLEngine(address, port);
+      engine.setUseClientMode(true);
+      connection = new NioConnection(selector, engine, protocolVersion, chunkCache, inputMessages, outputMessages, errorCallback);
+      connection.connect(new InetSocketAddress(address, port));
+      // messages added before the connection
+      connection.requestFlush();
+      lastAddress = connection.getRemoteAddress();
+      lastAddressString = address;
+      logger.info("Connected to server {} at port {}", address, port);
+      return;
+    }
+    socket = sslContext.getSocketFactory().createSocket(address, port);
     socket.setTcpNoDelay(true);
     socket.setTrafficClass(0x10); // LOWDELAY
-    receiverThread = new ReceiverThread(socket.getInputStream(), inputMessages, this::networkError);
-    senderThread = new SenderThread(socket.getOutputStream(), outputMessages, this::networkError);
+    receiverThread = new ReceiverThread(socket.getInputStream(), protocolVersion, chunkCache, inputMessages, errorCallback);
+    senderThread = new SenderThread(socket.getOutputStream(), protocolVersion, outputMessages, errorCallback);
     receiverThread.start();
     senderThread.start();
     lastAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
@@ -84,6 +165,13 @@ public class NetworkClient {
    * messages sont encores reçus ou ajoutés à la liste d'envoi, ils seront ignorés.
    */
   public void disconnect() {
+    connectionId.incrementAndGet();
+    outputMessages = new SpscRingBuffer<>(OUTPUT_CAPACITY);
+    if (connection != null) {
+      logger.info("Disconnected from server");
+      connection.close();
+      connection = null;
+    }
     if (receiverThread != null) {
       receiverThread.interrupt();
       receiverThread = null;
@@ -101,6 +189,15 @@ public class NetworkClient {
       }
       socket = null;
     }
+    closeChunkCache();
+  }
+
+  /**
+   * @return Le cache des blocs de terrain du serveur auquel le client est connecté, ou null si la
+   * version du protocole n'utilise pas les empreintes de blocs ou si le cache n'a pas pu être ouvert.
+   */
+  public ChunkCache getChunkCache() {
+    return chunkCache;
   }
 
   /**
@@ -123,20 +220,105 @@ public class NetworkClient {
    * @return Le message reçu le plus ancien, ou <code>null</code> si aucun message n'est en attente.
    */
   public FutureInputMessage getMessage() {
-    return inputMessages.poll();
+    SpscRingBuffer<FutureInputMessage> inputMessages = this.inputMessages;
+    FutureInputMessage fim = inputMessages.poll();
+    NioConnection connection = this.connection;
+    if (connection != null) {
+      connection.inputConsumed();
+    }
+    if (fim != null) {
+      return fim;
+    }
+    long inputOverflowCount = inputMessages.getOverflowCount();
+    if (inputOverflowCount != lastInputOverflowCount) {
+      logger.warn("Receive queue was full {} times, the game loop is behind the network", inputOverflowCount - lastInputOverflowCount);
+      lastInputOverflowCount = inputOverflowCount;
+    }
+    Exception e = networkError.getAndSet(null);
+    return e == null ? null : InputMessageFactory.networkError(e);
   }
 
   /**
-   * Ajoute un message à la liste d'envoi des messages.
+   * Ajoute un message à la liste d'envoi des messages, en attendant qu'il y ait de la place si elle
+   * est pleine.
    *
    * @param fom Le message à envoyer.
    */
   public void putMessage(FutureOutputMessage fom) {
-    outputMessages.add(fom);
+    SpscRingBuffer<FutureOutputMessage> outputMessages = this.outputMessages;
+    if (!outputMessages.offer(fom)) {
+      logger.warn("Send queue full, waiting for the network");
+      try {
+        outputMessages.put(fom);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    NioConnection connection = this.connection;
+    if (connection != null) {
+      connection.requestFlush();
+    }
   }
 
-  private void networkError(Exception e) {
-    inputMessages.add(InputMessageFactory.networkError(e));
+  /**
+   * @return Le nombre de messages dans la file de réception.
+   */
+  public int getInputBacklog() {
+    return inputMessages.size();
+  }
+
+  /**
+   * @return Le nombre de fois où la réception de la connexion actuelle a trouvé la file de réception
+   * pleine.
+   */
+  public long getInputOverflowCount() {
+    return inputMessages.getOverflowCount();
+  }
+
+  /**
+   * @return Le nombre de fois où {@link #putMessage(FutureOutputMessage)} a trouvé la file d'envoi
+   * de la connexion actuelle pleine.
+   */
+  public long getOutputOverflowCount() {
+    return outputMessages.getOverflowCount();
+  }
+
+  private void openChunkCache(String address, int port) {
+    closeChunkCache();
+    CompletableFuture<Void> closing = chunkCacheClosing;
+    if (closing != null) {
+      try {
+        closing.get(CHUNK_CACHE_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException e) {
+        logger.warn("Timed out closing previous chunk cache", e);
+      }
+    }
+    Path file = ChunkCache.getDefaultFile(address, port);
+    try {
+      chunkCache = new ChunkCache(file);
+    } catch (IOException e) {
+      logger.warn("Failed opening chunk cache {}, terrain will not be cached", file, e);
+    }
+  }
+
+  // sans attendre l'écriture des blocs en attente : peut être appelé par le thread du sélecteur
+  private void closeChunkCache() {
+    ChunkCache chunkCache = this.chunkCache;
+    if (chunkCache != null) {
+      this.chunkCache = null;
+      chunkCacheClosing = chunkCache.closeAsync();
+    }
+  }
+
+  private void networkError(int id, Exception e) {
+    if (connectionId.get() != id) {
+      logger.debug("Ignored network error of a closed connection", e);
+      return;
+    }
+    networkError.compareAndSet(null, e);
     disconnect();
   }
 }
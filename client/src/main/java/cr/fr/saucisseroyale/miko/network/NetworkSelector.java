@@ -0,0 +1,112 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Une boucle de sélection réseau, gérant les connexions de plusieurs {@link NetworkClient} non
+ * bloquants sur un seul thread.
+ * <p>
+ * Là où un client bloquant utilise deux threads par connexion, un seul sélecteur peut faire tourner
+ * des centaines de clients dans un même processus, par exemple pour des tests de charge du serveur.
+ * Les buffers des connexions sont des buffers directs réutilisés d'une connexion à l'autre.
+ *
+ * @see NetworkClient#NetworkClient(NetworkSelector)
+ */
+public class NetworkSelector implements Closeable {
+  private static Logger logger = LogManager.getLogger("miko.network");
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final BufferPool bufferPool = new BufferPool();
+  private final Thread thread;
+
+  /**
+   * Crée un sélecteur et démarre son thread.
+   *
+   * @throws IOException S'il y a une erreur lors de la création du sélecteur.
+   */
+  public NetworkSelector() throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this::run, "Miko Network Selector");
+    thread.setDaemon(true);
+    thread.start();
+    logger.debug("Started network selector");
+  }
+
+  /**
+   * Arrête le thread du sélecteur. Les connexions encore ouvertes sont fermées et leurs clients
+   * reçoivent une erreur réseau.
+   */
+  @Override
+  public void close() {
+    thread.interrupt();
+  }
+
+  /**
+   * Exécute une tâche sur le thread du sélecteur, dès que possible.
+   *
+   * @param task La tâche à exécuter.
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  Selector getSelector() {
+    return selector;
+  }
+
+  BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  private void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        selector.select();
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            // les tâches des connexions gèrent leurs erreurs, ne pas arrêter les autres connexions
+            logger.error("Network selector task failed", e);
+          }
+        }
+        Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        for (SelectionKey key : selectedKeys) {
+          NioConnection connection = (NioConnection) key.attachment();
+          try {
+            connection.handle();
+          } catch (RuntimeException e) {
+            connection.fail(e);
+          }
+        }
+        selectedKeys.clear();
+      }
+    } catch (IOException e) {
+      logger.error("Network selector failed", e);
+    } finally {
+      List<SelectionKey> keys = new ArrayList<>(selector.keys());
+      for (SelectionKey key : keys) {
+        ((NioConnection) key.attachment()).fail(new IOException("Network selector closed"));
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // selector closing failed, ignore.
+      }
+      logger.debug("Stopped network selector");
+    }
+  }
+}
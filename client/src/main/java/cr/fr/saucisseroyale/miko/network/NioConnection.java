@@ -0,0 +1,351 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import cr.fr.saucisseroyale.miko.util.SpscRingBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Une connexion TLS non bloquante à un serveur Miko, gérée par un {@link NetworkSelector}.
+ * <p>
+ * Les données reçues sont déchiffrées par un {@link SSLEngine} dans un buffer direct, dans lequel
+ * les messages sont parse directement. Les messages à envoyer sont écrits directement dans un
+ * buffer direct, puis chiffrés et envoyés par le thread du sélecteur.
+ * <p>
+ * Quand la file de réception est pleine, la connexion arrête de lire la socket jusqu'à ce que le
+ * thread de jeu la vide et appelle {@link #inputConsumed()}.
+ * <p>
+ * Sauf {@link #connect(InetSocketAddress)}, {@link #requestFlush()}, {@link #inputConsumed()} et
+ * {@link #close()}, toutes les méthodes sont appelées sur le thread du sélecteur.
+ */
+class NioConnection {
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+  private final NetworkSelector selector;
+  private final SSLEngine engine;
+  private final SpscRingBuffer<FutureInputMessage> inputMessages;
+  private final SpscRingBuffer<FutureOutputMessage> outputMessages;
+  private final Consumer<Exception> errorCallback;
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  private final AtomicBoolean resumeRequested = new AtomicBoolean();
+  private final Runnable flushTask = this::flush;
+  private final Runnable resumeTask = this::resume;
+  private final ByteBufferDataInput input = new ByteBufferDataInput();
+  private final InputContext context;
+  private final OutputBatch batch;
+  private volatile boolean closed;
+  // la file de réception était pleine au dernier parse
+  private volatile boolean inputBlocked;
+  private boolean endOfStream;
+  // fermeture TLS reçue du serveur
+  private boolean tlsClosed;
+  private SocketChannel channel;
+  private SelectionKey key;
+  // données chiffrées reçues et à envoyer, en mode écriture
+  private ByteBuffer netIn;
+  private ByteBuffer netOut;
+  // données déchiffrées pas encore parse, en mode écriture
+  private ByteBuffer appIn;
+  // données à chiffrer
+  private ByteBufferDataOutput appOut;
+
+  public NioConnection(NetworkSelector selector, SSLEngine engine, int protocolVersion, ChunkCache chunkCache, SpscRingBuffer<FutureInputMessage> inputMessages,
+                       SpscRingBuffer<FutureOutputMessage> outputMessages, Consumer<Exception> errorCallback) {
+    this.selector = selector;
+    context = new InputContext(protocolVersion, chunkCache);
+    batch = new OutputBatch(new EntityUpdateCodec(protocolVersion));
+    this.engine = engine;
+    this.inputMessages = inputMessages;
+    this.outputMessages = outputMessages;
+    this.errorCallback = errorCallback;
+  }
+
+  /**
+   * Se connecte à l'adresse spécifiée, de manière bloquante, puis confie la connexion au sélecteur
+   * qui fera le handshake TLS.
+   *
+   * @param address L'adresse à laquelle se connecter.
+   * @throws IOException S'il y a une erreur lors de la connexion.
+   */
+  public void connect(InetSocketAddress address) throws IOException {
+    channel = SocketChannel.open(address);
+    try {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.setOption(StandardSocketOptions.IP_TOS, 0x10); // LOWDELAY
+      channel.configureBlocking(false);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    selector.execute(this::start);
+  }
+
+  /**
+   * @return L'adresse du serveur.
+   * @throws IOException S'il y a une erreur lors de la récupération de l'adresse.
+   */
+  public InetSocketAddress getRemoteAddress() throws IOException {
+    return (InetSocketAddress) channel.getRemoteAddress();
+  }
+
+  /**
+   * Demande l'envoi des messages de la file d'envoi ; les messages ajoutés avant que le sélecteur ne
+   * traite l'envoi sont envoyés ensemble.
+   */
+  public void requestFlush() {
+    if (closed) {
+      return;
+    }
+    if (flushRequested.compareAndSet(false, true)) {
+      selector.execute(flushTask);
+    }
+  }
+
+  /**
+   * Indique que le thread de jeu a retiré des messages de la file de réception, pour reprendre la
+   * lecture si elle avait été arrêtée par une file pleine.
+   */
+  public void inputConsumed() {
+    if (inputBlocked && !closed && resumeRequested.compareAndSet(false, true)) {
+      selector.execute(resumeTask);
+    }
+  }
+
+  /**
+   * Ferme la connexion, en envoyant au serveur la fermeture TLS si possible. Les messages encore
+   * reçus ou envoyés ensuite sont ignorés.
+   */
+  public void close() {
+    closed = true;
+    selector.execute(this::shutdown);
+  }
+
+  void handle() {
+    if (closed) {
+      return;
+    }
+    try {
+      pump();
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  void fail(Exception e) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    release();
+    errorCallback.accept(e);
+  }
+
+  private void start() {
+    if (closed) {
+      return;
+    }
+    try {
+      BufferPool pool = selector.getBufferPool();
+      int packetSize = engine.getSession().getPacketBufferSize();
+      int applicationSize = engine.getSession().getApplicationBufferSize();
+      netIn = pool.acquire(packetSize);
+      netOut = pool.acquire(packetSize);
+      appIn = pool.acquire(applicationSize);
+      appOut = new ByteBufferDataOutput(pool, applicationSize);
+      key = channel.register(selector.getSelector(), SelectionKey.OP_READ, this);
+      engine.beginHandshake();
+      pump();
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  private void flush() {
+    flushRequested.set(false);
+    if (closed) {
+      return;
+    }
+    try {
+      FutureOutputMessage message;
+      while ((message = outputMessages.poll()) != null) {
+        batch.add(message);
+      }
+      batch.writeTo(appOut);
+      pump();
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  private void resume() {
+    resumeRequested.set(false);
+    if (closed) {
+      return;
+    }
+    try {
+      parse();
+      pump();
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  // chiffre, envoie, reçoit et déchiffre autant que possible sans bloquer
+  private void pump() throws IOException {
+    BufferPool pool = selector.getBufferPool();
+    boolean received = false;
+    boolean progress;
+    do {
+      progress = false;
+      if (engine.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+          task.run();
+        }
+        progress = true;
+        continue;
+      }
+      ByteBuffer appOutBuffer = appOut.getBuffer();
+      if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP || appOutBuffer.position() > 0) {
+        appOutBuffer.flip();
+        SSLEngineResult result = engine.wrap(appOutBuffer, netOut);
+        appOutBuffer.compact();
+        progress |= hasProgressed(result);
+        if (result.getStatus() == Status.BUFFER_OVERFLOW && netOut.position() == 0) {
+          netOut = pool.grow(netOut, netOut.capacity() + engine.getSession().getPacketBufferSize());
+          progress = true;
+        }
+      }
+      if (netOut.position() > 0) {
+        netOut.flip();
+        progress |= channel.write(netOut) > 0;
+        netOut.compact();
+      }
+      if (inputBlocked) {
+        // ne plus lire tant que le thread de jeu n'a pas vidé la file de réception
+        continue;
+      }
+      if (netIn.hasRemaining() && !endOfStream && !tlsClosed) {
+        int read = channel.read(netIn);
+        endOfStream = read < 0;
+        progress |= read > 0;
+      }
+      if (netIn.position() > 0) {
+        netIn.flip();
+        SSLEngineResult result = engine.unwrap(netIn, appIn);
+        netIn.compact();
+        progress |= hasProgressed(result);
+        received |= result.bytesProduced() > 0;
+        if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+          parse();
+          int applicationSize = engine.getSession().getApplicationBufferSize();
+          if (!inputBlocked && appIn.remaining() < applicationSize) {
+            // un message plus grand que le buffer est en cours de réception
+            appIn = pool.grow(appIn, appIn.position() + applicationSize);
+          }
+          progress = true;
+        } else if (result.getStatus() == Status.BUFFER_UNDERFLOW && !netIn.hasRemaining()) {
+          netIn = pool.grow(netIn, netIn.capacity() + engine.getSession().getPacketBufferSize());
+          progress = true;
+        }
+      }
+    } while (progress);
+    // parse une seule fois toutes les données reçues : un message incomplet est relu depuis son
+    // début à chaque parse, le parse à chaque enregistrement TLS reçu serait quadratique
+    if (received) {
+      parse();
+    }
+    if ((endOfStream || tlsClosed) && !inputBlocked) {
+      // les messages reçus avant la fermeture ont été parse
+      throw new EOFException(tlsClosed ? "TLS connection closed by server" : "Connection closed by server");
+    }
+    int interestOps = inputBlocked ? 0 : SelectionKey.OP_READ;
+    if (netOut.position() > 0) {
+      interestOps |= SelectionKey.OP_WRITE;
+    }
+    key.interestOps(interestOps);
+  }
+
+  // la fermeture n'est signalée qu'après le parse des données déjà déchiffrées
+  private boolean hasProgressed(SSLEngineResult result) {
+    if (result.getStatus() == Status.CLOSED) {
+      tlsClosed = true;
+    }
+    return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+  }
+
+  private void parse() throws IOException {
+    appIn.flip();
+    input.setBuffer(appIn);
+    inputBlocked = false;
+    while (appIn.hasRemaining()) {
+      if (inputMessages.isFull()) {
+        inputBlocked = true;
+        break;
+      }
+      int start = appIn.position();
+      try {
+        inputMessages.offer(InputMessageFactory.parseMessage(input, context));
+      } catch (BufferUnderflowException e) {
+        // message incomplet, le relire depuis le début à la réception de la suite
+        context.rollbackMessage();
+        appIn.position(start);
+        break;
+      }
+    }
+    appIn.compact();
+  }
+
+  // envoie la fermeture TLS sans attendre, puis libère la connexion
+  private void shutdown() {
+    if (netOut != null) {
+      try {
+        engine.closeOutbound();
+        while (!engine.isOutboundDone()) {
+          SSLEngineResult result = engine.wrap(EMPTY, netOut);
+          if (result.bytesProduced() == 0) {
+            break;
+          }
+        }
+        netOut.flip();
+        channel.write(netOut);
+      } catch (IOException | RuntimeException e) {
+        // closing, ignore.
+      }
+    }
+    release();
+  }
+
+  private void release() {
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // connection closing failed, ignore.
+    }
+    BufferPool pool = selector.getBufferPool();
+    if (netIn != null) {
+      pool.release(netIn);
+      pool.release(netOut);
+      pool.release(appIn);
+      appOut.release();
+      netIn = null;
+      netOut = null;
+      appIn = null;
+      appOut = null;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package cr.fr.saucisseroyale.miko.network;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Un lot de messages à envoyer ensemble, en une seule écriture sur le réseau.
+ * <p>
+ * Une mise à jour d'entité ajoutée au lot remplace les mises à jour plus anciennes qu'elle rend
+ * inutiles, voir {@link EntityUpdateMessage#supersedes(EntityUpdateMessage)}. Les autres messages
+ * sont envoyés dans leur ordre d'ajout.
+ * <p>
+ * Les mises à jour d'entités sont écrites avec le {@link EntityUpdateCodec} d'envoi de la
+ * connexion, au moment de l'écriture : une mise à jour remplacée n'est jamais prise comme base d'un
+ * delta de position.
+ * <p>
+ * Cette classe n'est pas thread-safe.
+ */
+class OutputBatch {
+  private final List<FutureOutputMessage> messages = new ArrayList<>();
+  private final EntityUpdateCodec entityCodec;
+
+  /**
+   * @param entityCodec Le codec d'envoi des mises à jour d'entités de la connexion.
+   */
+  public OutputBatch(EntityUpdateCodec entityCodec) {
+    this.entityCodec = entityCodec;
+  }
+
+  /**
+   * Ajoute un message au lot, après tous les messages déjà ajoutés.
+   *
+   * @param message Le message à ajouter.
+   */
+  public void add(FutureOutputMessage message) {
+    if (message instanceof EntityUpdateMessage) {
+      EntityUpdateMessage update = (EntityUpdateMessage) message;
+      for (int i = messages.size() - 1; i >= 0; i--) {
+        FutureOutputMessage queued = messages.get(i);
+        if (queued instanceof EntityUpdateMessage && update.supersedes((EntityUpdateMessage) queued)) {
+          messages.remove(i);
+          ((EntityUpdateMessage) queued).release();
+        }
+      }
+    }
+    messages.add(message);
+  }
+
+  /**
+   * @return true si le lot ne contient aucun message.
+   */
+  public boolean isEmpty() {
+    return messages.isEmpty();
+  }
+
+  /**
+   * Écrit tous les messages du lot, puis vide le lot. Les mises à jour d'entités du lot sont
+   * rendues à leur pool, même si l'écriture échoue.
+   *
+   * @param dos Le flux sur lequel écrire.
+   * @throws IOException S'il y a une erreur lors de l'écriture.
+   */
+  public void writeTo(DataOutput dos) throws IOException {
+    try {
+      for (FutureOutputMessage message : messages) {
+        if (message instanceof EntityUpdateMessage) {
+          ((EntityUpdateMessage) message).writeTo(dos, entityCodec);
+        } else {
+          message.writeTo(dos);
+        }
+      }
+    } finally {
+      for (FutureOutputMessage message : messages) {
+        if (message instanceof EntityUpdateMessage) {
+          ((EntityUpdateMessage) message).release();
+        }
+      }
+      messages.clear();
+    }
+  }
+}
@@ -6,14 +6,11 @@ import cr.fr.saucisseroyale.miko.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * Factory permettant de créer des {@link FutureOutputMessage} à partir de méthodes haut niveau.
@@ -92,116 +89,39 @@ public final class OutputMessageFactory {
     };
   }
 
-  public static FutureOutputMessage entityUpdate(long tick, EntityDataUpdate entityDataUpdate) {
-    boolean[] updateTypes = new boolean[8];
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    try (DataOutputStream buffer = new DataOutputStream(baos)) {
-      for (int b = 0; b < 8; b++) {
-        EntityUpdateType updateType = EntityUpdateType.getType(b);
-        if (updateType == null) {
-          // bit doesn't exist in the protocol or isn't implemented in client _at all_
-          // ignore
-          continue;
-        }
-        switch (updateType) {
-          case POSITION:
-            if (!entityDataUpdate.hasPosition()) {
-              break;
-            }
-            updateTypes[b] = true;
-            TerrainPoint point = entityDataUpdate.getPosition().toTerrainPoint();
-            writeTerrainPoint(buffer, point);
-            break;
-          case SPEED_ANGLE:
-            if (!entityDataUpdate.hasSpeedAngle()) {
-              break;
-            }
-            updateTypes[b] = true;
-            float speedAngle = entityDataUpdate.getSpeedAngle();
-            buffer.writeFloat(speedAngle);
-            break;
-          case SPEED_NORM:
-            if (!entityDataUpdate.hasSpeedNorm()) {
-              break;
-            }
-            updateTypes[b] = true;
-            float speedNorm = entityDataUpdate.getSpeedNorm();
-            buffer.writeFloat(speedNorm);
-            break;
-          case ENTITY_TYPE:
-            if (!entityDataUpdate.hasEntityType()) {
-              break;
-            }
-            updateTypes[b] = true;
-            EntityType entityType = entityDataUpdate.getEntityType();
-            buffer.writeShort(entityType.getId());
-            break;
-          case SPRITE_TYPE:
-            if (!entityDataUpdate.hasSprite()) {
-              break;
-            }
-            updateTypes[b] = true;
-            SpriteType spriteType = entityDataUpdate.getSpriteType();
-            buffer.writeShort(spriteType.getId());
-            break;
-          case OBJECT_DATA:
-            Map<ObjectAttribute, Object> attributes = entityDataUpdate.getObjectAttributes();
-            if (attributes.isEmpty()) {
-              break;
-            }
-            updateTypes[b] = true;
-            int size = attributes.size();
-            if (size >= 1 << 16) {
-              throw new IllegalArgumentException("The attributes list is too long, max size : 65535 attributes");
-            }
-            buffer.writeShort(size);
-            for (Entry<ObjectAttribute, Object> attribute : attributes.entrySet()) {
-              ObjectAttribute type = attribute.getKey();
-              Object value = attribute.getValue();
-              buffer.writeShort(type.getId());
-              switch (type.getDataType()) {
-                case VOID:
-                  break;
-                case ONE_SHORT:
-                case ONE_ENTITY:
-                  buffer.writeShort((int) value);
-                  break;
-                case ONE_FLOAT:
-                  buffer.writeFloat((float) value);
-                  break;
-                case ONE_TERRAIN:
-                  writeTerrainPoint(buffer, (TerrainPoint) value);
-                  break;
-                case PAIR_FLOAT_ENTITY:
-                  @SuppressWarnings("unchecked")
-                  Pair<Float, Integer> pair = (Pair<Float, Integer>) value;
-                  buffer.writeFloat(pair.getFirst());
-                  buffer.writeShort(pair.getSecond());
-                  break;
-                default:
-                  throw new IllegalArgumentException("Unknown parameters set in entityDataUpdate objectattributes");
-              }
-            }
-            break;
-          default:
-            throw new IllegalArgumentException("Unknown parameters set in entityDataUpdate");
-        }
-      }
-    } catch (IOException e) {
-      // impossible to get here since we write to a local byte array stream
-      throw new RuntimeException(e);
+  /**
+   * Crée un message annonçant les empreintes des blocs de terrain en cache, à partir de la version
+   * {@link ChunkCache#HASHES_VERSION} du protocole.
+   *
+   * @param chunks Les positions et empreintes des blocs en cache.
+   * @return Le message à envoyer.
+   * @see ChunkCache#getRecentHashes(int)
+   */
+  public static FutureOutputMessage terrainHashes(List<Pair<ChunkPoint, Long>> chunks) {
+    if (chunks.size() >= 1 << 16) {
+      throw new IllegalArgumentException("The specified list is too long, max size: 65535 chunks");
     }
-    int updateTypesByte = bitfieldToByte(updateTypes);
+    List<Pair<ChunkPoint, Long>> chunksCopy = new ArrayList<>(chunks);
     return dos -> {
-      logger.trace("Sent entityupdate");
-      dos.writeByte(MessageType.ENTITY_UPDATE.getId());
-      dos.writeShort((int) (tick % (1 << 16)));
-      dos.writeShort(entityDataUpdate.getEntityId());
-      dos.writeByte(updateTypesByte);
-      dos.write(baos.toByteArray());
+      logger.trace("Sent terrain hashes");
+      dos.writeByte(MessageType.TERRAIN_HASHES.getId());
+      dos.writeShort(chunksCopy.size());
+      for (Pair<ChunkPoint, Long> chunk : chunksCopy) {
+        dos.writeShort(chunk.getFirst().getChunkX());
+        dos.writeShort(chunk.getFirst().getChunkY());
+        dos.writeLong(chunk.getSecond());
+      }
     };
   }
 
+  public static FutureOutputMessage entityUpdate(long tick, EntityDataUpdate entityDataUpdate) {
+    return EntityUpdateMessage.encode(tick, entityDataUpdate);
+  }
+
+  public static FutureOutputMessage entityUpdate(long tick, int entityId, float x, float y, float speedAngle, float speedNorm) {
+    return EntityUpdateMessage.encode(tick, entityId, x, y, speedAngle, speedNorm);
+  }
+
   public static FutureOutputMessage action(long tick, Action action) {
     return dos -> {
       int sendTick = (int) (tick % (1 << 16));
@@ -221,27 +141,18 @@ public final class OutputMessageFactory {
   }
 
   public static FutureOutputMessage version() {
+    return version(Miko.PROTOCOL_VERSION);
+  }
+
+  public static FutureOutputMessage version(int protocolVersion) {
     return dos -> {
-      logger.trace("Sent version");
+      logger.trace("Sent version {}", protocolVersion);
       dos.writeByte(MessageType.VERSION.getId());
-      dos.writeShort(Miko.PROTOCOL_VERSION);
+      dos.writeShort(protocolVersion);
     };
   }
 
-  private static int bitfieldToByte(boolean[] values) {
-    if (values.length != 8) {
-      throw new IllegalArgumentException("The specified array has to be 8 booleans long");
-    }
-    int b = 0;
-    for (int i = 0; i < 8; i++) {
-      if (values[i]) {
-        b |= 1 << 7 - i; // on met à 1 le bit en position i en partant de la gauche
-      }
-    }
-    return b;
-  }
-
-  private static void writeAction(DataOutputStream dos, Action action) throws IOException {
+  private static void writeAction(DataOutput dos, Action action) throws IOException {
     dos.writeShort(action.getType().getId());
     switch (action.getDataType()) {
       case VOID:
@@ -268,15 +179,15 @@ public final class OutputMessageFactory {
     }
   }
 
-  private static void writeTerrainPoint(DataOutputStream dos, TerrainPoint terrainPoint) throws IOException {
+  private static void writeTerrainPoint(DataOutput dos, TerrainPoint terrainPoint) throws IOException {
     dos.writeShort(terrainPoint.getChunkX());
     dos.writeShort(terrainPoint.getChunkY());
     dos.writeByte(terrainPoint.getBlockX());
     dos.writeByte(terrainPoint.getBlockY());
   }
 
-  // DOS' writeString method writes some codepoints differently than what we want, use a custom readString method
-  private static void writeString(DataOutputStream dos, String string) throws IOException {
+  // DataOutput's writeUTF method writes some codepoints differently than what we want, use a custom readString method
+  private static void writeString(DataOutput dos, String string) throws IOException {
     // check length by characters length first to avoid heavy data array creation
     // (length in bytes >= characters length)
     if (string.length() >= 1 << 16) {
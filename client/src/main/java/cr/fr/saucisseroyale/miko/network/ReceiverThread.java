@@ -1,25 +1,31 @@
 package cr.fr.saucisseroyale.miko.network;
 
+import cr.fr.saucisseroyale.miko.util.SpscRingBuffer;
+
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Queue;
 import java.util.function.Consumer;
 
 /**
  * Thread pour recevoir les données d'un flux en boucle, de manière parallèle.
  * <p>
+ * Si la file de réception est pleine, le thread attend que le thread de jeu la vide, sans lire le
+ * flux : le serveur est alors ralenti par TCP.
+ * <p>
  * Cette classe supporte {@link #interrupt()}, pour terminer une instance de cette classe, appeler
  * cette méthode.
  */
 class ReceiverThread extends Thread {
   private DataInputStream dis;
-  private Queue<FutureInputMessage> inputMessages;
+  private SpscRingBuffer<FutureInputMessage> inputMessages;
   private Consumer<Exception> errorCallback;
+  private InputContext context;
 
-  public ReceiverThread(InputStream is, Queue<FutureInputMessage> inputMessages, Consumer<Exception> errorCallback) {
+  public ReceiverThread(InputStream is, int protocolVersion, ChunkCache chunkCache, SpscRingBuffer<FutureInputMessage> inputMessages, Consumer<Exception> errorCallback) {
     dis = new DataInputStream(new BufferedInputStream(is));
+    context = new InputContext(protocolVersion, chunkCache);
     this.inputMessages = inputMessages;
     this.errorCallback = errorCallback;
     setName("Miko Network Receiver");
@@ -30,12 +36,17 @@ class ReceiverThread extends Thread {
     while (true) {
       FutureInputMessage fim;
       try {
-        fim = InputMessageFactory.parseMessage(dis);
-        inputMessages.add(fim);
+        fim = InputMessageFactory.parseMessage(dis, context);
       } catch (IOException e) {
         errorCallback.accept(e);
         return;
       }
+      try {
+        inputMessages.put(fim);
+      } catch (InterruptedException e) {
+        // close requested, quit
+        return;
+      }
     }
   }
 }
@@ -1,25 +1,31 @@
 package cr.fr.saucisseroyale.miko.network;
 
+import cr.fr.saucisseroyale.miko.util.SpscRingBuffer;
+
 import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.BlockingQueue;
 import java.util.function.Consumer;
 
 /**
  * Thread pour émettre des données sur un flux en boucle, de manière parallèle.
  * <p>
+ * Tous les messages en attente sont écrits ensemble dans un {@link OutputBatch}, puis envoyés en un
+ * seul flush.
+ * <p>
  * Cette classe supporte {@link #interrupt()}, pour terminer une instance de cette classe, appeler
  * cette méthode.
  */
 class SenderThread extends Thread {
   private DataOutputStream dos;
-  private BlockingQueue<FutureOutputMessage> outputMessages;
+  private SpscRingBuffer<FutureOutputMessage> outputMessages;
   private Consumer<Exception> errorCallback;
+  private OutputBatch batch;
 
-  public SenderThread(OutputStream os, BlockingQueue<FutureOutputMessage> outputMessages, Consumer<Exception> errorCallback) {
+  public SenderThread(OutputStream os, int protocolVersion, SpscRingBuffer<FutureOutputMessage> outputMessages, Consumer<Exception> errorCallback) {
     dos = new DataOutputStream(new BufferedOutputStream(os));
+    batch = new OutputBatch(new EntityUpdateCodec(protocolVersion));
     this.outputMessages = outputMessages;
     this.errorCallback = errorCallback;
     setName("Miko Network Sender");
@@ -35,8 +41,11 @@ class SenderThread extends Thread {
         // close requested, quit
         return;
       }
+      do {
+        batch.add(fom);
+      } while ((fom = outputMessages.poll()) != null);
       try {
-        fom.writeTo(dos);
+        batch.writeTo(dos);
         dos.flush();
       } catch (IOException e) {
         errorCallback.accept(e);
@@ -6,15 +6,19 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.*;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Optional;
 
 /**
  * Client de serveur de temps Miko.
+ * <p>
+ * Le client échange des messages de temps avec le serveur tant qu'il est connecté, et estime en
+ * continu la différence entre l'horloge locale et celle du serveur avec un {@link ClockEstimator}.
  */
 public class TimeClient {
   private static Logger logger = LogManager.getLogger("miko.network");
+  // intervalles d'envoi des messages de temps, en millisecondes
+  private static final long STARTUP_INTERVAL = 5;
+  private static final long TRACKING_INTERVAL = 50;
   private volatile DatagramSocket socket;
   private Runnable receiverRunnable;
   private volatile boolean clockDifferenceReady;
@@ -34,7 +38,8 @@ public class TimeClient {
           }
         }
         try {
-          Thread.sleep(5);
+          // échanges rapides jusqu'à la première estimation, puis juste assez pour suivre la dérive
+          Thread.sleep(clockDifferenceReady ? TRACKING_INTERVAL : STARTUP_INTERVAL);
         } catch (InterruptedException ignore) {
           return;
         }
@@ -44,7 +49,7 @@ public class TimeClient {
     timeSenderThread.setDaemon(true);
     timeSenderThread.start();
     receiverRunnable = () -> {
-      List<TimeMessage> messages = new LinkedList<>();
+      ClockEstimator estimator = new ClockEstimator();
       DatagramPacket packet = new DatagramPacket(new byte[16], 16);
       clockDifferenceReady = false;
       while (!socket.isClosed()) {
@@ -57,26 +62,12 @@ public class TimeClient {
         long localTimestamp = byteArrayToLong(packet.getData(), 0);
         long remoteTimestamp = byteArrayToLong(packet.getData(), 8);
         long newTimestamp = System.nanoTime() / 1000;
-        long latency = (newTimestamp - localTimestamp) / 2;
-        messages.add(new TimeMessage(latency, localTimestamp + latency - remoteTimestamp));
-        if (messages.size() > 10000) {
-          messages.remove(0);
-        }
-        double meanLatency = messages.stream().mapToLong(t -> t.latency).average().getAsDouble();
-        if (messages.size() > 400) {
-          int count = 0;
-          long sum = 0;
-          for (TimeMessage timeMessage : messages) {
-            double delta = timeMessage.latency - meanLatency;
-            if (delta < -1000 || delta > 1000) {
-              continue;
-            }
-            count++;
-            sum += timeMessage.clockDifference;
-          }
-          if (count > 300) {
+        estimator.add(localTimestamp, remoteTimestamp, newTimestamp);
+        if (estimator.isReady()) {
+          clockDifference = estimator.getClockDifference();
+          if (!clockDifferenceReady) {
+            logger.debug("Clock difference ready: {} us, round trip time {} us", clockDifference, estimator.getMinRoundTripTime());
             clockDifferenceReady = true;
-            clockDifference = (long) (sum / (double) count);
           }
         }
       }
@@ -131,7 +122,8 @@ public class TimeClient {
   }
 
   /**
-   * @return la différence de temps entre l'horloge locale et l'horloge du serveur : locale - serveur
+   * @return la différence de temps entre l'horloge locale et l'horloge du serveur : locale - serveur,
+   * en microsecondes, ou rien si elle n'a pas encore été estimée
    */
   public Optional<Long> getClockDifference() {
     if (clockDifferenceReady) {
@@ -139,14 +131,4 @@ public class TimeClient {
     }
     return Optional.empty();
   }
-
-  private static class TimeMessage {
-    public final long latency;
-    public final long clockDifference;
-
-    public TimeMessage(long latency, long clockDifference) {
-      this.latency = latency;
-      this.clockDifference = clockDifference;
-    }
-  }
 }
@@ -98,6 +98,10 @@ public final class EntityDataUpdate {
     return data.containsKey(EntityUpdateType.SPRITE_TYPE);
   }
 
+  public boolean hasObjectAttributes() {
+    return !objectAttributes.isEmpty();
+  }
+
   /**
    * Un builder pour la classe {@link EntityDataUpdate}. Ne peut être construit qu'une seule fois.
    */
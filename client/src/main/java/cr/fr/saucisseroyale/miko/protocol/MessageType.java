@@ -16,6 +16,7 @@ public enum MessageType implements UniquelyIdentifiable {
   REGISTER(5), REGISTER_RESPONSE(6),
   META_ACTION(7),
   CHUNK_UPDATE(8), CHUNKS_UPDATE(21), TERRAIN_REQUEST(9),
+  CHUNKS_CACHED(22), TERRAIN_HASHES(23),
   ENTITIES_UPDATE(10), ENTITY_UPDATE(11),
   ACTIONS(12), ACTION(13),
   ENTITY_CREATE(14), ENTITY_DESTROY(15),
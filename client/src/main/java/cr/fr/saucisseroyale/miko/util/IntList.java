@@ -0,0 +1,80 @@
+package cr.fr.saucisseroyale.miko.util;
+
+import java.util.Arrays;
+
+/**
+ * Une liste d'entiers primitifs, agrandie si besoin et réutilisable grâce à {@link #clear()}.
+ * <p>
+ * Sert à éviter l'autoboxing des listes d'Integer dans les boucles fréquentes.
+ */
+public class IntList {
+  private static final int DEFAULT_CAPACITY = 16;
+  private int[] data;
+  private int size;
+
+  /**
+   * Crée une liste vide avec une capacité initiale par défaut.
+   */
+  public IntList() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Crée une liste vide avec une capacité initiale spécifiée.
+   *
+   * @param capacity La capacité initiale de la liste.
+   */
+  public IntList(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("IntList capacity must be positive or zero");
+    }
+    data = new int[capacity];
+  }
+
+  /**
+   * Ajoute un élément à la fin de la liste.
+   *
+   * @param value L'élément à ajouter.
+   */
+  public void add(int value) {
+    if (size == data.length) {
+      data = Arrays.copyOf(data, Math.max(DEFAULT_CAPACITY, size * 2));
+    }
+    data[size++] = value;
+  }
+
+  /**
+   * Retourne l'élément à l'indice spécifié.
+   *
+   * @param index L'indice de l'élément à renvoyer.
+   * @return L'élément à cet indice.
+   * @throws IndexOutOfBoundsException Si l'indice n'est pas dans la liste.
+   */
+  public int get(int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+    return data[index];
+  }
+
+  /**
+   * @return Le nombre d'éléments de la liste.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return true si la liste est vide.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Vide la liste, sans libérer sa capacité.
+   */
+  public void clear() {
+    size = 0;
+  }
+}
@@ -0,0 +1,193 @@
+package cr.fr.saucisseroyale.miko.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Une file bornée sans verrou, pour un seul thread producteur et un seul thread consommateur.
+ * <p>
+ * Les éléments sont stockés dans un tableau circulaire alloué à la création : l'ajout et le retrait
+ * d'un élément ne créent aucun objet. Quand la file est pleine, {@link #offer(Object)} échoue et
+ * {@link #put(Object)} attend que le consommateur libère de la place ; chaque fois que le producteur
+ * trouve la file pleine est compté dans {@link #getOverflowCount()}.
+ * <p>
+ * Les méthodes {@link #offer(Object)} et {@link #put(Object)} ne doivent être appelées que par le
+ * producteur, {@link #poll()} et {@link #take()} que par le consommateur.
+ *
+ * @param <T> Le type des éléments de la file.
+ */
+public class SpscRingBuffer<T> {
+  private final Object[] elements;
+  private final int mask;
+  // prochain indice à lire, écrit par le consommateur
+  private final AtomicLong head = new AtomicLong();
+  // prochain indice à écrire, écrit par le producteur
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong overflowCount = new AtomicLong();
+  // copies locales des indices de l'autre thread, pour éviter de les relire à chaque appel
+  private long cachedHead;
+  private long cachedTail;
+  private volatile Thread waitingProducer;
+  private volatile Thread waitingConsumer;
+
+  /**
+   * Crée une file vide.
+   *
+   * @param capacity La capacité minimale de la file, arrondie à la puissance de deux supérieure.
+   */
+  public SpscRingBuffer(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("SpscRingBuffer capacity must be between 1 and 2^30 inclusive");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    elements = new Object[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Ajoute un élément à la file s'il reste de la place. Appelé uniquement par le producteur.
+   *
+   * @param element L'élément à ajouter, non null.
+   * @return true si l'élément a été ajouté, false si la file était pleine.
+   */
+  public boolean offer(T element) {
+    if (element == null) {
+      throw new NullPointerException("SpscRingBuffer elements cannot be null");
+    }
+    if (!tryAdd(element)) {
+      overflowCount.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Ajoute un élément à la file, en attendant qu'il y ait de la place si elle est pleine. Appelé
+   * uniquement par le producteur.
+   *
+   * @param element L'élément à ajouter, non null.
+   * @throws InterruptedException Si le thread est interrompu pendant l'attente.
+   */
+  public void put(T element) throws InterruptedException {
+    if (offer(element)) {
+      return;
+    }
+    // enregistré avant de revérifier la file : le consommateur qui libère de la place après cette
+    // vérification voit le thread en attente et le réveille
+    waitingProducer = Thread.currentThread();
+    try {
+      while (!tryAdd(element)) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    } finally {
+      waitingProducer = null;
+    }
+  }
+
+  /**
+   * Retire le plus ancien élément de la file. Appelé uniquement par le consommateur.
+   *
+   * @return L'élément retiré, ou null si la file est vide.
+   */
+  public T poll() {
+    long currentHead = head.get();
+    if (currentHead >= cachedTail) {
+      cachedTail = tail.get();
+      if (currentHead >= cachedTail) {
+        return null;
+      }
+    }
+    int index = (int) currentHead & mask;
+    @SuppressWarnings("unchecked")
+    T element = (T) elements[index];
+    elements[index] = null;
+    // écriture volatile : ordonnée avant la lecture du producteur en attente, pour ne pas manquer son
+    // enregistrement
+    head.set(currentHead + 1);
+    Thread producer = waitingProducer;
+    if (producer != null) {
+      LockSupport.unpark(producer);
+    }
+    return element;
+  }
+
+  /**
+   * Retire le plus ancien élément de la file, en attendant qu'il y en ait un si elle est vide.
+   * Appelé uniquement par le consommateur.
+   *
+   * @return L'élément retiré.
+   * @throws InterruptedException Si le thread est interrompu pendant l'attente.
+   */
+  public T take() throws InterruptedException {
+    T element = poll();
+    if (element != null) {
+      return element;
+    }
+    // enregistré avant de revérifier la file, comme dans put
+    waitingConsumer = Thread.currentThread();
+    try {
+      while ((element = poll()) == null) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+      return element;
+    } finally {
+      waitingConsumer = null;
+    }
+  }
+
+  /**
+   * @return Le nombre d'éléments dans la file, approximatif si la file est modifiée en même temps.
+   */
+  public int size() {
+    return (int) Math.max(0, Math.min(elements.length, tail.get() - head.get()));
+  }
+
+  /**
+   * @return true si la file est pleine ; fiable uniquement pour le producteur, la file pouvant être
+   * vidée en même temps par le consommateur.
+   */
+  public boolean isFull() {
+    return tail.get() - head.get() >= elements.length;
+  }
+
+  /**
+   * @return La capacité de la file.
+   */
+  public int capacity() {
+    return elements.length;
+  }
+
+  /**
+   * @return Le nombre de fois où le producteur a trouvé la file pleine depuis sa création.
+   */
+  public long getOverflowCount() {
+    return overflowCount.get();
+  }
+
+  private boolean tryAdd(T element) {
+    long currentTail = tail.get();
+    if (currentTail - cachedHead >= elements.length) {
+      cachedHead = head.get();
+      if (currentTail - cachedHead >= elements.length) {
+        return false;
+      }
+    }
+    elements[(int) currentTail & mask] = element;
+    // écriture volatile, comme dans poll
+    tail.set(currentTail + 1);
+    Thread consumer = waitingConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+    return true;
+  }
+}